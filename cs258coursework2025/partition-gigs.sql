@@ -0,0 +1,222 @@
+-- Optional: range-partitions GIG and TICKET by the year of the gig (PostgreSQL 13 or later).
+-- Run after schema.sql, reset-data.sql and the test data have been loaded, e.g. with CWK_PARTITION=1 ./run.sh reset -f ...
+-- schema.sql drops everything this creates, so a reset returns to the unpartitioned schema.
+--
+-- - GIG is partitioned by gigdatetime, one partition per year, plus a default partition.
+-- - TICKET's rows move to TICKET_PART, partitioned the same way through a copy of their gig's gigdatetime.
+--   TICKET becomes a view over TICKET_PART whose INSTEAD OF triggers fill in that column, so GigSystem and
+--   the test data loader keep inserting, updating and deleting TICKET as before.
+-- - A partitioned table cannot have a unique index on gigid alone, so foreign keys to GIG now reference
+--   GIG_KEY(gigid), a small unpartitioned table that GIG's triggers keep in step with GIG.
+-- - The validation triggers keep working: ACT_GIG's are unchanged (they read GIG), and TICKET's move to TICKET_PART.
+--
+-- Bulk loads with session_replication_role = 'replica' skip triggers, so after this script they must write
+-- TICKET_PART (with gigdatetime) and GIG_KEY themselves.
+
+BEGIN;
+
+-- Creates one partition per year (and a default partition) of a table partitioned by a gigdatetime column.
+-- Run it for each new season before its gigs are added: a year cannot get its own partition once the
+-- default partition holds rows for it
+CREATE OR REPLACE FUNCTION create_year_partitions(parent TEXT, from_year INTEGER, to_year INTEGER)
+RETURNS VOID AS $$
+BEGIN
+    FOR y IN from_year..to_year LOOP
+        EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                       lower(parent) || '_y' || y, lower(parent), make_date(y, 1, 1), make_date(y + 1, 1, 1));
+    END LOOP;
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF %I DEFAULT', lower(parent) || '_default', lower(parent));
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- GIG_KEY: the gigid -> gigdatetime map that foreign keys reference instead of GIG
+CREATE TABLE GIG_KEY (
+    gigid INTEGER PRIMARY KEY,
+    gigdatetime TIMESTAMP NOT NULL
+);
+INSERT INTO GIG_KEY (gigid, gigdatetime) SELECT gigid, gigdatetime FROM GIG;
+
+-- Drop every foreign key that references GIG or TICKET (re-created below against GIG_KEY)
+DO $$
+DECLARE
+    fk RECORD;
+BEGIN
+    FOR fk IN SELECT conrelid::regclass AS tbl, conname FROM pg_constraint
+              WHERE contype = 'f' AND confrelid IN ('gig'::regclass, 'ticket'::regclass) LOOP
+        EXECUTE format('ALTER TABLE %s DROP CONSTRAINT %I', fk.tbl, fk.conname);
+    END LOOP;
+END $$;
+
+ALTER TABLE ACT_GIG ADD FOREIGN KEY (gigid) REFERENCES GIG_KEY(gigid) ON DELETE CASCADE;
+ALTER TABLE GIG_TICKET ADD FOREIGN KEY (gigid) REFERENCES GIG_KEY(gigid) ON DELETE CASCADE;
+ALTER TABLE SEAT ADD FOREIGN KEY (gigid) REFERENCES GIG_KEY(gigid) ON DELETE CASCADE;
+ALTER TABLE GIG_REFUND ADD FOREIGN KEY (gigid) REFERENCES GIG_KEY(gigid) ON DELETE CASCADE;
+
+
+-- GIG, partitioned by year
+-- The primary key must include the partition key; GIG_KEY keeps gigid itself unique
+ALTER TABLE GIG RENAME TO GIG_UNPARTITIONED;
+CREATE TABLE GIG (
+    LIKE GIG_UNPARTITIONED INCLUDING DEFAULTS INCLUDING CONSTRAINTS,
+    PRIMARY KEY (gigid, gigdatetime),
+    FOREIGN KEY (venueid) REFERENCES VENUE(venueid) ON DELETE CASCADE
+) PARTITION BY RANGE (gigdatetime);
+
+SELECT create_year_partitions('GIG',
+    COALESCE((SELECT MIN(EXTRACT(YEAR FROM gigdatetime))::INTEGER FROM GIG_UNPARTITIONED), EXTRACT(YEAR FROM CURRENT_DATE)::INTEGER),
+    GREATEST(COALESCE((SELECT MAX(EXTRACT(YEAR FROM gigdatetime))::INTEGER FROM GIG_UNPARTITIONED), 0),
+             EXTRACT(YEAR FROM CURRENT_DATE)::INTEGER + 1));
+
+INSERT INTO GIG SELECT * FROM GIG_UNPARTITIONED;
+DROP TABLE GIG_UNPARTITIONED CASCADE;
+
+CREATE INDEX idx_gig_venueid_gigdatetime ON GIG(venueid, gigdatetime) INCLUDE (gigid, gigstatus, gigtitle);
+
+-- Keeps GIG_KEY in step with GIG, and moves a gig's tickets with it when its date changes
+CREATE OR REPLACE FUNCTION sync_gig_key()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'INSERT' THEN
+        -- Fails on a duplicate gigid, which GIG's own primary key no longer prevents
+        INSERT INTO GIG_KEY (gigid, gigdatetime) VALUES (NEW.gigid, NEW.gigdatetime);
+    ELSIF TG_OP = 'UPDATE' THEN
+        UPDATE GIG_KEY SET gigdatetime = NEW.gigdatetime WHERE gigid = NEW.gigid;
+        UPDATE TICKET_PART SET gigdatetime = NEW.gigdatetime WHERE gigid = NEW.gigid AND gigdatetime = OLD.gigdatetime;
+    ELSE
+        -- Cascades to ACT_GIG, GIG_TICKET, TICKET_PART, SEAT and GIG_REFUND
+        DELETE FROM GIG_KEY WHERE gigid = OLD.gigid;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trigger_sync_gig_key
+    AFTER INSERT OR UPDATE OF gigdatetime OR DELETE ON GIG
+    FOR EACH ROW
+    EXECUTE FUNCTION sync_gig_key();
+
+
+-- TICKET_PART: TICKET's rows, partitioned by their gig's year
+CREATE TABLE TICKET_PART (
+    ticketid INTEGER NOT NULL DEFAULT nextval('ticket_ticketid_seq'),
+    gigid INTEGER NOT NULL,
+    customername VARCHAR(100) NOT NULL,
+    customeremail VARCHAR(100) NOT NULL,
+    pricetype CHAR(1) NOT NULL,
+    cost INTEGER NOT NULL CHECK (cost >= 0),
+    customerid INTEGER,
+    gigdatetime TIMESTAMP NOT NULL, -- Copy of GIG.gigdatetime, the partition key
+    PRIMARY KEY (ticketid, gigdatetime), -- ticketid itself stays unique through ticket_ticketid_seq
+    FOREIGN KEY (gigid) REFERENCES GIG_KEY(gigid) ON DELETE CASCADE,
+    FOREIGN KEY (customerid) REFERENCES CUSTOMER(customerid),
+    FOREIGN KEY (gigid, pricetype) REFERENCES GIG_TICKET(gigid, pricetype) ON DELETE CASCADE
+) PARTITION BY RANGE (gigdatetime);
+
+SELECT create_year_partitions('TICKET_PART',
+    COALESCE((SELECT MIN(EXTRACT(YEAR FROM gigdatetime))::INTEGER FROM GIG_KEY), EXTRACT(YEAR FROM CURRENT_DATE)::INTEGER),
+    GREATEST(COALESCE((SELECT MAX(EXTRACT(YEAR FROM gigdatetime))::INTEGER FROM GIG_KEY), 0),
+             EXTRACT(YEAR FROM CURRENT_DATE)::INTEGER + 1));
+
+INSERT INTO TICKET_PART (ticketid, gigid, customername, customeremail, pricetype, cost, customerid, gigdatetime)
+SELECT t.ticketid, t.gigid, t.customername, t.customeremail, t.pricetype, t.cost, t.customerid, k.gigdatetime
+FROM TICKET t
+JOIN GIG_KEY k ON k.gigid = t.gigid;
+
+-- Also drops TICKET_EFFECTIVE, re-created below
+DROP TABLE TICKET CASCADE;
+
+CREATE INDEX idx_ticket_gigid ON TICKET_PART(gigid);
+CREATE INDEX idx_ticket_uninterned ON TICKET_PART(ticketid) WHERE customerid IS NULL;
+
+-- TICKET's validation triggers, now on the partitioned table (cloned to every partition)
+CREATE TRIGGER trigger_validate_ticket_cost
+    BEFORE INSERT OR UPDATE OF gigid, pricetype, cost ON TICKET_PART
+    FOR EACH ROW
+    EXECUTE FUNCTION validate_ticket_cost();
+
+CREATE TRIGGER trigger_validate_venue_capacity
+    BEFORE INSERT OR UPDATE OF gigid ON TICKET_PART
+    FOR EACH ROW
+    EXECUTE FUNCTION validate_venue_capacity();
+
+-- A ticket that moves partition is inserted into the new one: it keeps its seat if its gig is unchanged,
+-- and otherwise claims one in the new gig
+CREATE TRIGGER trigger_claim_ticket_seat
+    AFTER INSERT OR UPDATE OF gigid ON TICKET_PART
+    FOR EACH ROW
+    EXECUTE FUNCTION claim_ticket_seat();
+
+-- Frees a deleted ticket's seat (SEAT.ticketid can no longer be a foreign key to TICKET)
+-- A ticket moving to another partition (its gig's date changed) is also deleted from the old one; it keeps its seat
+CREATE OR REPLACE FUNCTION free_ticket_seat()
+RETURNS TRIGGER AS $$
+BEGIN
+    UPDATE SEAT SET ticketid = NULL
+    WHERE ticketid = OLD.ticketid
+      AND NOT EXISTS (SELECT 1 FROM TICKET_PART WHERE ticketid = OLD.ticketid);
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trigger_free_ticket_seat
+    AFTER DELETE ON TICKET_PART
+    FOR EACH ROW
+    EXECUTE FUNCTION free_ticket_seat();
+
+
+-- TICKET: the original columns, in the original order
+CREATE VIEW TICKET AS
+SELECT ticketid, gigid, customername, customeremail, pricetype, cost, customerid
+FROM TICKET_PART;
+
+ALTER VIEW TICKET ALTER COLUMN ticketid SET DEFAULT nextval('ticket_ticketid_seq');
+
+CREATE OR REPLACE FUNCTION ticket_view_write()
+RETURNS TRIGGER AS $$
+DECLARE
+    gig_date TIMESTAMP;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        DELETE FROM TICKET_PART WHERE ticketid = OLD.ticketid;
+        RETURN OLD;
+    END IF;
+
+    SELECT gigdatetime INTO gig_date FROM GIG_KEY WHERE gigid = NEW.gigid;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'Gig % does not exist', NEW.gigid USING ERRCODE = 'foreign_key_violation';
+    END IF;
+
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO TICKET_PART (ticketid, gigid, customername, customeremail, pricetype, cost, customerid, gigdatetime)
+        VALUES (NEW.ticketid, NEW.gigid, NEW.customername, NEW.customeremail, NEW.pricetype, NEW.cost, NEW.customerid, gig_date);
+    ELSIF NEW.gigid IS DISTINCT FROM OLD.gigid OR NEW.pricetype IS DISTINCT FROM OLD.pricetype OR NEW.cost IS DISTINCT FROM OLD.cost THEN
+        UPDATE TICKET_PART
+        SET gigid = NEW.gigid, customername = NEW.customername, customeremail = NEW.customeremail,
+            pricetype = NEW.pricetype, cost = NEW.cost, customerid = NEW.customerid, gigdatetime = gig_date
+        WHERE ticketid = OLD.ticketid;
+    ELSE
+        -- Leaves the validated columns out of SET, so the validation triggers do not fire (e.g. interning customers)
+        UPDATE TICKET_PART
+        SET customername = NEW.customername, customeremail = NEW.customeremail, customerid = NEW.customerid
+        WHERE ticketid = OLD.ticketid;
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trigger_ticket_view_write
+    INSTEAD OF INSERT OR UPDATE OR DELETE ON TICKET
+    FOR EACH ROW
+    EXECUTE FUNCTION ticket_view_write();
+
+CREATE VIEW TICKET_EFFECTIVE AS
+SELECT t.ticketid, t.gigid, t.customerid, t.customername, t.customeremail, t.pricetype,
+       CASE WHEN r.gigid IS NULL THEN t.cost ELSE 0 END AS cost
+FROM TICKET t
+LEFT JOIN GIG_REFUND r ON r.gigid = t.gigid;
+
+COMMIT;
+
+ANALYZE GIG;
+ANALYZE TICKET_PART;
@@ -2,7 +2,12 @@ DELETE FROM ACT;
 DELETE FROM VENUE;
 DELETE FROM ACT_GIG;
 DELETE FROM GIG;
+DELETE FROM SALES_JOURNAL_REJECT;
+DELETE FROM SALES_JOURNAL_CHECKPOINT;
+DELETE FROM GIG_REFUND;
+DELETE FROM SEAT;
 DELETE FROM TICKET;
+DELETE FROM CUSTOMER;
 DELETE FROM GIG_TICKET;
 
 ALTER SEQUENCE act_actid_seq RESTART WITH 10001;
@@ -10,4 +15,5 @@ ALTER SEQUENCE venue_venueid_seq RESTART WITH 10001;
 ALTER SEQUENCE gig_gigid_seq RESTART WITH 10001;
 ALTER SEQUENCE act_actid_seq RESTART WITH 10001;
 ALTER SEQUENCE ticket_ticketid_seq RESTART WITH 10001;
+ALTER SEQUENCE customer_customerid_seq RESTART WITH 10001;
 
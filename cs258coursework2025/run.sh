@@ -9,6 +9,18 @@ resetAndLoadData(){
 	echo "Inserting test data from $1"
 
 	cat <(echo "SET session_replication_role = 'replica';") $1 <(echo "SET session_replication_role = 'origin';") | /modules/cs258/bin/psql -d cwk -q 
+	echo "Interning customers for loaded tickets"
+	echo "DO \$\$ BEGIN PERFORM intern_ticket_customers(); END \$\$;" | /modules/cs258/bin/psql -d cwk -q
+	if [ "$CWK_PARTITION" == "1" ]
+	then
+		echo "Partitioning GIG and TICKET by year with partition-gigs.sql"
+		/modules/cs258/bin/psql -d cwk -q -v ON_ERROR_STOP=1 < partition-gigs.sql || exit 1
+	fi
+	if [ "$CWK_SEATS" == "1" ]
+	then
+		echo "Creating SEAT rows for active gigs"
+		echo "SELECT COALESCE(SUM(create_gig_seats(gigid)), 0) AS seats FROM GIG WHERE gigstatus = 'G';" | /modules/cs258/bin/psql -d cwk -q
+	fi
 }
 
 if [ $# -eq 0 ]
@@ -35,5 +47,11 @@ else
     elif [ $1 == "test" ]
     then
         mvn -e -q compile exec:java@test -Dexec.args="test $2"
+    elif [ $1 == "bench" ]
+    then
+        mvn -e -q compile exec:java@bench -Dexec.args="${*:2}"
+    elif [ $1 == "plans" ]
+    then
+        mvn -e -q compile exec:java@plans -Dexec.args="${*:2}"
     fi
 fi
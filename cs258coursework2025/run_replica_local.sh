@@ -0,0 +1,36 @@
+#!/bin/bash
+
+# Starts/stops a local streaming replica of the cwk database, for testing ConnectionRouter
+# Usage: ./run_replica_local.sh start|stop|status
+# The primary is the local PostgreSQL on port 5432; the replica listens on $REPLICA_PORT (default 5433)
+
+PG_BIN="/opt/homebrew/opt/postgresql@16/bin"
+REPLICA_DIR="${REPLICA_DIR:-$HOME/cs258-replica}"
+REPLICA_PORT="${REPLICA_PORT:-5433}"
+
+case "$1" in
+    start)
+        if [ ! -d "$REPLICA_DIR" ]
+        then
+            echo "Taking base backup of the primary into $REPLICA_DIR"
+            # -R writes standby.signal and primary_conninfo, so the copy starts as a streaming standby
+            $PG_BIN/pg_basebackup -h 127.0.0.1 -p 5432 -D "$REPLICA_DIR" -R -X stream || exit 1
+        fi
+        $PG_BIN/pg_ctl -D "$REPLICA_DIR" -o "-p $REPLICA_PORT" -l "$REPLICA_DIR/replica.log" start || exit 1
+        echo "Replica running. Point GigSystem at it with:"
+        echo "  export CWK_REPLICA_URL=\"jdbc:postgresql://127.0.0.1:$REPLICA_PORT/cwk?user=$(whoami)\""
+        ;;
+    stop)
+        $PG_BIN/pg_ctl -D "$REPLICA_DIR" stop
+        ;;
+    status)
+        echo "Replica in recovery (should be t):"
+        $PG_BIN/psql -h 127.0.0.1 -p "$REPLICA_PORT" -d cwk -Atc "SELECT pg_is_in_recovery();"
+        echo "Primary replication status:"
+        $PG_BIN/psql -h 127.0.0.1 -p 5432 -d cwk -c "SELECT client_addr, state, replay_lsn, replay_lag FROM pg_stat_replication;"
+        ;;
+    *)
+        echo "Usage: $0 start|stop|status"
+        exit 1
+        ;;
+esac
@@ -2,7 +2,15 @@
 -- This schema creates all tables, sequences, and constraints needed for the coursework
 
 -- for clean reset: 
+-- (partition-gigs.sql tables first: dropping TICKET_PART also drops the TICKET view it creates)
+DROP TABLE IF EXISTS TICKET_PART CASCADE;
+DROP TABLE IF EXISTS GIG_KEY CASCADE;
+DROP TABLE IF EXISTS SALES_JOURNAL_REJECT CASCADE;
+DROP TABLE IF EXISTS SALES_JOURNAL_CHECKPOINT CASCADE;
+DROP TABLE IF EXISTS GIG_REFUND CASCADE;
+DROP TABLE IF EXISTS SEAT CASCADE;
 DROP TABLE IF EXISTS TICKET CASCADE;
+DROP TABLE IF EXISTS CUSTOMER CASCADE;
 DROP TABLE IF EXISTS GIG_TICKET CASCADE;
 DROP TABLE IF EXISTS ACT_GIG CASCADE;
 DROP TABLE IF EXISTS GIG CASCADE;
@@ -14,6 +22,7 @@ DROP SEQUENCE IF EXISTS act_actid_seq CASCADE;
 DROP SEQUENCE IF EXISTS venue_venueid_seq CASCADE;
 DROP SEQUENCE IF EXISTS gig_gigid_seq CASCADE;
 DROP SEQUENCE IF EXISTS ticket_ticketid_seq CASCADE;
+DROP SEQUENCE IF EXISTS customer_customerid_seq CASCADE;
 
 -- Drop triggers if they exist
 DROP TRIGGER IF EXISTS trigger_validate_act_gig_ontime ON ACT_GIG CASCADE;
@@ -21,6 +30,7 @@ DROP TRIGGER IF EXISTS trigger_prevent_overlapping_performances ON ACT_GIG CASCA
 DROP TRIGGER IF EXISTS trigger_validate_act_gap ON ACT_GIG CASCADE;
 DROP TRIGGER IF EXISTS trigger_validate_ticket_cost ON TICKET CASCADE;
 DROP TRIGGER IF EXISTS trigger_validate_venue_capacity ON TICKET CASCADE;
+DROP TRIGGER IF EXISTS trigger_claim_ticket_seat ON TICKET CASCADE;
 DROP TRIGGER IF EXISTS trigger_validate_first_act_start ON ACT_GIG CASCADE;
 DROP TRIGGER IF EXISTS trigger_prevent_act_simultaneous_gigs ON ACT_GIG CASCADE;
 DROP TRIGGER IF EXISTS trigger_validate_act_travel_gap ON ACT_GIG CASCADE;
@@ -37,6 +47,7 @@ DROP FUNCTION IF EXISTS prevent_overlapping_performances() CASCADE;
 DROP FUNCTION IF EXISTS validate_act_gap() CASCADE;
 DROP FUNCTION IF EXISTS validate_ticket_cost() CASCADE;
 DROP FUNCTION IF EXISTS validate_venue_capacity() CASCADE;
+DROP FUNCTION IF EXISTS claim_ticket_seat() CASCADE;
 DROP FUNCTION IF EXISTS validate_first_act_start() CASCADE;
 DROP FUNCTION IF EXISTS prevent_act_simultaneous_gigs() CASCADE;
 DROP FUNCTION IF EXISTS validate_act_travel_gap() CASCADE;
@@ -46,6 +57,12 @@ DROP FUNCTION IF EXISTS validate_same_act_break() CASCADE;
 DROP FUNCTION IF EXISTS validate_final_act_duration() CASCADE;
 DROP FUNCTION IF EXISTS validate_gig_finish_time() CASCADE;
 DROP FUNCTION IF EXISTS validate_act_fee_per_gig() CASCADE;
+DROP FUNCTION IF EXISTS intern_ticket_customers() CASCADE;
+DROP FUNCTION IF EXISTS create_gig_seats(INTEGER) CASCADE;
+DROP FUNCTION IF EXISTS create_year_partitions(TEXT, INTEGER, INTEGER) CASCADE;
+DROP FUNCTION IF EXISTS sync_gig_key() CASCADE;
+DROP FUNCTION IF EXISTS free_ticket_seat() CASCADE;
+DROP FUNCTION IF EXISTS ticket_view_write() CASCADE;
 
 
 -- ACT Table
@@ -142,8 +159,28 @@ CREATE TABLE GIG_TICKET (
     FOREIGN KEY (gigid) REFERENCES GIG(gigid) ON DELETE CASCADE
 );
 
+-- CUSTOMER Table
+-- Customer dimension: one row per distinct email, so TICKET can refer to a customer by integer key
+CREATE TABLE CUSTOMER (
+    customerid INTEGER PRIMARY KEY,
+    customername VARCHAR(100) NOT NULL,
+    customeremail VARCHAR(100) NOT NULL UNIQUE
+);
+
+-- Sequence for CUSTOMER table
+CREATE SEQUENCE customer_customerid_seq
+    START WITH 10001
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+ALTER TABLE CUSTOMER ALTER COLUMN customerid SET DEFAULT nextval('customer_customerid_seq');
+
 -- TICKET Table
 -- Stores individual ticket purchases
+-- customername/customeremail are kept because the coursework schema requires them;
+-- customerid is set by task3 (and by intern_ticket_customers() for bulk-loaded rows)
 CREATE TABLE TICKET (
     ticketid INTEGER PRIMARY KEY,
     gigid INTEGER NOT NULL,
@@ -151,7 +188,9 @@ CREATE TABLE TICKET (
     customeremail VARCHAR(100) NOT NULL,
     pricetype CHAR(1) NOT NULL,
     cost INTEGER NOT NULL CHECK (cost >= 0),
+    customerid INTEGER,
     FOREIGN KEY (gigid) REFERENCES GIG(gigid) ON DELETE CASCADE,
+    FOREIGN KEY (customerid) REFERENCES CUSTOMER(customerid),
     -- Business Rule: Ticket pricetype must match a valid GIG_TICKET entry
     FOREIGN KEY (gigid, pricetype) REFERENCES GIG_TICKET(gigid, pricetype) ON DELETE CASCADE
 );
@@ -166,17 +205,138 @@ CREATE SEQUENCE ticket_ticketid_seq
 
 ALTER TABLE TICKET ALTER COLUMN ticketid SET DEFAULT nextval('ticket_ticketid_seq');
 
+-- SEAT Table
+-- Optional seat inventory (SeatInventory): one row per seat, up to VENUE.capacity, for gigs that use it.
+-- task3 claims a free row with FOR UPDATE SKIP LOCKED instead of counting TICKET rows
+CREATE TABLE SEAT (
+    gigid INTEGER NOT NULL,
+    seatno INTEGER NOT NULL CHECK (seatno > 0),
+    ticketid INTEGER UNIQUE, -- NULL while the seat is free
+    PRIMARY KEY (gigid, seatno),
+    FOREIGN KEY (gigid) REFERENCES GIG(gigid) ON DELETE CASCADE,
+    FOREIGN KEY (ticketid) REFERENCES TICKET(ticketid) ON DELETE SET NULL
+);
+
+-- GIG_REFUND Table
+-- Optional refund ledger (RefundLedger): one row per cancelled gig whose tickets are all refunded,
+-- written instead of setting cost = 0 on every TICKET row. Rows are only ever added
+CREATE TABLE GIG_REFUND (
+    gigid INTEGER PRIMARY KEY,
+    refundedat TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    FOREIGN KEY (gigid) REFERENCES GIG(gigid) ON DELETE CASCADE
+);
+
+-- TICKET_EFFECTIVE View
+-- TICKET with the cost actually paid: 0 for a gig in GIG_REFUND, the stored cost otherwise.
+-- Revenue queries read this, so they are right whichever way a cancellation refunded the tickets
+CREATE VIEW TICKET_EFFECTIVE AS
+SELECT t.ticketid, t.gigid, t.customerid, t.customername, t.customeremail, t.pricetype,
+       CASE WHEN r.gigid IS NULL THEN t.cost ELSE 0 END AS cost
+FROM TICKET t
+LEFT JOIN GIG_REFUND r ON r.gigid = t.gigid;
+
+-- SALES_JOURNAL_CHECKPOINT Table
+-- Last journal sequence number each SalesJournal has moved into TICKET (updated in the same transaction)
+CREATE TABLE SALES_JOURNAL_CHECKPOINT (
+    journalname VARCHAR(100) PRIMARY KEY,
+    flushedseq BIGINT NOT NULL
+);
+
+-- SALES_JOURNAL_REJECT Table
+-- Journalled sales the database refused when they were flushed (e.g. the gig was cancelled meanwhile),
+-- kept so they can be reconciled with the buyers
+CREATE TABLE SALES_JOURNAL_REJECT (
+    journalname VARCHAR(100) NOT NULL,
+    seq BIGINT NOT NULL,
+    gigid INTEGER NOT NULL,
+    customername VARCHAR(100) NOT NULL,
+    customeremail VARCHAR(100) NOT NULL,
+    pricetype CHAR(1) NOT NULL,
+    cost INTEGER NOT NULL,
+    reason TEXT,
+    rejectedat TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (journalname, seq)
+);
+
 
 -- Indexes for better query performance
--- Index on ACT_GIG for Task 1 queries (filtering by gigid and ordering by ontime)
-CREATE INDEX idx_act_gig_gigid_ontime ON ACT_GIG(gigid, ontime);
+-- Index on ACT_GIG for Task 1 queries (filtering by gigid and ordering by ontime), and the per-gig trigger
+-- lookups. Covers the lineup columns, so task1 and the multi-gig lineup load are index-only scans
+CREATE INDEX idx_act_gig_gigid_ontime ON ACT_GIG(gigid, ontime) INCLUDE (actid, duration);
+
+-- Index on ACT_GIG for an act's performances by time: the simultaneous-gig and travel-gap triggers
+-- (a bounded ontime range per act) and cancelActEverywhere. The primary key only helps with actid
+CREATE INDEX idx_act_gig_actid_ontime ON ACT_GIG(actid, ontime) INCLUDE (gigid, duration);
+
+-- Lookups by name (getActIdByName, task4, getVenueId, task2, venueDay); the ids are included so
+-- the lookups are index-only scans
+CREATE INDEX idx_act_actname ON ACT(actname) INCLUDE (actid);
+CREATE INDEX idx_venue_venuename ON VENUE(venuename) INCLUDE (venueid);
 
--- Index on GIG for venue lookups
-CREATE INDEX idx_gig_venueid ON GIG(venueid);
+-- Index on GIG for venue lookups, by date (venueDay, and the venue-gap trigger's same-day lookups).
+-- Covers the GIG columns venueDay reads, so its gigs come from an index-only scan
+CREATE INDEX idx_gig_venueid_gigdatetime ON GIG(venueid, gigdatetime) INCLUDE (gigid, gigstatus, gigtitle);
 
--- Index on TICKET for gig lookups
+-- Index on TICKET for gig lookups (Task 6's ticket counts read only the index)
 CREATE INDEX idx_ticket_gigid ON TICKET(gigid);
 
+-- Partial index so intern_ticket_customers() finds the tickets not yet interned without scanning TICKET
+CREATE INDEX idx_ticket_uninterned ON TICKET(ticketid) WHERE customerid IS NULL;
+
+-- Partial index on free seats, so claiming a seat does not walk past the sold ones
+CREATE INDEX idx_seat_free ON SEAT(gigid, seatno) WHERE ticketid IS NULL;
+
+
+-- Backfill CUSTOMER and TICKET.customerid for rows that were loaded without going through task3
+-- (e.g. COPY'd test data, which is loaded with triggers disabled). Returns the number of tickets updated.
+CREATE OR REPLACE FUNCTION intern_ticket_customers()
+RETURNS INTEGER AS $$
+DECLARE
+    updated_count INTEGER;
+BEGIN
+    INSERT INTO CUSTOMER (customername, customeremail)
+    SELECT DISTINCT ON (customeremail) customername, customeremail
+    FROM TICKET
+    WHERE customerid IS NULL
+    ORDER BY customeremail, ticketid
+    ON CONFLICT (customeremail) DO NOTHING;
+
+    UPDATE TICKET t
+    SET customerid = c.customerid
+    FROM CUSTOMER c
+    WHERE t.customerid IS NULL
+      AND c.customeremail = t.customeremail;
+
+    GET DIAGNOSTICS updated_count = ROW_COUNT;
+    RETURN updated_count;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Create the SEAT rows for a gig (one per seat of its venue). Tickets already sold for the gig take the
+-- first seats, in ticketid order. Does nothing for seats that already exist. Returns the number of seats created.
+CREATE OR REPLACE FUNCTION create_gig_seats(p_gigid INTEGER)
+RETURNS INTEGER AS $$
+DECLARE
+    created_count INTEGER;
+BEGIN
+    INSERT INTO SEAT (gigid, seatno, ticketid)
+    SELECT g.gigid, s.seatno, t.ticketid
+    FROM GIG g
+    JOIN VENUE v ON v.venueid = g.venueid
+    CROSS JOIN LATERAL generate_series(1, v.capacity) AS s(seatno)
+    LEFT JOIN (
+        SELECT ticketid, ROW_NUMBER() OVER (ORDER BY ticketid) AS rn
+        FROM TICKET
+        WHERE gigid = p_gigid
+    ) t ON t.rn = s.seatno
+    WHERE g.gigid = p_gigid
+    ON CONFLICT DO NOTHING;
+
+    GET DIAGNOSTICS created_count = ROW_COUNT;
+    RETURN created_count;
+END;
+$$ LANGUAGE plpgsql;
+
 
 -- Functions and Triggers for Business Rules
 
@@ -311,6 +471,9 @@ BEGIN
       AND g.gigstatus = 'G'  -- Business Rule 16: Ignore cancelled gigs
       AND g.gigid != NEW.gigid
       AND (TG_OP = 'INSERT' OR (ag.actid, ag.gigid, ag.ontime) != (OLD.actid, OLD.gigid, OLD.ontime))
+      -- Loose bounds implied by the overlap tests (no performance is over 90 minutes), as an index range
+      AND ag.ontime >= NEW.ontime - INTERVAL '90 minutes'
+      AND ag.ontime <= new_end_time
       AND (
           -- New performance overlaps with existing performance
           (NEW.ontime >= ag.ontime AND NEW.ontime < ag.ontime + (ag.duration || ' minutes')::INTERVAL)
@@ -397,7 +560,8 @@ BEGIN
     WHERE ag.actid = NEW.actid
       AND g.gigstatus = 'G'  -- Business Rule 16: Ignore cancelled gigs
       AND g.gigid != NEW.gigid
-      AND DATE(ag.ontime) = DATE(NEW.ontime)  -- Same day
+      AND ag.ontime >= date_trunc('day', NEW.ontime)  -- Same day (a range, so idx_act_gig_actid_ontime applies)
+      AND ag.ontime < date_trunc('day', NEW.ontime) + INTERVAL '1 day'
       AND (TG_OP = 'INSERT' OR (ag.actid, ag.gigid, ag.ontime) != (OLD.actid, OLD.gigid, OLD.ontime))
       AND (ag.ontime + (ag.duration || ' minutes')::INTERVAL) <= NEW.ontime;
     
@@ -416,7 +580,8 @@ BEGIN
     WHERE ag.actid = NEW.actid
       AND g.gigstatus = 'G'  -- Business Rule 16: Ignore cancelled gigs
       AND g.gigid != NEW.gigid
-      AND DATE(ag.ontime) = DATE(NEW.ontime)  -- Same day
+      AND ag.ontime >= date_trunc('day', NEW.ontime)  -- Same day (a range, so idx_act_gig_actid_ontime applies)
+      AND ag.ontime < date_trunc('day', NEW.ontime) + INTERVAL '1 day'
       AND (TG_OP = 'INSERT' OR (ag.actid, ag.gigid, ag.ontime) != (OLD.actid, OLD.gigid, OLD.ontime))
       AND ag.ontime >= new_end_time;
     
@@ -475,7 +640,8 @@ BEGIN
         WHERE g2.venueid = venue_id
           AND g2.gigstatus = 'G'  -- Business Rule 16: Ignore cancelled gigs
           AND g2.gigid != NEW.gigid
-          AND DATE(g2.gigdatetime) = DATE(new_gig_start_time)
+          AND g2.gigdatetime >= date_trunc('day', new_gig_start_time)  -- Same day
+          AND g2.gigdatetime < date_trunc('day', new_gig_start_time) + INTERVAL '1 day'
         GROUP BY g2.gigid, g2.gigdatetime
     ) AS other_gigs
     WHERE gig_end_time <= new_gig_start_time;
@@ -493,7 +659,8 @@ BEGIN
     WHERE g2.venueid = venue_id
       AND g2.gigstatus = 'G'  -- Business Rule 16: Ignore cancelled gigs
       AND g2.gigid != NEW.gigid
-      AND DATE(g2.gigdatetime) = DATE(new_gig_start_time)
+      AND g2.gigdatetime >= date_trunc('day', new_gig_start_time)  -- Same day
+      AND g2.gigdatetime < date_trunc('day', new_gig_start_time) + INTERVAL '1 day'
       AND g2.gigdatetime >= new_gig_end_time;
     
     IF other_gig_start_time IS NOT NULL THEN
@@ -694,8 +861,9 @@ BEGIN
 END;
 $$ LANGUAGE plpgsql;
 
+-- Only re-validate when a column the rule depends on changes (e.g. not when customerid is backfilled)
 CREATE TRIGGER trigger_validate_ticket_cost
-    BEFORE INSERT OR UPDATE ON TICKET
+    BEFORE INSERT OR UPDATE OF gigid, pricetype, cost ON TICKET
     FOR EACH ROW
     EXECUTE FUNCTION validate_ticket_cost();
 
@@ -706,6 +874,12 @@ DECLARE
     venue_capacity INTEGER;
     tickets_sold INTEGER;
 BEGIN
+    -- A gig with seat inventory is checked by claim_ticket_seat() instead: every writer's ticket takes a
+    -- SEAT row, so there are never more tickets than seats and counting them again is not needed
+    IF EXISTS (SELECT 1 FROM SEAT WHERE gigid = NEW.gigid) THEN
+        RETURN NEW;
+    END IF;
+
     -- Get venue capacity for the gig
     SELECT v.capacity INTO venue_capacity
     FROM VENUE v
@@ -729,6 +903,63 @@ END;
 $$ LANGUAGE plpgsql;
 
 CREATE TRIGGER trigger_validate_venue_capacity
-    BEFORE INSERT OR UPDATE ON TICKET
+    BEFORE INSERT OR UPDATE OF gigid ON TICKET
     FOR EACH ROW
     EXECUTE FUNCTION validate_venue_capacity();
+
+-- Function to give a ticket a seat, for gigs with seat inventory (SEAT rows). Covers every writer
+-- (task3 without SeatInventory enabled, the sales journal flusher, direct inserts), so a seated gig cannot be
+-- oversold by one that does not claim a seat itself
+CREATE OR REPLACE FUNCTION claim_ticket_seat()
+RETURNS TRIGGER AS $$
+DECLARE
+    free_seat INTEGER;
+BEGIN
+    -- SeatInventory.claimAndInsert() assigns the seat before it inserts the ticket
+    IF EXISTS (SELECT 1 FROM SEAT WHERE gigid = NEW.gigid AND ticketid = NEW.ticketid) THEN
+        RETURN NULL;
+    END IF;
+
+    -- A ticket moved to another gig gives up its seat in the old one
+    UPDATE SEAT SET ticketid = NULL WHERE ticketid = NEW.ticketid;
+
+    -- Gigs without seats are checked by validate_venue_capacity()
+    IF NOT EXISTS (SELECT 1 FROM SEAT WHERE gigid = NEW.gigid) THEN
+        RETURN NULL;
+    END IF;
+
+    LOOP
+        SELECT seatno INTO free_seat
+        FROM SEAT
+        WHERE gigid = NEW.gigid AND ticketid IS NULL
+        ORDER BY seatno
+        LIMIT 1
+        FOR UPDATE SKIP LOCKED;
+
+        IF FOUND THEN
+            UPDATE SEAT SET ticketid = NEW.ticketid WHERE gigid = NEW.gigid AND seatno = free_seat;
+            RETURN NULL;
+        END IF;
+
+        -- Every free seat is held by another transaction: wait for one of them to commit or roll back.
+        -- Nothing left after the wait means the gig is full
+        PERFORM 1
+        FROM SEAT
+        WHERE gigid = NEW.gigid AND ticketid IS NULL
+        ORDER BY seatno
+        LIMIT 1
+        FOR UPDATE;
+
+        IF NOT FOUND THEN
+            RAISE EXCEPTION 'Ticket sales would exceed venue capacity (no free seat) for gig %', NEW.gigid;
+        END IF;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- After the row is written, so the ticketid is final and the seat is claimed only for a ticket that passed
+-- the BEFORE triggers
+CREATE TRIGGER trigger_claim_ticket_seat
+    AFTER INSERT OR UPDATE OF gigid ON TICKET
+    FOR EACH ROW
+    EXECUTE FUNCTION claim_ticket_seat();
@@ -0,0 +1,304 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed, column-oriented task result. Numbers are kept in primitive int[] columns and strings are
+ * dictionary-encoded (one int code per row plus one copy of each distinct value), so consumers do
+ * not have to parse numbers back out of Strings.
+ *
+ * The legacy String[][] form is only produced when toStrings() is called.
+ * Results may be shared (e.g. by TaskResultCache), so the arrays returned by the accessors must not be modified.
+ */
+public final class ColumnarResult {
+
+    /**
+     * How an int column is rendered by toStrings()
+     */
+    public enum Format {
+        NUMBER,
+        // Minutes since midnight, rendered as HH:MM (wrapping past midnight)
+        HH_MM
+    }
+
+    public abstract static class Column {
+        private final String name;
+
+        Column(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        abstract String format(int row);
+
+        abstract void appendTo(StringBuilder out, int row);
+    }
+
+    public static final class IntColumn extends Column {
+        private final int[] values;
+        private final BitSet nulls;
+        private final String nullText;
+        private final Format format;
+
+        IntColumn(String name, int[] values, BitSet nulls, String nullText, Format format) {
+            super(name);
+            this.values = values;
+            this.nulls = nulls;
+            this.nullText = nullText;
+            this.format = format;
+        }
+
+        public int get(int row) {
+            return values[row];
+        }
+
+        public boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        /**
+         * @return the backing array (read-only; null rows hold 0)
+         */
+        public int[] values() {
+            return values;
+        }
+
+        @Override
+        String format(int row) {
+            if (nulls.get(row)) {
+                return nullText;
+            }
+            if (format == Format.HH_MM) {
+                return formatMinutes(values[row]);
+            }
+            return Integer.toString(values[row]);
+        }
+
+        @Override
+        void appendTo(StringBuilder out, int row) {
+            if (nulls.get(row)) {
+                out.append(nullText);
+            } else if (format == Format.HH_MM) {
+                appendMinutes(out, values[row]);
+            } else {
+                out.append(values[row]);
+            }
+        }
+    }
+
+    public static final class DictColumn extends Column {
+        private final int[] codes;
+        private final String[] dictionary;
+
+        DictColumn(String name, int[] codes, String[] dictionary) {
+            super(name);
+            this.codes = codes;
+            this.dictionary = dictionary;
+        }
+
+        public String get(int row) {
+            return dictionary[codes[row]];
+        }
+
+        public int code(int row) {
+            return codes[row];
+        }
+
+        /**
+         * @return the backing code array (read-only), indexes into dictionary()
+         */
+        public int[] codes() {
+            return codes;
+        }
+
+        public String[] dictionary() {
+            return dictionary;
+        }
+
+        @Override
+        String format(int row) {
+            return dictionary[codes[row]];
+        }
+
+        @Override
+        void appendTo(StringBuilder out, int row) {
+            out.append(dictionary[codes[row]]);
+        }
+    }
+
+    private final Column[] columns;
+    private final int rows;
+
+    private ColumnarResult(Column[] columns, int rows) {
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    public int rowCount() {
+        return rows;
+    }
+
+    public int columnCount() {
+        return columns.length;
+    }
+
+    public Column column(int index) {
+        return columns[index];
+    }
+
+    public IntColumn intColumn(int index) {
+        return (IntColumn) columns[index];
+    }
+
+    public DictColumn dictColumn(int index) {
+        return (DictColumn) columns[index];
+    }
+
+    /**
+     * Renders the result in the legacy String[][] format. Builds a new array on every call.
+     */
+    public String[][] toStrings() {
+        String[][] out = new String[rows][columns.length];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns.length; c++) {
+                out[r][c] = columns[c].format(r);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Renders the rows into out, one line per row with the cells separated by separator, without a String
+     * per cell. Reusing out (after setLength(0)) keeps rendering allocation-free once it has grown.
+     * @return out
+     */
+    public StringBuilder appendTo(StringBuilder out, char separator) {
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns.length; c++) {
+                if (c > 0) {
+                    out.append(separator);
+                }
+                columns[c].appendTo(out, r);
+            }
+            out.append('\n');
+        }
+        return out;
+    }
+
+    static void appendMinutes(StringBuilder out, int minutes) {
+        int m = Math.floorMod(minutes, 24 * 60);
+        out.append((char) ('0' + m / 600)).append((char) ('0' + m / 60 % 10)).append(':')
+           .append((char) ('0' + m % 60 / 10)).append((char) ('0' + m % 10));
+    }
+
+    static String formatMinutes(int minutes) {
+        int m = Math.floorMod(minutes, 24 * 60);
+        char[] text = {
+            (char) ('0' + m / 600), (char) ('0' + m / 60 % 10), ':',
+            (char) ('0' + m % 60 / 10), (char) ('0' + m % 10)
+        };
+        return new String(text);
+    }
+
+    /**
+     * Builds a result row by row: call the set methods for every column, then endRow()
+     */
+    public static final class Builder {
+        private final int[][] ints;
+        private final BitSet[] nulls;
+        private final String[] nullTexts;
+        private final Format[] formats;
+        private final boolean[] isDict;
+        private final List<Map<String, Integer>> codesByValue;
+        private final String[] names;
+        private int rows = 0;
+        private int capacity;
+
+        public Builder(int expectedRows, String... columnNames) {
+            this.names = columnNames;
+            int n = columnNames.length;
+            this.ints = new int[n][];
+            this.nulls = new BitSet[n];
+            this.nullTexts = new String[n];
+            this.formats = new Format[n];
+            this.isDict = new boolean[n];
+            this.codesByValue = new ArrayList<>(n);
+            this.capacity = Math.max(expectedRows, 16);
+            for (int c = 0; c < n; c++) {
+                ints[c] = new int[capacity];
+                nulls[c] = new BitSet();
+                formats[c] = Format.NUMBER;
+                codesByValue.add(null);
+            }
+        }
+
+        /**
+         * Declares column c as an int column (the default), rendered with the given format
+         * @param nullText What toStrings() shows for a null value
+         */
+        public Builder intColumn(int c, Format format, String nullText) {
+            formats[c] = format;
+            nullTexts[c] = nullText;
+            return this;
+        }
+
+        /**
+         * Declares column c as a dictionary-encoded string column
+         */
+        public Builder dictColumn(int c) {
+            isDict[c] = true;
+            codesByValue.set(c, new HashMap<>());
+            return this;
+        }
+
+        public void setInt(int c, int value) {
+            ints[c][rows] = value;
+        }
+
+        public void setNull(int c) {
+            nulls[c].set(rows);
+        }
+
+        public void setString(int c, String value) {
+            Integer code = codesByValue.get(c).get(value);
+            if (code == null) {
+                code = codesByValue.get(c).size();
+                codesByValue.get(c).put(value, code);
+            }
+            ints[c][rows] = code;
+        }
+
+        public void endRow() {
+            rows++;
+            if (rows == capacity) {
+                capacity *= 2;
+                for (int c = 0; c < ints.length; c++) {
+                    ints[c] = Arrays.copyOf(ints[c], capacity);
+                }
+            }
+        }
+
+        public ColumnarResult build() {
+            Column[] columns = new Column[names.length];
+            for (int c = 0; c < names.length; c++) {
+                int[] values = Arrays.copyOf(ints[c], rows);
+                if (isDict[c]) {
+                    String[] dictionary = new String[codesByValue.get(c).size()];
+                    for (Map.Entry<String, Integer> e : codesByValue.get(c).entrySet()) {
+                        dictionary[e.getValue()] = e.getKey();
+                    }
+                    columns[c] = new DictColumn(names[c], values, dictionary);
+                } else {
+                    columns[c] = new IntColumn(names[c], values, nulls[c], nullTexts[c], formats[c]);
+                }
+            }
+            return new ColumnarResult(columns, rows);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A fixed-size pool of JDBC connections. Connections are opened up front; a connection that is found
+ * closed when borrowed is replaced with a new one from the factory.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final Supplier<Connection> factory;
+    private final BlockingQueue<Connection> idle;
+    private final List<Connection> all = new ArrayList<>();
+
+    /**
+     * @param size Number of connections to open
+     * @param factory Opens a new connection, e.g. GigSystem::getConnection
+     */
+    public ConnectionPool(int size, Supplier<Connection> factory) throws SQLException {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        this.factory = factory;
+        this.idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            idle.add(open());
+        }
+    }
+
+    public int size() {
+        return idle.remainingCapacity() + idle.size();
+    }
+
+    /**
+     * Waits up to timeoutMillis for an idle connection
+     * @throws SQLException if none became available in time
+     */
+    public Connection borrow(long timeoutMillis) throws SQLException {
+        Connection conn;
+        try {
+            conn = idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        if (conn == null) {
+            throw new SQLException("No connection available after " + timeoutMillis + " ms");
+        }
+        if (conn.isClosed()) {
+            synchronized (all) {
+                all.remove(conn);
+            }
+            try {
+                conn = open();
+            } catch (SQLException e) {
+                // Put a placeholder back so the pool keeps its size; it will be replaced on the next borrow
+                idle.add(conn);
+                throw e;
+            }
+        }
+        return conn;
+    }
+
+    public void release(Connection conn) {
+        idle.add(conn);
+    }
+
+    private Connection open() throws SQLException {
+        Connection conn = factory.get();
+        if (conn == null) {
+            throw new SQLException("Connection factory returned null");
+        }
+        synchronized (all) {
+            all.add(conn);
+        }
+        return conn;
+    }
+
+    @Override
+    public void close() {
+        synchronized (all) {
+            for (Connection conn : all) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            all.clear();
+        }
+        idle.clear();
+    }
+}
@@ -0,0 +1,136 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.time.LocalDateTime;
+
+/**
+ * Routes the read-only tasks (1, 5, 6, 7, 8) to a read-only replica and the writing tasks (2, 3, 4)
+ * to the primary. Without a replica everything goes to the primary.
+ *
+ * Each Session remembers when it last wrote (a task2/task3/task4 call that changed something). With
+ * read-your-writes enabled, that session's reads go to the primary until the window has passed, so it
+ * never reads a replica that has not yet replayed its own writes. Results read from the replica are
+ * never stored in TaskResultCache.
+ */
+public class ConnectionRouter {
+
+    private final Connection primary;
+    private final Connection replica;
+    private final long readYourWritesMillis;
+
+    /**
+     * @param primary Connection used for all writes
+     * @param replica Read-only connection to a streaming replica, or null to read from the primary
+     * @param readYourWritesMillis How long a session keeps reading from the primary after it writes (0 to disable)
+     */
+    public ConnectionRouter(Connection primary, Connection replica, long readYourWritesMillis) throws SQLException {
+        if (primary == null) {
+            throw new IllegalArgumentException("A primary connection is required");
+        }
+        this.primary = primary;
+        this.replica = replica;
+        this.readYourWritesMillis = readYourWritesMillis;
+        if (replica != null) {
+            replica.setReadOnly(true);
+        }
+    }
+
+    /**
+     * Builds a router from GigSystem.getConnection() and the replica configured by CWK_REPLICA_URL
+     */
+    public static ConnectionRouter fromEnvironment(long readYourWritesMillis) throws SQLException {
+        return new ConnectionRouter(GigSystem.getConnection(), GigSystem.getReplicaConnection(), readYourWritesMillis);
+    }
+
+    public Session newSession() {
+        return new Session();
+    }
+
+    public boolean hasReplica() {
+        return replica != null;
+    }
+
+    public Connection primary() {
+        return primary;
+    }
+
+    // Falls back to the primary if the replica has gone away
+    private Connection readConnection() {
+        try {
+            if (replica != null && !replica.isClosed()) {
+                return replica;
+            }
+        } catch (SQLException e) {
+            // Treat an unusable replica the same as no replica
+        }
+        return primary;
+    }
+
+    /**
+     * One caller's view of the router. Not thread-safe - use one session per request/user.
+     */
+    public class Session {
+        private long lastWriteNanos;
+        private boolean hasWritten = false;
+
+        /**
+         * @return the connection this session's next read should use
+         */
+        public Connection forRead() {
+            if (hasWritten && readYourWritesMillis > 0
+                    && System.nanoTime() - lastWriteNanos < readYourWritesMillis * 1_000_000L) {
+                return primary;
+            }
+            return readConnection();
+        }
+
+        public Connection forWrite() {
+            return primary;
+        }
+
+        private void wrote() {
+            lastWriteNanos = System.nanoTime();
+            hasWritten = true;
+        }
+
+        public String[][] task1(int gigID) {
+            return GigSystem.task1(forRead(), gigID);
+        }
+
+        public void task2(String venue, String gigTitle, LocalDateTime gigStart, int adultTicketPrice, ActPerformanceDetails[] actDetails) {
+            if (GigSystem.createGig(forWrite(), venue, gigTitle, gigStart, adultTicketPrice, actDetails)) {
+                wrote();
+            }
+        }
+
+        public void task3(int gigid, String name, String email, String ticketType) {
+            if (GigSystem.buyTicket(forWrite(), gigid, name, email, ticketType)) {
+                wrote();
+            }
+        }
+
+        public String[][] task4(int gigID, String actName) {
+            String[][] result = GigSystem.task4(forWrite(), gigID, actName);
+            if (result != null) {
+                wrote();
+            }
+            return result;
+        }
+
+        public String[][] task5() {
+            return GigSystem.task5(forRead());
+        }
+
+        public String[][] task6() {
+            return GigSystem.task6(forRead());
+        }
+
+        public String[][] task7() {
+            return GigSystem.task7(forRead());
+        }
+
+        public String[][] task8() {
+            return GigSystem.task8(forRead());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process cache of customer email to CUSTOMER.customerid.
+ *
+ * task3 resolves the customer id inside its own transaction, so an id is only
+ * remembered once that transaction has committed (otherwise a rolled back upsert
+ * could leave the cache pointing at a row that does not exist).
+ */
+public class CustomerCache {
+
+    private static final Map<String, Integer> idsByEmail = new ConcurrentHashMap<>();
+
+    private CustomerCache() {
+    }
+
+    /**
+     * Returns the cached id for an email, or null if it has not been seen yet
+     */
+    public static Integer lookup(String email) {
+        Integer id = idsByEmail.get(email);
+        GigEvents.cacheLookup("CustomerCache", email, id != null);
+        return id;
+    }
+
+    /**
+     * Upserts the customer and returns its id. Does not touch the cache - call
+     * remember() after the surrounding transaction commits.
+     */
+    public static int upsert(Connection conn, String name, String email) throws SQLException {
+        // DO NOTHING leaves an existing row untouched (no new tuple version, no row lock), but then
+        // RETURNING is empty, so the existing id is read separately
+        String sql = "INSERT INTO CUSTOMER (customername, customeremail) VALUES (?, ?) " +
+                     "ON CONFLICT (customeremail) DO NOTHING " +
+                     "RETURNING customerid";
+        try (PreparedStatement stmt = GigSystem.prepare(conn, sql)) {
+            stmt.setString(1, name);
+            stmt.setString(2, email);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("customerid");
+                }
+            }
+        }
+        String selectSql = "SELECT customerid FROM CUSTOMER WHERE customeremail = ?";
+        try (PreparedStatement stmt = GigSystem.prepare(conn, selectSql)) {
+            stmt.setString(1, email);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt("customerid");
+            }
+        }
+    }
+
+    public static void remember(String email, int customerId) {
+        idsByEmail.put(email, customerId);
+    }
+
+    public static void forget(String email) {
+        idsByEmail.remove(email);
+    }
+
+    public static void clear() {
+        idsByEmail.clear();
+    }
+}
@@ -0,0 +1,900 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Benchmarks for GigSystem, run against whatever is currently loaded in the cwk database.
+ * Usage: ./run.sh bench <mode> [args]
+ *
+ * Most modes add synthetic rows, so reset the database afterwards (./run.sh reset -f tests/testbig.sql).
+ */
+public class GigBenchmark {
+
+    public static void main(String[] args) throws SQLException {
+        if (args.length == 0) {
+            System.out.println("Usage: GigBenchmark <mode> [args]");
+            System.out.println("  customers [tickets]   TICKET storage and task7 runtime, before and after interning customers (default 10000000)");
+            System.out.println("  cache [refreshes]     tasks 5-8 dashboard refreshes with and without TaskResultCache (default 20)");
+            System.out.println("  columnar [reps]       bytes allocated by tasks 5-8, String[][] plus parsing vs ColumnarResult (default 50)");
+            System.out.println("  seats [buyers] [n]    task3 throughput, capacity trigger vs SeatInventory (default 16 buyers, 2000 purchases)");
+            System.out.println("  groupcommit [buyers] [n] [batch]  task3 throughput, commit per purchase vs PurchaseCoordinator (default 16, 2000, 32)");
+            System.out.println("  isolation [buyers] [n]  task3 throughput and retries, READ COMMITTED + gig locks vs SERIALIZABLE (default 16, 2000)");
+            System.out.println("  soldout [calls]       task3 on a sold-out gig, with and without SoldOutRegistry (default 2000)");
+            System.out.println("  journal [buyers] [n]  purchase throughput through SalesJournal, and time to drain it (default 16 buyers, 2000 purchases)");
+            System.out.println("  schedule [reps]       time and bytes allocated per task1, TO_CHAR strings vs int minutes vs rendering into a reused buffer (default 2000)");
+            System.out.println("  slowlog [reps]        time and bytes allocated per task1, SlowStatementLog off vs on but under threshold vs logging every execute (default 2000)");
+            System.out.println("  jfr [reps]            time per task1, task3 and cached task5 with and without a flight recording of the GigEvents events (default 2000)");
+            System.out.println("  lineups [gigs]        task1 for that many gigs, one call per gig vs the multi-gig overload (default 200)");
+            System.out.println("  venueday [years]      venueDay vs chained queries, after adding a gig a day of history to one venue (default 10)");
+            System.out.println("  refund [tickets]      task4 cancelling a gig with that many tickets, cost = 0 updates vs RefundLedger (default 50000)");
+            System.out.println("  explain [tickets]     EXPLAIN (ANALYZE, BUFFERS) of the task queries and index-backed lookups, with TICKET filled to that many rows (default 1000000)");
+            System.out.println("  archive               archives every season before the latest, then checks task6/task7 give the same results from the SeasonArchive merge");
+            return;
+        }
+        Connection conn = GigSystem.getConnection();
+        if (conn == null) {
+            System.err.println("Failed to get database connection");
+            return;
+        }
+        switch (args[0]) {
+            case "customers":
+                benchCustomers(conn, args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000);
+                break;
+            case "cache":
+                benchCache(conn, args.length > 1 ? Integer.parseInt(args[1]) : 20);
+                break;
+            case "columnar":
+                benchColumnar(conn, args.length > 1 ? Integer.parseInt(args[1]) : 50);
+                break;
+            case "seats":
+                benchSeats(conn, args.length > 1 ? Integer.parseInt(args[1]) : 16, args.length > 2 ? Integer.parseInt(args[2]) : 2000);
+                break;
+            case "isolation":
+                benchIsolation(conn, args.length > 1 ? Integer.parseInt(args[1]) : 16, args.length > 2 ? Integer.parseInt(args[2]) : 2000);
+                break;
+            case "soldout":
+                benchSoldOut(conn, args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+                break;
+            case "journal":
+                benchJournal(conn, args.length > 1 ? Integer.parseInt(args[1]) : 16, args.length > 2 ? Integer.parseInt(args[2]) : 2000);
+                break;
+            case "schedule":
+                benchSchedule(conn, args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+                break;
+            case "slowlog":
+                benchSlowLog(conn, args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+                break;
+            case "jfr":
+                benchFlightRecorder(conn, args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+                break;
+            case "lineups":
+                benchLineups(conn, args.length > 1 ? Integer.parseInt(args[1]) : 200);
+                break;
+            case "venueday":
+                benchVenueDay(conn, args.length > 1 ? Integer.parseInt(args[1]) : 10);
+                break;
+            case "refund":
+                benchRefund(conn, args.length > 1 ? Integer.parseInt(args[1]) : 50_000);
+                break;
+            case "archive":
+                benchArchive(conn);
+                break;
+            case "explain":
+                benchExplain(conn, args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+                break;
+            case "groupcommit":
+                benchGroupCommit(conn, args.length > 1 ? Integer.parseInt(args[1]) : 16, args.length > 2 ? Integer.parseInt(args[2]) : 2000,
+                    args.length > 3 ? Integer.parseInt(args[3]) : 32);
+                break;
+            default:
+                System.out.println("Unknown benchmark mode: " + args[0]);
+        }
+    }
+
+    /**
+     * Bulk loads synthetic tickets (triggers disabled, like run.sh does for test data) and compares
+     * TICKET storage and task7 before and after interning the customers
+     */
+    private static void benchCustomers(Connection conn, int tickets) throws SQLException {
+        int customers = Math.max(1, tickets / 20);
+        System.out.println("Loading " + tickets + " tickets for " + customers + " customers...");
+        long loadStart = System.nanoTime();
+        loadSpreadTickets(conn, tickets, customers);
+        analyze(conn, "TICKET");
+        System.out.format("Loaded in %.1f s%n", (System.nanoTime() - loadStart) / 1e9);
+
+        System.out.println("\n-- Text customers (customerid NULL) --");
+        printSize(conn, "ticket");
+        System.out.format("Average customername+customeremail width: %.1f bytes (customerid: 4 bytes)%n",
+            queryDouble(conn, "SELECT AVG(pg_column_size(customername) + pg_column_size(customeremail)) FROM TICKET"));
+        System.out.format("task7 (not interned): %.1f ms median%n", medianMillis(3, () -> GigSystem.task7(conn)));
+
+        long internStart = System.nanoTime();
+        int interned = GigSystem.internCustomers(conn);
+        analyze(conn, "TICKET");
+        analyze(conn, "CUSTOMER");
+        System.out.format("%nInterned %d tickets in %.1f s%n", interned, (System.nanoTime() - internStart) / 1e9);
+
+        System.out.println("\n-- Interned customers --");
+        printSize(conn, "ticket");
+        printSize(conn, "customer");
+        System.out.format("task7 (interned): %.1f ms median%n", medianMillis(3, () -> GigSystem.task7(conn)));
+    }
+
+    /**
+     * Simulates a dashboard that keeps refreshing tasks 5-8 while nothing is written
+     */
+    private static void benchCache(Connection conn, int refreshes) {
+        Runnable dashboard = () -> {
+            GigSystem.task5(conn);
+            GigSystem.task6(conn);
+            GigSystem.task7(conn);
+            GigSystem.task8(conn);
+        };
+
+        TaskResultCache.disable();
+        System.out.format("Uncached refresh: %.1f ms median%n", medianMillis(refreshes, dashboard));
+
+        TaskResultCache.enable(64);
+        System.out.format("Cached refresh:   %.1f ms median%n", medianMillis(refreshes, dashboard));
+        System.out.println("Cache: " + TaskResultCache.stats());
+        TaskResultCache.disable();
+    }
+
+    /**
+     * task1 on the gig with the longest lineup: the former query (TO_CHAR in the database, a String per cell
+     * from the driver), task1 now (int minutes formatted in Java), and task1Columnar rendered into a reused buffer
+     */
+    private static void benchSchedule(Connection conn, int reps) throws SQLException {
+        int gigId = (int) queryDouble(conn, "SELECT gigid FROM ACT_GIG GROUP BY gigid ORDER BY COUNT(*) DESC, gigid LIMIT 1");
+        String toCharSql = "SELECT a.actname, TO_CHAR(ag.ontime, 'HH24:MI') as ontime, " +
+                           "TO_CHAR(ag.ontime + (ag.duration || ' minutes')::INTERVAL, 'HH24:MI') as offtime " +
+                           "FROM ACT_GIG ag JOIN ACT a ON ag.actid = a.actid WHERE ag.gigid = ? ORDER BY ag.ontime ASC";
+        Runnable toChar = () -> {
+            try (PreparedStatement stmt = conn.prepareStatement(toCharSql)) {
+                stmt.setInt(1, gigId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    blackhole = GigSystem.convertResultToStrings(rs).length;
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        };
+        Runnable minutes = () -> blackhole = GigSystem.task1(conn, gigId).length;
+        StringBuilder buffer = new StringBuilder(256);
+        Runnable rendered = () -> {
+            buffer.setLength(0);
+            blackhole = GigSystem.task1Columnar(conn, gigId).appendTo(buffer, ',').length();
+        };
+
+        System.out.println("Gig " + gigId);
+        System.out.format("TO_CHAR strings:         %.3f ms median, %,d bytes/call%n", medianMillis(reps, toChar), bytesPerCall(reps, toChar));
+        System.out.format("int minutes (task1):     %.3f ms median, %,d bytes/call%n", medianMillis(reps, minutes), bytesPerCall(reps, minutes));
+        System.out.format("task1Columnar + buffer:  %.3f ms median, %,d bytes/call%n", medianMillis(reps, rendered), bytesPerCall(reps, rendered));
+    }
+
+    /**
+     * task1 on the gig with the longest lineup with the SlowStatementLog disabled, enabled with a threshold
+     * nothing reaches (the fast path every quick statement takes), and enabled with a threshold of 0
+     */
+    private static void benchSlowLog(Connection conn, int reps) throws SQLException {
+        int gigId = (int) queryDouble(conn, "SELECT gigid FROM ACT_GIG GROUP BY gigid ORDER BY COUNT(*) DESC, gigid LIMIT 1");
+        Runnable task1 = () -> blackhole = GigSystem.task1(conn, gigId).length;
+
+        SlowStatementLog.disable();
+        System.out.println("Gig " + gigId);
+        System.out.format("Log disabled:            %.3f ms median, %,d bytes/call%n", medianMillis(reps, task1), bytesPerCall(reps, task1));
+
+        SlowStatementLog.enable(60_000, entry -> blackhole = entry.rows());
+        System.out.format("Enabled, none logged:    %.3f ms median, %,d bytes/call%n", medianMillis(reps, task1), bytesPerCall(reps, task1));
+
+        SlowStatementLog.enable(0, entry -> blackhole = entry.rows());
+        System.out.format("Enabled, all logged:     %.3f ms median, %,d bytes/call%n", medianMillis(reps, task1), bytesPerCall(reps, task1));
+        SlowStatementLog.disable();
+        System.out.format("Logged %,d, dropped %,d%n", SlowStatementLog.logged(), SlowStatementLog.dropped());
+    }
+
+    /**
+     * task1, a rejected task3 (ticket type Z, which no gig sells, so it rolls back) and a cached task5, first with no
+     * recording, then while a recording with the default settings (which include the GigEvents events) runs
+     */
+    private static void benchFlightRecorder(Connection conn, int reps) throws SQLException {
+        int gigId = (int) queryDouble(conn, "SELECT gigid FROM ACT_GIG GROUP BY gigid ORDER BY COUNT(*) DESC, gigid LIMIT 1");
+        Runnable task1 = () -> blackhole = GigSystem.task1(conn, gigId).length;
+        Runnable task3 = () -> GigSystem.task3(conn, gigId, "Bench Customer", "bench@example.com", "Z");
+        Runnable task5 = () -> blackhole = GigSystem.task5(conn).length;
+        TaskResultCache.enable(64);
+
+        double[] off = {medianMillis(reps, task1), medianMillis(reps, task3), medianMillis(reps, task5)};
+        double[] on;
+        try (Recording recording = new Recording(Configuration.getConfiguration("default"))) {
+            recording.start();
+            on = new double[] {medianMillis(reps, task1), medianMillis(reps, task3), medianMillis(reps, task5)};
+            recording.stop();
+        } catch (IOException | ParseException e) {
+            throw new RuntimeException(e);
+        }
+        TaskResultCache.disable();
+
+        String[] names = {"task1", "task3 (rejected)", "task5 (cached)"};
+        for (int i = 0; i < names.length; i++) {
+            System.out.format("%-18s %.4f ms without, %.4f ms with recording (%+.1f%%)%n",
+                names[i], off[i], on[i], 100 * (on[i] - off[i]) / off[i]);
+        }
+    }
+
+    /**
+     * Fetches the lineups of the first n gigs: task1 once per gig, then the multi-gig task1 once
+     */
+    private static void benchLineups(Connection conn, int gigs) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT gigid FROM GIG ORDER BY gigid LIMIT ?")) {
+            stmt.setInt(1, gigs);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                }
+            }
+        }
+        int[] gigIDs = ids.stream().mapToInt(Integer::intValue).toArray();
+
+        System.out.format("%d gigs, task1 per gig: %.1f ms median%n", gigIDs.length, medianMillis(20, () -> {
+            for (int gigID : gigIDs) {
+                GigSystem.task1(conn, gigID);
+            }
+        }));
+        System.out.format("%d gigs, one batch:     %.1f ms median%n", gigIDs.length, medianMillis(20, () -> GigSystem.task1(conn, gigIDs)));
+    }
+
+    /**
+     * Adds a gig a day for the given number of years before 2000 to the venue of the first gig (triggers
+     * disabled), then fetches that gig's day with venueDay and with the queries a box office chained before
+     */
+    private static void benchVenueDay(Connection conn, int years) throws SQLException {
+        String venueName;
+        int venueId;
+        LocalDate date;
+        String sql = "SELECT v.venueid, v.venuename, g.gigdatetime FROM GIG g JOIN VENUE v ON g.venueid = v.venueid " +
+                     "ORDER BY g.gigid LIMIT 1";
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                System.out.println("No gigs loaded");
+                return;
+            }
+            venueId = rs.getInt("venueid");
+            venueName = rs.getString("venuename");
+            date = rs.getTimestamp("gigdatetime").toLocalDateTime().toLocalDate();
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET session_replication_role = 'replica'");
+        }
+        String historySql = "INSERT INTO GIG (venueid, gigtitle, gigdatetime, gigstatus) " +
+                            "SELECT ?, 'Bench History ' || i, TIMESTAMP '2000-01-01 20:00' - i * INTERVAL '1 day', 'G' " +
+                            "FROM generate_series(1, ?) i";
+        try (PreparedStatement stmt = conn.prepareStatement(historySql)) {
+            stmt.setInt(1, venueId);
+            stmt.setInt(2, years * 365);
+            System.out.println(venueName + ": " + stmt.executeUpdate() + " past gigs added");
+        } finally {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SET session_replication_role = 'origin'");
+            }
+        }
+        analyze(conn, "gig");
+
+        System.out.format("venueDay:        %.2f ms median%n", medianMillis(200, () -> GigSystem.venueDay(conn, venueName, date)));
+        System.out.format("chained queries: %.2f ms median%n", medianMillis(200, () -> {
+            try {
+                chainedVenueDay(conn, venueName, date);
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }));
+    }
+
+    // The venue id, the gigs that day, then task1 and a ticket count per gig
+    private static void chainedVenueDay(Connection conn, String venueName, LocalDate date) throws SQLException {
+        int venueId;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT venueid FROM VENUE WHERE venuename = ?")) {
+            stmt.setString(1, venueName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                venueId = rs.getInt(1);
+            }
+        }
+        List<Integer> gigIds = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT gigid FROM GIG WHERE venueid = ? AND gigdatetime::DATE = ?")) {
+            stmt.setInt(1, venueId);
+            stmt.setObject(2, date);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    gigIds.add(rs.getInt(1));
+                }
+            }
+        }
+        for (int gigId : gigIds) {
+            GigSystem.task1(conn, gigId);
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM TICKET WHERE gigid = ?")) {
+                stmt.setInt(1, gigId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    blackhole += rs.next() ? rs.getLong(1) : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Measures what a consumer that needs numbers allocates per call: the legacy String[][] tasks followed by
+     * Integer.parseInt on the numeric columns, against reading the int columns of the typed overloads.
+     * Uses the per-thread allocation counter of the JVM instead of JMH, which is not part of this build.
+     */
+    private static void benchColumnar(Connection conn, int reps) {
+        TaskResultCache.disable();
+        Runnable legacy = () -> {
+            long sum = 0;
+            sum += sumColumn(GigSystem.task5(conn), 1);
+            sum += sumColumn(GigSystem.task6(conn), 2);
+            sum += GigSystem.task7(conn).length;
+            sum += sumColumn(GigSystem.task8(conn), 2);
+            blackhole = sum;
+        };
+        Runnable typed = () -> {
+            long sum = 0;
+            sum += sumColumn(GigSystem.task5Columnar(conn).intColumn(1));
+            sum += sumColumn(GigSystem.task6Columnar(conn).intColumn(2));
+            sum += GigSystem.task7Columnar(conn).rowCount();
+            sum += sumColumn(GigSystem.task8Columnar(conn).intColumn(2));
+            blackhole = sum;
+        };
+
+        System.out.format("String[][] + parse: %.1f ms median, %,d bytes/call%n", medianMillis(reps, legacy), bytesPerCall(reps, legacy));
+        System.out.format("ColumnarResult:     %.1f ms median, %,d bytes/call%n", medianMillis(reps, typed), bytesPerCall(reps, typed));
+    }
+
+    /**
+     * Load harness for task3: `buyers` threads, each with its own connection, buy adult tickets for the
+     * active gig with the most free capacity. Runs once with the count-based capacity trigger and once
+     * with SeatInventory, and checks the gig was not oversold.
+     */
+    private static void benchSeats(Connection conn, int buyers, int purchases) throws SQLException {
+        int[] gig = freestGig(conn);
+        if (gig == null) {
+            System.out.println("No active gig with adult tickets");
+            return;
+        }
+        int gigId = gig[0];
+        int capacity = gig[1];
+        int perRun = Math.min(purchases, gig[2] / 2);
+        System.out.println("Gig " + gigId + ": capacity " + capacity + ", " + gig[2] + " free, " + perRun + " purchases per run, " + buyers + " buyers");
+
+        SeatInventory.disable();
+        runBuyers(gigId, buyers, perRun, "Capacity trigger");
+
+        SeatInventory.createSeats(conn, gigId);
+        SeatInventory.enable();
+        try {
+            runBuyers(gigId, buyers, perRun, "SeatInventory  ");
+        } finally {
+            SeatInventory.disable();
+        }
+
+        long sold = (long) queryDouble(conn, "SELECT COUNT(*) FROM TICKET WHERE gigid = " + gigId);
+        System.out.println("Tickets for gig " + gigId + ": " + sold + " of " + capacity + (sold > capacity ? " (OVERSOLD)" : ""));
+    }
+
+    /**
+     * Same buyers as the seats mode, first each committing its own task3, then all submitting to one
+     * PurchaseCoordinator that commits up to `batch` purchases at a time
+     */
+    private static void benchGroupCommit(Connection conn, int buyers, int purchases, int batch) throws SQLException {
+        int[] gig = freestGig(conn);
+        if (gig == null) {
+            System.out.println("No active gig with adult tickets");
+            return;
+        }
+        int gigId = gig[0];
+        int perRun = Math.min(purchases, gig[2] / 2);
+        System.out.println("Gig " + gigId + ": " + gig[2] + " free, " + perRun + " purchases per run, " + buyers + " buyers");
+
+        runBuyers(gigId, buyers, perRun, "Commit per purchase");
+
+        Connection coordinatorConn = GigSystem.getConnection();
+        PurchaseCoordinator coordinator = new PurchaseCoordinator(coordinatorConn, batch, 2);
+        AtomicInteger next = new AtomicInteger();
+        String run = Long.toString(System.nanoTime(), 36);
+        List<Thread> threads = new ArrayList<>();
+        for (int b = 0; b < buyers; b++) {
+            threads.add(new Thread(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < perRun) {
+                    coordinator.purchase(gigId, "Load Buyer " + i, "load." + run + "." + i + "@example.com", "A").join();
+                }
+            }));
+        }
+        double seconds = runThreads(threads);
+        coordinator.close();
+        coordinatorConn.close();
+        System.out.format("Group commit       : %d purchases in %.2f s (%.0f/s), %d transactions, %d rejected%n",
+            perRun, seconds, perRun / seconds, coordinator.batches(), coordinator.rejected());
+    }
+
+    /**
+     * Buyers (each with its own connection for metadata lookups) purchase through a SalesJournal in a temp file.
+     * Reports the acknowledged rate, then how long the flusher takes to move everything into TICKET.
+     */
+    private static void benchJournal(Connection conn, int buyers, int purchases) throws SQLException {
+        int[] gig = freestGig(conn);
+        if (gig == null) {
+            System.out.println("No active gig with adult tickets");
+            return;
+        }
+        int gigId = gig[0];
+        int perRun = Math.min(purchases, gig[2] / 2);
+        System.out.println("Gig " + gigId + ": " + gig[2] + " free, " + perRun + " purchases, " + buyers + " buyers");
+
+        Path file;
+        try {
+            file = Files.createTempFile("sales-journal", ".bin");
+        } catch (IOException e) {
+            throw new SQLException("Could not create journal file", e);
+        }
+        Connection flushConn = GigSystem.getConnection();
+        String journalName = "bench-" + Long.toString(System.nanoTime(), 36);
+        try (SalesJournal journal = SalesJournal.open(journalName, file, 64 * 1024 * 1024, flushConn, 50)) {
+            List<Connection> connections = new ArrayList<>();
+            for (int b = 0; b < buyers; b++) {
+                connections.add(GigSystem.getConnection());
+            }
+            AtomicInteger next = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (Connection buyer : connections) {
+                threads.add(new Thread(() -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < perRun) {
+                        try {
+                            journal.purchase(buyer, gigId, "Load Buyer " + i, "load." + journalName + "." + i + "@example.com", "A");
+                        } catch (SQLException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }));
+            }
+            double seconds = runThreads(threads);
+            System.out.format("Journal ack     : %d purchases in %.2f s (%.0f/s), %d accepted%n",
+                perRun, seconds, perRun / seconds, journal.accepted());
+
+            long drainStart = System.nanoTime();
+            journal.flushNow();
+            System.out.format("Drained to TICKET in %.2f s (%d flushed in total, %d rejected)%n",
+                (System.nanoTime() - drainStart) / 1e9, journal.flushed(), journal.rejected());
+            for (Connection buyer : connections) {
+                buyer.close();
+            }
+        } catch (IOException e) {
+            throw new SQLException("Journal I/O failed", e);
+        } finally {
+            flushConn.close();
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Concurrent buyers on one gig, first at READ COMMITTED (correctness from the gig locks and triggers),
+     * then with the write tasks at SERIALIZABLE, where TransactionRunner retries serialization failures
+     */
+    private static void benchIsolation(Connection conn, int buyers, int purchases) throws SQLException {
+        int[] gig = freestGig(conn);
+        if (gig == null) {
+            System.out.println("No active gig with adult tickets");
+            return;
+        }
+        int perRun = Math.min(purchases, gig[2] / 2);
+        System.out.println("Gig " + gig[0] + ": " + gig[2] + " free, " + perRun + " purchases per run, " + buyers + " buyers");
+        try {
+            TransactionRunner.resetMetrics();
+            TransactionRunner.setWriteIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            runBuyers(gig[0], buyers, perRun, "READ COMMITTED");
+            System.out.print(TransactionRunner.stats());
+
+            TransactionRunner.resetMetrics();
+            TransactionRunner.setWriteIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            runBuyers(gig[0], buyers, perRun, "SERIALIZABLE  ");
+            System.out.print(TransactionRunner.stats());
+        } finally {
+            TransactionRunner.setWriteIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        }
+    }
+
+    /**
+     * Fills the active gig with the smallest venue (bulk insert, triggers disabled), then times task3 calls
+     * for it: each failing on the capacity trigger, then each rejected by SoldOutRegistry
+     */
+    private static void benchSoldOut(Connection conn, int calls) throws SQLException {
+        String sql = "SELECT g.gigid, v.capacity - (SELECT COUNT(*) FROM TICKET t WHERE t.gigid = g.gigid) AS free " +
+                     "FROM GIG g JOIN VENUE v ON g.venueid = v.venueid " +
+                     "WHERE g.gigstatus = 'G' AND EXISTS (SELECT 1 FROM GIG_TICKET gt WHERE gt.gigid = g.gigid AND gt.pricetype = 'A') " +
+                     "ORDER BY v.capacity ASC LIMIT 1";
+        int gigId;
+        int free;
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                System.out.println("No active gig with adult tickets");
+                return;
+            }
+            gigId = rs.getInt("gigid");
+            free = rs.getInt("free");
+        }
+        if (free > 0) {
+            addFillerTickets(conn, gigId, free);
+        }
+        System.out.println("Gig " + gigId + " is sold out (" + free + " filler tickets added)");
+
+        // task3 prints a stack trace for every capacity failure, so silence stderr while timing
+        PrintStream err = System.err;
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Runnable attempt = () -> GigSystem.task3(conn, gigId, "Late Buyer", "late.buyer@example.com", "A");
+            SoldOutRegistry.reopen(gigId);
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                attempt.run();
+                SoldOutRegistry.reopen(gigId); // Keep every call on the database path
+            }
+            double database = (System.nanoTime() - start) / 1e3 / calls;
+
+            SoldOutRegistry.markSoldOut(gigId);
+            start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                attempt.run();
+            }
+            double registry = (System.nanoTime() - start) / 1e3 / calls;
+            System.out.format("Capacity trigger: %.1f us per rejected purchase%n", database);
+            System.out.format("SoldOutRegistry : %.3f us per rejected purchase%n", registry);
+        } finally {
+            System.setErr(err);
+        }
+    }
+
+    /**
+     * Adds the given number of adult tickets to each of two active gigs (triggers disabled, so capacity is
+     * ignored), then cancels both with task4 on their headline act: the first with cost = 0 updates, the
+     * second with RefundLedger
+     */
+    private static void benchRefund(Connection conn, int tickets) throws SQLException {
+        String sql = "SELECT g.gigid, a.actname FROM GIG g " +
+                     "JOIN LATERAL (SELECT ag.actid FROM ACT_GIG ag WHERE ag.gigid = g.gigid " +
+                     "              ORDER BY ag.ontime + ag.duration * INTERVAL '1 minute' DESC LIMIT 1) h ON true " +
+                     "JOIN ACT a ON a.actid = h.actid " +
+                     "WHERE g.gigstatus = 'G' AND EXISTS (SELECT 1 FROM GIG_TICKET gt WHERE gt.gigid = g.gigid AND gt.pricetype = 'A') " +
+                     "ORDER BY g.gigid LIMIT 2";
+        List<Integer> gigIds = new ArrayList<>();
+        List<String> headliners = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                gigIds.add(rs.getInt("gigid"));
+                headliners.add(rs.getString("actname"));
+            }
+        }
+        if (gigIds.size() < 2) {
+            System.out.println("Need two active gigs with adult tickets");
+            return;
+        }
+        for (int gigId : gigIds) {
+            addFillerTickets(conn, gigId, tickets);
+        }
+        analyze(conn, "ticket");
+        printSize(conn, "ticket");
+
+        try {
+            for (int i = 0; i < 2; i++) {
+                if (i == 1) {
+                    RefundLedger.enable();
+                }
+                long start = System.nanoTime();
+                String[][] customers = GigSystem.task4(conn, gigIds.get(i), headliners.get(i));
+                double millis = (System.nanoTime() - start) / 1e6;
+                System.out.format("%s: gig %d cancelled in %.1f ms, %d customers%n",
+                    i == 0 ? "cost = 0 updates" : "RefundLedger    ", gigIds.get(i), millis, customers == null ? -1 : customers.length);
+            }
+        } finally {
+            RefundLedger.disable();
+        }
+        printSize(conn, "ticket");
+    }
+
+    /**
+     * Archives every gig before the newest season into a temporary SeasonArchive file. Compares task6 and task7
+     * (uncached) before and after: rows, time, and the database rows the archive replaced
+     */
+    private static void benchArchive(Connection conn) throws SQLException {
+        int latestYear = (int) queryDouble(conn, "SELECT EXTRACT(YEAR FROM MAX(gigdatetime)) FROM GIG");
+        LocalDateTime cutoff = LocalDate.of(latestYear, 1, 1).atStartOfDay();
+        TaskResultCache.disable();
+
+        String[][] task6 = GigSystem.task6(conn);
+        String[][] task7 = GigSystem.task7(conn);
+        double task6Millis = medianMillis(5, () -> GigSystem.task6(conn));
+        double task7Millis = medianMillis(5, () -> GigSystem.task7(conn));
+        long ticketsBefore = (long) queryDouble(conn, "SELECT COUNT(*) FROM TICKET");
+
+        Path file;
+        try {
+            file = Files.createTempFile("seasons", ".archive");
+            SeasonArchive.enable(conn, file);
+        } catch (IOException e) {
+            throw new SQLException("Could not create the archive file", e);
+        }
+        try {
+            long start = System.nanoTime();
+            int gigs = SeasonArchive.archive(conn, cutoff);
+            System.out.format("Archived %d gigs (%d tickets) before %s in %.1f ms%n",
+                gigs, SeasonArchive.archivedTickets(), cutoff, (System.nanoTime() - start) / 1e6);
+            long bytes = Files.size(file);
+            System.out.format("Archive file: %d bytes (%.1f bytes per ticket)%n",
+                bytes, bytes / (double) Math.max(1, SeasonArchive.archivedTickets()));
+            System.out.println("TICKET rows: " + ticketsBefore + " -> " + (long) queryDouble(conn, "SELECT COUNT(*) FROM TICKET"));
+
+            System.out.println("task6 same rows: " + Arrays.deepEquals(task6, GigSystem.task6(conn)));
+            // Customers with equal ticket counts may come back in a different order, so compare sorted rows
+            System.out.println("task7 same rows: " + Arrays.deepEquals(sortedRows(task7), sortedRows(GigSystem.task7(conn))));
+            System.out.format("task6: %.1f ms median live only, %.1f ms merged%n", task6Millis, medianMillis(5, () -> GigSystem.task6(conn)));
+            System.out.format("task7: %.1f ms median live only, %.1f ms merged%n", task7Millis, medianMillis(5, () -> GigSystem.task7(conn)));
+        } catch (IOException e) {
+            throw new SQLException("Could not read the archive file", e);
+        } finally {
+            SeasonArchive.disable();
+        }
+    }
+
+    private static String[][] sortedRows(String[][] rows) {
+        if (rows == null) {
+            return null;
+        }
+        String[][] sorted = rows.clone();
+        Arrays.sort(sorted, (a, b) -> Arrays.toString(a).compareTo(Arrays.toString(b)));
+        return sorted;
+    }
+
+    /**
+     * Fills TICKET up to the given number of rows (spread over the active gigs, customers interned) and prints
+     * EXPLAIN (ANALYZE, BUFFERS) for PlanRegression's probes: the task queries, the name lookups and the trigger
+     * statements that the index suite in schema.sql is meant to serve. Prints the plans the database actually
+     * chose; ./run.sh plans check compares them with baselines.
+     */
+    private static void benchExplain(Connection conn, int tickets) throws SQLException {
+        int existing = (int) queryDouble(conn, "SELECT COUNT(*) FROM TICKET");
+        if (existing < tickets) {
+            System.out.println("Loading " + (tickets - existing) + " tickets...");
+            loadSpreadTickets(conn, tickets - existing, Math.max(1, tickets / 20));
+            GigSystem.internCustomers(conn);
+        }
+        for (String table : new String[] {"act", "venue", "gig", "act_gig", "gig_ticket", "customer", "ticket"}) {
+            analyze(conn, table);
+        }
+        printSize(conn, "ticket");
+
+        List<PlanRegression.Probe> probes = PlanRegression.probes(conn);
+        if (probes.isEmpty()) {
+            System.out.println("No active gigs with performances");
+        }
+        for (PlanRegression.Probe probe : probes) {
+            explain(conn, probe.name, probe.sql, probe.params);
+        }
+    }
+
+    private static void explain(Connection conn, String label, String sql, Object... params) throws SQLException {
+        System.out.println("\n-- " + label + " --");
+        try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    System.out.println(rs.getString(1));
+                }
+            }
+        }
+    }
+
+    // Bulk inserts tickets spread round-robin over every price of every active gig, for that many distinct
+    // customers, with triggers disabled (as run.sh loads test data)
+    static void loadSpreadTickets(Connection conn, int tickets, int customers) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET session_replication_role = 'replica'");
+        }
+        String loadSql =
+            "WITH prices AS (" +
+            "    SELECT gt.gigid, gt.pricetype, gt.price, ROW_NUMBER() OVER (ORDER BY gt.gigid, gt.pricetype) - 1 AS idx " +
+            "    FROM GIG_TICKET gt JOIN GIG g ON gt.gigid = g.gigid WHERE g.gigstatus = 'G'" +
+            "), n AS (SELECT COUNT(*) AS c FROM prices) " +
+            "INSERT INTO TICKET (gigid, customername, customeremail, pricetype, cost) " +
+            "SELECT p.gigid, 'Bench Customer ' || (i % ?), 'bench.customer' || (i % ?) || '@example.com', p.pricetype, p.price " +
+            "FROM generate_series(1, ?) i CROSS JOIN n JOIN prices p ON p.idx = i % n.c";
+        try (PreparedStatement stmt = conn.prepareStatement(loadSql)) {
+            stmt.setInt(1, customers);
+            stmt.setInt(2, customers);
+            stmt.setInt(3, tickets);
+            stmt.executeUpdate();
+        } finally {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SET session_replication_role = 'origin'");
+            }
+        }
+    }
+
+    // Bulk inserts adult tickets for a gig with triggers disabled (as run.sh loads test data)
+    private static void addFillerTickets(Connection conn, int gigId, int tickets) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("SET session_replication_role = 'replica'");
+        }
+        String fillSql = "INSERT INTO TICKET (gigid, customername, customeremail, pricetype, cost) " +
+                         "SELECT ?, 'Bench Filler', 'bench.filler' || i || '@example.com', 'A', gt.price " +
+                         "FROM generate_series(1, ?) i JOIN GIG_TICKET gt ON gt.gigid = ? AND gt.pricetype = 'A'";
+        try (PreparedStatement stmt = conn.prepareStatement(fillSql)) {
+            stmt.setInt(1, gigId);
+            stmt.setInt(2, tickets);
+            stmt.setInt(3, gigId);
+            stmt.executeUpdate();
+        } finally {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SET session_replication_role = 'origin'");
+            }
+        }
+    }
+
+    // Returns {gigid, capacity, free seats} of the active gig with the most free capacity, or null
+    private static int[] freestGig(Connection conn) throws SQLException {
+        String sql = "SELECT g.gigid, v.capacity, v.capacity - (SELECT COUNT(*) FROM TICKET t WHERE t.gigid = g.gigid) AS free " +
+                     "FROM GIG g JOIN VENUE v ON g.venueid = v.venueid " +
+                     "WHERE g.gigstatus = 'G' AND EXISTS (SELECT 1 FROM GIG_TICKET gt WHERE gt.gigid = g.gigid AND gt.pricetype = 'A') " +
+                     "ORDER BY free DESC LIMIT 1";
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+            return new int[] {rs.getInt("gigid"), rs.getInt("capacity"), rs.getInt("free")};
+        }
+    }
+
+    private static void runBuyers(int gigId, int buyers, int purchases, String label) throws SQLException {
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < buyers; i++) {
+            Connection buyer = GigSystem.getConnection();
+            if (buyer == null) {
+                throw new SQLException("Failed to get database connection");
+            }
+            connections.add(buyer);
+        }
+        AtomicInteger next = new AtomicInteger();
+        String run = Long.toString(System.nanoTime(), 36);
+        List<Thread> threads = new ArrayList<>();
+        for (Connection buyer : connections) {
+            threads.add(new Thread(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < purchases) {
+                    GigSystem.task3(buyer, gigId, "Load Buyer " + i, "load." + run + "." + i + "@example.com", "A");
+                }
+            }));
+        }
+        double seconds = runThreads(threads);
+        System.out.format("%s: %d purchases in %.2f s (%.0f/s)%n", label, purchases, seconds, purchases / seconds);
+        for (Connection buyer : connections) {
+            buyer.close();
+        }
+    }
+
+    // Starts the threads, waits for all of them, and returns the elapsed seconds
+    private static double runThreads(List<Thread> threads) {
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    // Keeps the JIT from discarding the benchmarked work
+    private static volatile long blackhole;
+
+    private static long sumColumn(String[][] rows, int column) {
+        long sum = 0;
+        for (String[] row : rows) {
+            if (!"Total".equals(row[column - 1])) { // task6 puts 'Total' in the year column
+                sum += Integer.parseInt(row[column]);
+            }
+        }
+        return sum;
+    }
+
+    private static long sumColumn(ColumnarResult.IntColumn column) {
+        long sum = 0;
+        for (int value : column.values()) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static long bytesPerCall(int reps, Runnable body) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        body.run(); // warm-up
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < reps; i++) {
+            body.run();
+        }
+        return (threads.getThreadAllocatedBytes(thread) - before) / reps;
+    }
+
+    // Utility Methods
+
+    private static double medianMillis(int reps, Runnable body) {
+        double[] samples = new double[reps];
+        body.run(); // warm-up (plan caching, buffer cache)
+        for (int i = 0; i < reps; i++) {
+            long start = System.nanoTime();
+            body.run();
+            samples[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(samples);
+        return samples[reps / 2];
+    }
+
+    private static void analyze(Connection conn, String table) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ANALYZE " + table);
+        }
+    }
+
+    private static void printSize(Connection conn, String table) throws SQLException {
+        String sql = "SELECT pg_size_pretty(pg_table_size(?::regclass)), pg_size_pretty(pg_indexes_size(?::regclass))";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, table);
+            stmt.setString(2, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                System.out.println(table.toUpperCase() + ": heap " + rs.getString(1) + ", indexes " + rs.getString(2));
+            }
+        }
+    }
+
+    private static double queryDouble(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getDouble(1) : 0;
+        }
+    }
+}
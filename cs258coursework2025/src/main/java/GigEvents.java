@@ -0,0 +1,178 @@
+import java.sql.SQLException;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for GigSystem, so time spent in tasks, SQL, transactions and caches shows up in
+ * a recording next to GC, lock and I/O events (JDK Mission Control lists them under "GigSystem").
+ *
+ * Custom events are on in every recording, including one with the default settings, e.g.
+ *   java -XX:StartFlightRecording=filename=gig.jfr ...   or   jcmd <pid> JFR.start
+ * and any of them can be turned off by name (cs258.Task, cs258.Statement, cs258.Transaction,
+ * cs258.CacheLookup) in a .jfc settings file.
+ *
+ * To keep the cost low enough to leave on: no event takes a stack trace, arguments and SQL are only rendered
+ * for an event that will be written, and with no recording running each event costs one enabled check.
+ * Statement events rely on the proxy GigSystem.prepare() installs (see SlowStatementLog), which is only
+ * installed while a recording has cs258.Statement enabled.
+ */
+public class GigEvents {
+
+    private GigEvents() {
+    }
+
+    @Name("cs258.Task")
+    @Label("Task")
+    @Description("A call to one of the coursework task methods (task1-task8)")
+    @Category("GigSystem")
+    @StackTrace(false)
+    static final class TaskEvent extends Event {
+        @Label("Task")
+        String task;
+
+        @Label("Arguments")
+        String arguments;
+
+        @Label("Rows")
+        @Description("Rows returned, or -1 for a task with no result (task2, task3) or one that failed")
+        int rows;
+    }
+
+    @Name("cs258.Statement")
+    @Label("Statement")
+    @Description("One execute of a statement prepared by GigSystem; a query's event is written once its rows have been read")
+    @Category("GigSystem")
+    @StackTrace(false)
+    static final class StatementEvent extends Event {
+        @Label("SQL")
+        String sql;
+
+        @Label("Parameters")
+        String parameters;
+
+        @Label("Rows")
+        @Description("Rows read for a query, rows changed for an update, -1 if the execute failed")
+        long rows;
+
+        @Label("SQL State")
+        @Description("Set if the execute failed, e.g. P0001 for an exception raised by a trigger")
+        String sqlState;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("cs258.Transaction")
+    @Label("Transaction")
+    @Description("One attempt at a write task's transaction in TransactionRunner")
+    @Category("GigSystem")
+    @StackTrace(false)
+    static final class TransactionEvent extends Event {
+        @Label("Task")
+        String task;
+
+        @Label("Attempt")
+        int attempt;
+
+        @Label("Isolation")
+        String isolation;
+
+        @Label("Committed")
+        boolean committed;
+
+        @Label("Cause SQL State")
+        @Description("Why the transaction rolled back, e.g. 40001 for a serialization failure (then retried)")
+        String causeSqlState;
+
+        @Label("Cause")
+        String cause;
+    }
+
+    @Name("cs258.CacheLookup")
+    @Label("Cache Lookup")
+    @Category("GigSystem")
+    @StackTrace(false)
+    static final class CacheLookupEvent extends Event {
+        @Label("Cache")
+        String cache;
+
+        @Label("Key")
+        String key;
+
+        @Label("Hit")
+        boolean hit;
+    }
+
+    static TaskEvent taskStarted() {
+        TaskEvent event = new TaskEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * @param result What the task returned (its length is recorded), or null
+     */
+    static void taskFinished(TaskEvent event, String task, Object[] result, Object... arguments) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.task = task;
+            event.arguments = SlowStatementLog.render(arguments);
+            event.rows = result == null ? -1 : result.length;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return whether a running recording wants statement events (so prepare() has to wrap statements)
+     */
+    static boolean statementsRecorded() {
+        return new StatementEvent().isEnabled();
+    }
+
+    static void statementFailed(StatementEvent event, SQLException e) {
+        event.sqlState = e.getSQLState();
+        event.error = e.getMessage();
+    }
+
+    static void transactionEnded(TransactionEvent event, String task, int attempt, String isolation, Throwable cause) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.task = task;
+            event.attempt = attempt;
+            event.isolation = isolation;
+            event.committed = cause == null;
+            if (cause instanceof SQLException) {
+                event.causeSqlState = ((SQLException) cause).getSQLState();
+            }
+            if (cause != null) {
+                event.cause = cause.toString();
+            }
+            event.commit();
+        }
+    }
+
+    static void cacheLookup(String cache, String key, boolean hit) {
+        CacheLookupEvent event = new CacheLookupEvent();
+        if (event.isEnabled()) {
+            event.cache = cache;
+            event.key = key;
+            event.hit = hit;
+            event.commit();
+        }
+    }
+
+    static void cacheLookup(String cache, int key, boolean hit) {
+        CacheLookupEvent event = new CacheLookupEvent();
+        if (event.isEnabled()) {
+            event.cache = cache;
+            event.key = Integer.toString(key);
+            event.hit = hit;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Transaction-scoped PostgreSQL advisory locks, striped per gig, so writers on different gigs
+ * never wait for each other while writers on the same gig are serialized.
+ *
+ * - task3 takes the gig's lock shared: ticket sales run concurrently with each other. PurchaseCoordinator
+ *   and the SalesJournal flush sell for several gigs in one transaction, and take their shared locks in
+ *   ascending gigid order.
+ * - task4 takes it exclusive: it waits for sales in progress, and new sales wait for the
+ *   cancellation to commit (and then see the gig as cancelled). cancelActEverywhere does the same for
+ *   every gig it changes.
+ *
+ * task2 locks what its triggers read instead (see lockForNewGig): the venue on the gig's day, and
+ * every act in the lineup. Two gig creations only wait for each other if they share a venue-day or an act.
+ *
+ * Writers take their gig lock before reading the gig. At REPEATABLE READ or SERIALIZABLE the lock query
+ * itself takes the transaction's snapshot, before it waits, so a gig lock that is not free straight away
+ * fails the attempt with a serialization failure once it is; TransactionRunner then retries with a fresh snapshot.
+ *
+ * Gig and act locks use the two-int form of pg_advisory_xact_lock, with a namespace as the first key.
+ * Venue-day locks use the bigint form, whose key space is separate. All locks are released when the
+ * transaction commits or rolls back.
+ */
+public class GigLocks {
+
+    static final int NS_GIG = 1;
+    static final int NS_ACT = 2;
+
+    private GigLocks() {
+    }
+
+    public static void lockGigShared(Connection conn, int gigId) throws SQLException {
+        lockGig(conn, "pg_advisory_xact_lock_shared", gigId);
+    }
+
+    public static void lockGigExclusive(Connection conn, int gigId) throws SQLException {
+        lockGig(conn, "pg_advisory_xact_lock", gigId);
+    }
+
+    /**
+     * Exclusive locks on several gigs (cancelActEverywhere), taken in ascending gigid order. Every writer that
+     * holds more than one gig lock (shared or exclusive) takes them in that order, so none of them can deadlock.
+     * A single-gig writer holds only one gig lock, so cannot deadlock with them either.
+     */
+    public static void lockGigsExclusive(Connection conn, int[] gigIds) throws SQLException {
+        int[] sorted = Arrays.stream(gigIds).distinct().sorted().toArray();
+        for (int gigId : sorted) {
+            lockGig(conn, "pg_advisory_xact_lock", gigId);
+        }
+    }
+
+    /**
+     * Locks for task2: the venue for the gig's day (Business Rule 9 reads the venue's other gigs that day),
+     * then each distinct act in ascending actid order (Business Rule 2 and the travel gap read the act's other gigs).
+     * Every caller takes the venue-day lock before any act lock, and act locks in the same order, so two
+     * gig creations cannot deadlock.
+     */
+    public static void lockForNewGig(Connection conn, int venueId, LocalDate day, int[] actIds) throws SQLException {
+        try (PreparedStatement stmt = GigSystem.prepare(conn, "SELECT pg_advisory_xact_lock(?)")) {
+            stmt.setLong(1, venueDayKey(venueId, day));
+            stmt.execute();
+        }
+        int[] sorted = Arrays.stream(actIds).distinct().sorted().toArray();
+        for (int actId : sorted) {
+            lock(conn, "pg_advisory_xact_lock", NS_ACT, actId);
+        }
+    }
+
+    // Venue in the high 32 bits, days since 1970-01-01 in the low 32 bits
+    static long venueDayKey(int venueId, LocalDate day) {
+        return ((long) venueId << 32) | (day.toEpochDay() & 0xFFFFFFFFL);
+    }
+
+    private static void lockGig(Connection conn, String function, int gigId) throws SQLException {
+        if (!TransactionRunner.usesTransactionSnapshot()) {
+            lock(conn, function, NS_GIG, gigId);
+            return;
+        }
+        boolean acquired;
+        try (PreparedStatement stmt = GigSystem.prepare(conn, "SELECT " + function.replace("pg_", "pg_try_") + "(?, ?)")) {
+            stmt.setInt(1, NS_GIG);
+            stmt.setInt(2, gigId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                acquired = rs.getBoolean(1);
+            }
+        }
+        if (!acquired) {
+            // The snapshot may miss what the holder commits: wait for it, then have the transaction retried
+            lock(conn, function, NS_GIG, gigId);
+            throw new SQLException("Gig " + gigId + " was locked when the transaction's snapshot was taken", "40001");
+        }
+    }
+
+    private static void lock(Connection conn, String function, int namespace, int key) throws SQLException {
+        try (PreparedStatement stmt = GigSystem.prepare(conn, "SELECT " + function + "(?, ?)")) {
+            stmt.setInt(1, namespace);
+            stmt.setInt(2, key);
+            stmt.execute();
+        }
+    }
+}
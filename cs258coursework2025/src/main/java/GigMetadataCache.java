@@ -0,0 +1,138 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of the per-gig data task3 checks before selling a ticket: gig status,
+ * pricetype to price, and venue capacity.
+ *
+ * The cache is only a hint. task3 still inserts with a gigstatus = 'G' guard and the TICKET triggers
+ * still check the price and capacity, so a stale entry makes a purchase fail rather than succeed wrongly.
+ * task2 and task4 (cancelEntireGig) invalidate the gig after they commit.
+ */
+public class GigMetadataCache {
+
+    /**
+     * Immutable snapshot of one gig
+     */
+    public static final class GigMetadata {
+        private final int gigId;
+        private final char status;
+        private final int capacity;
+        private final Map<Character, Integer> prices;
+
+        GigMetadata(int gigId, char status, int capacity, Map<Character, Integer> prices) {
+            this.gigId = gigId;
+            this.status = status;
+            this.capacity = capacity;
+            this.prices = Collections.unmodifiableMap(prices);
+        }
+
+        public int gigId() {
+            return gigId;
+        }
+
+        public boolean isActive() {
+            return status == 'G';
+        }
+
+        public int capacity() {
+            return capacity;
+        }
+
+        /**
+         * @return the price of a ticket type, or null if the gig does not sell it
+         */
+        public Integer price(char priceType) {
+            return prices.get(priceType);
+        }
+    }
+
+    private static final Map<Integer, GigMetadata> gigs = new ConcurrentHashMap<>();
+
+    // Bumped by every invalidation, so a load that overlapped one is not cached
+    private static final AtomicLong generation = new AtomicLong();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private GigMetadataCache() {
+    }
+
+    /**
+     * Returns the gig's metadata, loading it with one query on a miss
+     * @return null if the gig does not exist (not cached, so a gig created later is found)
+     */
+    public static GigMetadata get(Connection conn, int gigId) throws SQLException {
+        GigMetadata cached = gigs.get(gigId);
+        if (cached != null) {
+            hits.incrementAndGet();
+            GigEvents.cacheLookup("GigMetadataCache", gigId, true);
+            return cached;
+        }
+        misses.incrementAndGet();
+        GigEvents.cacheLookup("GigMetadataCache", gigId, false);
+
+        long before = generation.get();
+        GigMetadata loaded = load(conn, gigId);
+        if (loaded != null && generation.get() == before) {
+            gigs.putIfAbsent(gigId, loaded);
+        }
+        return loaded;
+    }
+
+    private static GigMetadata load(Connection conn, int gigId) throws SQLException {
+        String sql = "SELECT g.gigstatus, v.capacity, gt.pricetype, gt.price " +
+                     "FROM GIG g " +
+                     "JOIN VENUE v ON g.venueid = v.venueid " +
+                     "LEFT JOIN GIG_TICKET gt ON gt.gigid = g.gigid " +
+                     "WHERE g.gigid = ?";
+        try (PreparedStatement stmt = GigSystem.prepare(conn, sql)) {
+            stmt.setInt(1, gigId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                char status = 0;
+                int capacity = 0;
+                Map<Character, Integer> prices = new HashMap<>();
+                boolean found = false;
+                while (rs.next()) {
+                    found = true;
+                    status = rs.getString("gigstatus").charAt(0);
+                    capacity = rs.getInt("capacity");
+                    String priceType = rs.getString("pricetype");
+                    if (priceType != null) {
+                        prices.put(priceType.charAt(0), rs.getInt("price"));
+                    }
+                }
+                return found ? new GigMetadata(gigId, status, capacity, prices) : null;
+            }
+        }
+    }
+
+    /**
+     * Called after a committed change to a gig (created, cancelled, or its prices changed)
+     */
+    public static void invalidate(int gigId) {
+        generation.incrementAndGet();
+        gigs.remove(gigId);
+    }
+
+    public static void clear() {
+        generation.incrementAndGet();
+        gigs.clear();
+    }
+
+    public static long hits() {
+        return hits.get();
+    }
+
+    public static long misses() {
+        return misses.get();
+    }
+}
@@ -10,17 +10,23 @@ import java.util.List;
 import java.util.Properties;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Set;
 import java.util.HashSet;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.sql.Timestamp;
 import java.util.Vector;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.function.BiConsumer;
 
 public class GigSystem {
 
+    // Rows fetched per round trip when streaming a cancelled gig's customers
+    private static final int CUSTOMER_FETCH_SIZE = 1000;
+
     public static void main(String[] args) {
 
         // You should only need to fetch the connection details once
@@ -138,10 +144,22 @@ public class GigSystem {
 
     // Helper Methods (for Task implementations)
     
+    // Helper method used for every statement GigSystem runs, so per-call settings (query timeout,
+    // cancellation) from the thread's QueryContext apply to all of a task's statements, and the
+    // SlowStatementLog sees all of them while it is enabled
+    static PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        QueryContext context = QueryContext.current();
+        if (context != null) {
+            context.attach(stmt);
+        }
+        return SlowStatementLog.wrap(stmt, sql);
+    }
+    
     // Helper method to get venue ID by name
     private static int getVenueId(Connection conn, String venueName) throws SQLException {
         String sql = "SELECT venueid FROM VENUE WHERE venuename = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setString(1, venueName);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -155,7 +173,7 @@ public class GigSystem {
     // Helper method to check if act exists
     private static boolean actExists(Connection conn, int actId) throws SQLException {
         String sql = "SELECT 1 FROM ACT WHERE actid = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, actId);
             try (ResultSet rs = stmt.executeQuery()) {
                 return rs.next();
@@ -166,7 +184,7 @@ public class GigSystem {
     // Helper method to get act genre
     private static String getActGenre(Connection conn, int actId) throws SQLException {
         String sql = "SELECT genre FROM ACT WHERE actid = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, actId);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -180,7 +198,7 @@ public class GigSystem {
     // Helper method to insert GIG record
     private static int insertGig(Connection conn, int venueId, String gigTitle, LocalDateTime gigStart) throws SQLException {
         String sql = "INSERT INTO GIG (venueid, gigtitle, gigdatetime, gigstatus) VALUES (?, ?, ?, 'G') RETURNING gigid";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, venueId);
             stmt.setString(2, gigTitle);
             stmt.setTimestamp(3, Timestamp.valueOf(gigStart));
@@ -197,7 +215,7 @@ public class GigSystem {
     // Throws SQLException if insert fails (e.g., business rule violation by trigger)
     private static void insertActGig(Connection conn, int actId, int gigId, int fee, LocalDateTime onTime, int duration) throws SQLException {
         String sql = "INSERT INTO ACT_GIG (actid, gigid, actgigfee, ontime, duration) VALUES (?, ?, ?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, actId);
             stmt.setInt(2, gigId);
             stmt.setInt(3, fee);
@@ -211,7 +229,7 @@ public class GigSystem {
     // Helper method to insert GIG_TICKET record
     private static boolean insertGigTicket(Connection conn, int gigId, char priceType, int price) throws SQLException {
         String sql = "INSERT INTO GIG_TICKET (gigid, pricetype, price) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, gigId);
             stmt.setString(2, String.valueOf(priceType));
             stmt.setInt(3, price);
@@ -223,7 +241,7 @@ public class GigSystem {
     // Helper method to check if gig exists and is active (not cancelled)
     private static boolean gigExistsAndActive(Connection conn, int gigId) throws SQLException {
         String sql = "SELECT 1 FROM GIG WHERE gigid = ? AND gigstatus = 'G'";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, gigId);
             try (ResultSet rs = stmt.executeQuery()) {
                 return rs.next();
@@ -231,39 +249,140 @@ public class GigSystem {
         }
     }
     
-    // Helper method to get ticket price for a specific gig and price type
-    private static Integer getTicketPrice(Connection conn, int gigId, char priceType) throws SQLException {
-        String sql = "SELECT price FROM GIG_TICKET WHERE gigid = ? AND pricetype = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setInt(1, gigId);
-            stmt.setString(2, String.valueOf(priceType));
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt("price");
-                }
-            }
+    // Helper method to get the CUSTOMER id for an email, using the cache before falling back to an upsert
+    private static int resolveCustomerId(Connection conn, String name, String email) throws SQLException {
+        Integer cached = CustomerCache.lookup(email);
+        if (cached != null) {
+            return cached;
         }
-        return null; // Price type not found
+        return CustomerCache.upsert(conn, name, email);
     }
     
     // Helper method to insert TICKET record
-    private static void insertTicket(Connection conn, int gigId, String name, String email, char priceType, int cost) throws SQLException {
-        String sql = "INSERT INTO TICKET (gigid, customername, customeremail, pricetype, cost) VALUES (?, ?, ?, ?, ?)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+    // Only inserts while the gig is still active, so a stale GigMetadataCache entry cannot sell a cancelled gig
+    // Returns false if nothing was inserted (gig not active)
+    private static boolean insertTicket(Connection conn, int gigId, String name, String email, char priceType, int cost, int customerId) throws SQLException {
+        String sql = "INSERT INTO TICKET (gigid, customername, customeremail, pricetype, cost, customerid) " +
+                     "SELECT ?, ?, ?, ?, ?, ? " +
+                     "WHERE EXISTS (SELECT 1 FROM GIG WHERE gigid = ? AND gigstatus = 'G')";
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, gigId);
             stmt.setString(2, name);
             stmt.setString(3, email);
             stmt.setString(4, String.valueOf(priceType));
             stmt.setInt(5, cost);
-            stmt.executeUpdate();
+            stmt.setInt(6, customerId);
+            stmt.setInt(7, gigId);
+            return stmt.executeUpdate() == 1;
             // If trigger raises exception (capacity exceeded, cost mismatch), it will propagate up
         }
     }
     
+    // Helper method for TaskResultCache: a read-only connection is a replica (ConnectionRouter), whose results may
+    // lag the versions the cache checks, so they are not stored
+    static boolean isReadOnly(Connection conn) {
+        try {
+            return conn.isReadOnly();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+    
+    // Helper method to recognise a capacity error (validate_venue_capacity, or claim_ticket_seat for a gig with seats)
+    static boolean isCapacityError(SQLException e) {
+        return e.getMessage() != null && e.getMessage().contains("would exceed venue capacity");
+    }
+    
+    // Helper method to validate task3's arguments before any database work
+    static boolean isValidPurchase(String name, String email, String ticketType) {
+        if (name == null || name.trim().isEmpty()) {
+            return false; // Invalid customer name
+        }
+        if (email == null || email.trim().isEmpty()) {
+            return false; // Invalid email
+        }
+        if (ticketType == null || ticketType.length() != 1) {
+            return false; // Invalid ticket type (must be single character)
+        }
+        return true;
+    }
+    
+    // Helper method that sells one ticket inside the caller's TransactionRunner transaction (task3 and PurchaseCoordinator)
+    // Returns the customer's id, or -1 if the purchase was rejected and the caller should roll back
+    // Throws SQLException when a trigger rejects the ticket (capacity exceeded, cost mismatch)
+    static int sellTicket(Connection conn, int gigid, String name, String email, char ticketType) throws SQLException {
+        // Shared gig lock: sales run concurrently, but not while task4 changes this gig
+        // (taken before any read, so neither the reads below nor the insert's active-gig check predate a
+        // cancellation that committed meanwhile)
+        GigLocks.lockGigShared(conn, gigid);
+        
+        // Validate gig exists and is not cancelled (cached, so no round trip for a hot gig)
+        GigMetadataCache.GigMetadata gig = GigMetadataCache.get(conn, gigid);
+        if (gig == null || !gig.isActive()) {
+            if (gig != null) {
+                SoldOutRegistry.markClosed(gigid);
+            }
+            return -1; // Gig does not exist or is cancelled
+        }
+        
+        // Validate ticketType exists in GIG_TICKET for this gig
+        Integer ticketPrice = gig.price(ticketType);
+        if (ticketPrice == null) {
+            return -1; // Ticket type not available for this gig
+        }
+        
+        // Resolve the customer's integer id (cached after the first committed purchase)
+        int customerId = resolveCustomerId(conn, name, email);
+        
+        // Insert TICKET record
+        // Triggers will validate:
+        // - Ticket cost matches GIG_TICKET price (Business Rule via trigger)
+        // - Venue capacity is not exceeded (Business Rule 12 via trigger, or by claiming a SEAT row)
+        SeatInventory.Outcome outcome = SeatInventory.isEnabled()
+            ? SeatInventory.claimAndInsert(conn, gigid, name, email, ticketType, ticketPrice, customerId)
+            : SeatInventory.Outcome.NO_SEATS;
+        if (outcome == SeatInventory.Outcome.GIG_INACTIVE) {
+            GigMetadataCache.invalidate(gigid);
+            return -1; // The gig was cancelled after it was cached
+        } else if (outcome == SeatInventory.Outcome.SOLD_OUT) {
+            // Confirmed from committed seats, so it holds whether or not this transaction commits
+            SoldOutRegistry.markSoldOut(gigid);
+            return -1;
+        } else if (outcome == SeatInventory.Outcome.CONTENDED) {
+            return -1; // Every free seat is held by a buyer still in their transaction; the gig is not marked
+        } else if (outcome == SeatInventory.Outcome.NO_SEATS
+                   && !insertTicket(conn, gigid, name, email, ticketType, ticketPrice, customerId)) {
+            // The gig was cancelled after it was cached
+            GigMetadataCache.invalidate(gigid);
+            return -1;
+        }
+        return customerId;
+    }
+    
+    // Helper method for after a sale has committed
+    static void ticketSold(String email, int customerId) {
+        TaskResultCache.ticketsChanged();
+        CustomerCache.remember(email, customerId);
+    }
+    
+    // Helper method for after a sale has been rolled back because of an SQL error
+    static void ticketRejected(SQLException e, int gigid, String email) {
+        if ("23503".equals(e.getSQLState())) {
+            // Foreign key violation: the cached customerid is stale (e.g. the database was reset)
+            CustomerCache.forget(email);
+        } else if (isCapacityError(e)) {
+            // Later purchases for this gig are rejected without a transaction
+            SoldOutRegistry.markSoldOut(gigid);
+        } else {
+            // e.g. the price trigger rejected a cached price that has since changed
+            GigMetadataCache.invalidate(gigid);
+        }
+    }
+    
     // Helper method to get act ID by name
     private static int getActIdByName(Connection conn, String actName) throws SQLException {
         String sql = "SELECT actid FROM ACT WHERE actname = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setString(1, actName);
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
@@ -274,34 +393,38 @@ public class GigSystem {
         return -1; // Act not found
     }
     
+    // Times in the scheduling helpers are whole minutes since 1970-01-01 00:00 (ints, no LocalDateTime per row)
+    // SQL for such a minute: ontime and gigdatetime are whole minutes, so the division is exact
+    static final String EPOCH_MINUTE = "(EXTRACT(EPOCH FROM %s) / 60)::INTEGER";
+    
+    // Marks "no time" where a LocalDateTime helper returned null
+    private static final int NO_TIME = Integer.MIN_VALUE;
+    
     // Helper class to store performance information
     private static class PerformanceInfo {
         int actId;
-        LocalDateTime onTime;
+        int onTime;
         int duration;
-        LocalDateTime endTime;
+        int endTime;
         
-        PerformanceInfo(int actId, LocalDateTime onTime, int duration) {
+        PerformanceInfo(int actId, int onTime, int duration) {
             this.actId = actId;
             this.onTime = onTime;
             this.duration = duration;
-            this.endTime = onTime.plusMinutes(duration);
+            this.endTime = onTime + duration;
         }
     }
     
     // Helper method to get all performances for a gig, ordered by ontime
     private static List<PerformanceInfo> getAllPerformances(Connection conn, int gigId) throws SQLException {
         List<PerformanceInfo> performances = new ArrayList<>();
-        String sql = "SELECT actid, ontime, duration FROM ACT_GIG WHERE gigid = ? ORDER BY ontime";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        String sql = "SELECT actid, " + String.format(EPOCH_MINUTE, "ontime") + " AS onminute, duration " +
+                     "FROM ACT_GIG WHERE gigid = ? ORDER BY ontime";
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, gigId);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    int actId = rs.getInt("actid");
-                    Timestamp ontimeTs = rs.getTimestamp("ontime");
-                    int duration = rs.getInt("duration");
-                    LocalDateTime onTime = ontimeTs.toLocalDateTime();
-                    performances.add(new PerformanceInfo(actId, onTime, duration));
+                    performances.add(new PerformanceInfo(rs.getInt("actid"), rs.getInt("onminute"), rs.getInt("duration")));
                 }
             }
         }
@@ -311,8 +434,11 @@ public class GigSystem {
     // Helper method to check if act is headline act (final or only act)
     private static boolean isHeadlineAct(Connection conn, int gigId, int actId) throws SQLException {
         // Get all performances for this gig
-        List<PerformanceInfo> performances = getAllPerformances(conn, gigId);
-        
+        return isHeadlineAct(getAllPerformances(conn, gigId), actId);
+    }
+    
+    // Same check on a lineup already in memory (performances ordered by ontime)
+    private static boolean isHeadlineAct(List<PerformanceInfo> performances, int actId) {
         if (performances.isEmpty()) {
             return false; // No performances
         }
@@ -330,14 +456,14 @@ public class GigSystem {
         }
         
         // Find the latest end time (headline act is the one that finishes last)
-        LocalDateTime latestEndTime = performances.get(0).endTime;
+        int latestEndTime = performances.get(0).endTime;
         int headlineActId = performances.get(0).actId;
         
         for (PerformanceInfo perf : performances) {
-            if (perf.endTime.isAfter(latestEndTime)) {
+            if (perf.endTime > latestEndTime) {
                 latestEndTime = perf.endTime;
                 headlineActId = perf.actId;
-            } else if (perf.endTime.equals(latestEndTime) && perf.actId == actId) {
+            } else if (perf.endTime == latestEndTime && perf.actId == actId) {
                 // If multiple acts end at the same time and one is our act, it's headline
                 headlineActId = perf.actId;
             }
@@ -350,7 +476,7 @@ public class GigSystem {
     // Helper method to calculate total duration of cancelled performances
     private static int getTotalCancelledDuration(Connection conn, int gigId, int actId) throws SQLException {
         String sql = "SELECT SUM(duration) as total FROM ACT_GIG WHERE gigid = ? AND actid = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, gigId);
             stmt.setInt(2, actId);
             try (ResultSet rs = stmt.executeQuery()) {
@@ -366,7 +492,7 @@ public class GigSystem {
     // Helper method to get the latest end time of cancelled performances
     private static LocalDateTime getLatestCancelledEndTime(Connection conn, int gigId, int actId) throws SQLException {
         String sql = "SELECT MAX(ontime + (duration || ' minutes')::INTERVAL) as latest_end FROM ACT_GIG WHERE gigid = ? AND actid = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, gigId);
             stmt.setInt(2, actId);
             try (ResultSet rs = stmt.executeQuery()) {
@@ -381,6 +507,17 @@ public class GigSystem {
         return null;
     }
     
+    // Latest end time of an act's performances in a lineup already in memory (NO_TIME if it has none)
+    private static int getLatestCancelledEndTime(List<PerformanceInfo> performances, int actId) {
+        int latest = NO_TIME;
+        for (PerformanceInfo perf : performances) {
+            if (perf.actId == actId && perf.endTime > latest) {
+                latest = perf.endTime;
+            }
+        }
+        return latest;
+    }
+    
     // Helper method to check if cancellation would violate interval rules
     private static boolean wouldViolateIntervalRules(Connection conn, int gigId, int actId, int totalCancelledDuration) throws SQLException {
         // Get all performances
@@ -390,17 +527,39 @@ public class GigSystem {
             return false; // Only one or no performances, no intervals to check
         }
         
+        // Get gig start time
+        String gigStartSql = "SELECT " + String.format(EPOCH_MINUTE, "gigdatetime") + " AS startminute FROM GIG WHERE gigid = ?";
+        int gigStart;
+        try (PreparedStatement stmt = prepare(conn, gigStartSql)) {
+            stmt.setInt(1, gigId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    gigStart = rs.getInt("startminute");
+                } else {
+                    return false; // Gig not found
+                }
+            }
+        }
+        return wouldViolateIntervalRules(allPerfs, gigStart, actId, totalCancelledDuration);
+    }
+    
+    // Same check on a lineup already in memory (performances ordered by ontime)
+    private static boolean wouldViolateIntervalRules(List<PerformanceInfo> allPerfs, int gigStart, int actId, int totalCancelledDuration) {
+        if (allPerfs.size() <= 1) {
+            return false; // Only one or no performances, no intervals to check
+        }
+        
         // Get the latest end time of cancelled performances
-        LocalDateTime latestCancelledEnd = getLatestCancelledEndTime(conn, gigId, actId);
-        if (latestCancelledEnd == null) {
+        int latestCancelledEnd = getLatestCancelledEndTime(allPerfs, actId);
+        if (latestCancelledEnd == NO_TIME) {
             return false;
         }
         
         // Find the performance that ends just before the cancelled ones (or at the same time)
-        LocalDateTime prevEnd = null;
+        int prevEnd = NO_TIME;
         for (PerformanceInfo perf : allPerfs) {
-            if (perf.actId != actId && (perf.endTime.isBefore(latestCancelledEnd) || perf.endTime.equals(latestCancelledEnd))) {
-                if (prevEnd == null || perf.endTime.isAfter(prevEnd)) {
+            if (perf.actId != actId && perf.endTime <= latestCancelledEnd) {
+                if (perf.endTime > prevEnd) {
                     prevEnd = perf.endTime;
                 }
             }
@@ -409,8 +568,8 @@ public class GigSystem {
         // Find the first performance after cancelled ones
         PerformanceInfo firstAfter = null;
         for (PerformanceInfo perf : allPerfs) {
-            if (perf.actId != actId && perf.onTime.isAfter(latestCancelledEnd)) {
-                if (firstAfter == null || perf.onTime.isBefore(firstAfter.onTime)) {
+            if (perf.actId != actId && perf.onTime > latestCancelledEnd) {
+                if (firstAfter == null || perf.onTime < firstAfter.onTime) {
                     firstAfter = perf;
                 }
             }
@@ -418,40 +577,26 @@ public class GigSystem {
         
         // Check the gap that would be created after cancellation
         if (firstAfter != null) {
-            LocalDateTime adjustedNextStart = firstAfter.onTime.minusMinutes(totalCancelledDuration);
+            int adjustedNextStart = firstAfter.onTime - totalCancelledDuration;
             long gapMinutes;
             
-            // Get gig start time
-            String gigStartSql = "SELECT gigdatetime FROM GIG WHERE gigid = ?";
-            LocalDateTime gigStart = null;
-            try (PreparedStatement stmt = conn.prepareStatement(gigStartSql)) {
-                stmt.setInt(1, gigId);
-                try (ResultSet rs = stmt.executeQuery()) {
-                    if (rs.next()) {
-                        gigStart = rs.getTimestamp("gigdatetime").toLocalDateTime();
-                    } else {
-                        return false; // Gig not found
-                    }
-                }
-            }
-            
-            if (prevEnd != null) {
+            if (prevEnd != NO_TIME) {
                 // There's a performance before the cancelled ones
-                gapMinutes = java.time.Duration.between(prevEnd, adjustedNextStart).toMinutes();
+                gapMinutes = adjustedNextStart - prevEnd;
             } else {
                 // No performance before - cancelled act was the first act
                 // After cancellation, next act should start at gig start (Business Rule 11)
                 // But if adjusted start is before gig start, we need to check the actual gap
-                if (adjustedNextStart.isBefore(gigStart)) {
+                if (adjustedNextStart < gigStart) {
                     // This shouldn't happen, but if it does, it's a violation
                     return true;
-                } else if (adjustedNextStart.equals(gigStart)) {
+                } else if (adjustedNextStart == gigStart) {
                     // Next act starts exactly at gig start - no interval, which violates Business Rule 10
                     // (intervals must be 10-30 minutes, but 0 minutes is not allowed)
                     return true; // Would violate interval rule
                 } else {
                     // There's a gap from gig start to adjusted next start
-                    gapMinutes = java.time.Duration.between(gigStart, adjustedNextStart).toMinutes();
+                    gapMinutes = adjustedNextStart - gigStart;
                 }
             }
             
@@ -465,23 +610,14 @@ public class GigSystem {
             // This should be caught by isHeadlineAct check, but if not, we should still check
             // If there's a performance before, we need to check if removing the last act
             // would leave a gap that violates rules
-            if (prevEnd != null) {
+            if (prevEnd != NO_TIME) {
                 // There's a performance before, but nothing after
                 // After cancellation, the previous performance becomes the last one
                 // We need to check if the gig would still meet minimum duration (Business Rule 13)
-                String gigStartSql = "SELECT gigdatetime FROM GIG WHERE gigid = ?";
-                try (PreparedStatement stmt = conn.prepareStatement(gigStartSql)) {
-                    stmt.setInt(1, gigId);
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        if (rs.next()) {
-                            LocalDateTime gigStart = rs.getTimestamp("gigdatetime").toLocalDateTime();
-                            // Check if prevEnd is at least 60 minutes after gig start
-                            long gigDuration = java.time.Duration.between(gigStart, prevEnd).toMinutes();
-                            if (gigDuration < 60) {
-                                return true; // Would violate Business Rule 13 (minimum 60 minutes)
-                            }
-                        }
-                    }
+                // Check if prevEnd is at least 60 minutes after gig start
+                long gigDuration = prevEnd - gigStart;
+                if (gigDuration < 60) {
+                    return true; // Would violate Business Rule 13 (minimum 60 minutes)
                 }
             }
         }
@@ -493,47 +629,94 @@ public class GigSystem {
         return false;
     }
     
+    // A refunded ticket's customer: the CUSTOMER row, or the ticket's own columns if it is not yet interned
+    private static final String REFUNDED_CUSTOMER_COLUMNS =
+        "COALESCE(c.customername, r.customername) as customername, " +
+        "COALESCE(c.customeremail, r.customeremail) as customeremail ";
+    
     // Helper method to cancel entire gig
+    // Returns the affected customers (distinct, ordered by name)
     private static String[][] cancelEntireGig(Connection conn, int gigId) throws SQLException {
         // Update gig status to cancelled
-        String updateGigSql = "UPDATE GIG SET gigstatus = 'C' WHERE gigid = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(updateGigSql)) {
-            stmt.setInt(1, gigId);
-            stmt.executeUpdate();
-        }
+        cancelGig(conn, gigId);
         
-        // Update all ticket costs to 0
-        String updateTicketSql = "UPDATE TICKET SET cost = 0 WHERE gigid = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(updateTicketSql)) {
-            stmt.setInt(1, gigId);
-            stmt.executeUpdate();
+        // Refund the tickets: one GIG_REFUND row with the refund ledger enabled, otherwise
+        // update all ticket costs to 0 and get affected customers from the updated rows, so TICKET is scanned once
+        String refundedTickets;
+        if (RefundLedger.isEnabled()) {
+            RefundLedger.record(conn, gigId);
+            refundedTickets = "SELECT customerid, customername, customeremail FROM TICKET WHERE gigid = ?";
+        } else {
+            refundedTickets = "UPDATE TICKET SET cost = 0 WHERE gigid = ? RETURNING customerid, customername, customeremail";
         }
         
-        // Get affected customers (distinct, ordered by name)
-        String customerSql = "SELECT DISTINCT customername, customeremail FROM TICKET WHERE gigid = ? ORDER BY customername ASC";
+        // Get affected customers (distinct, ordered by name), joined to CUSTOMER on customerid
+        String refundSql = "WITH refunded AS (" + refundedTickets + ") " +
+                           "SELECT DISTINCT " + REFUNDED_CUSTOMER_COLUMNS +
+                           "FROM refunded r LEFT JOIN CUSTOMER c ON c.customerid = r.customerid " +
+                           "ORDER BY customername ASC";
         List<String[]> customers = new ArrayList<>();
-        try (PreparedStatement stmt = conn.prepareStatement(customerSql)) {
+        try (PreparedStatement stmt = prepare(conn, refundSql)) {
             stmt.setInt(1, gigId);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    String[] customer = new String[2];
-                    customer[0] = rs.getString("customername");
-                    customer[1] = rs.getString("customeremail");
-                    customers.add(customer);
+                    customers.add(new String[]{rs.getString("customername"), rs.getString("customeremail")});
                 }
             }
         }
-        
-        // Convert to 2D array
-        if (customers.isEmpty()) {
-            return new String[0][2]; // No customers affected
+        return customers.toArray(new String[0][2]);
+    }
+    
+    // Helper method to cancel entire gig and refund its tickets without reading the customers
+    // (streaming task4 reads them with streamGigCustomers once this has committed)
+    private static void cancelAndRefundGig(Connection conn, int gigId) throws SQLException {
+        cancelGig(conn, gigId);
+        if (RefundLedger.isEnabled()) {
+            RefundLedger.record(conn, gigId);
+        } else {
+            try (PreparedStatement stmt = prepare(conn, "UPDATE TICKET SET cost = 0 WHERE gigid = ?")) {
+                stmt.setInt(1, gigId);
+                stmt.executeUpdate();
+            }
         }
-        
-        String[][] result = new String[customers.size()][2];
-        for (int i = 0; i < customers.size(); i++) {
-            result[i] = customers.get(i);
+    }
+    
+    private static void cancelGig(Connection conn, int gigId) throws SQLException {
+        String updateGigSql = "UPDATE GIG SET gigstatus = 'C' WHERE gigid = ?";
+        try (PreparedStatement stmt = prepare(conn, updateGigSql)) {
+            stmt.setInt(1, gigId);
+            stmt.executeUpdate();
+        }
+    }
+    
+    // Helper method to pass a cancelled gig's customers (distinct, ordered by name) to a callback as they are read,
+    // so they are never all held in memory. Runs after the cancellation has committed: no gig lock is held, and
+    // no sale can add to a cancelled gig, so the customers are final
+    private static void streamGigCustomers(Connection conn, int gigId, BiConsumer<String, String> customers) throws SQLException {
+        String sql = "SELECT DISTINCT " + REFUNDED_CUSTOMER_COLUMNS +
+                     "FROM TICKET r LEFT JOIN CUSTOMER c ON c.customerid = r.customerid " +
+                     "WHERE r.gigid = ? " +
+                     "ORDER BY customername ASC";
+        boolean originalAutoCommit = conn.getAutoCommit();
+        try {
+            // Read through a cursor (the driver only honours the fetch size inside a transaction)
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = prepare(conn, sql)) {
+                stmt.setInt(1, gigId);
+                stmt.setFetchSize(CUSTOMER_FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        customers.accept(rs.getString("customername"), rs.getString("customeremail"));
+                    }
+                }
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(originalAutoCommit);
         }
-        return result;
     }
     
     // Helper method to cancel act and adjust schedule
@@ -543,7 +726,7 @@ public class GigSystem {
         
         // Delete cancelled performances
         String deleteSql = "DELETE FROM ACT_GIG WHERE gigid = ? AND actid = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
+        try (PreparedStatement stmt = prepare(conn, deleteSql)) {
             stmt.setInt(1, gigId);
             stmt.setInt(2, actId);
             stmt.executeUpdate();
@@ -552,7 +735,7 @@ public class GigSystem {
         // Adjust subsequent performances (move earlier by total cancelled duration)
         if (latestCancelledEnd != null && totalCancelledDuration > 0) {
             String adjustSql = "UPDATE ACT_GIG SET ontime = ontime - (? || ' minutes')::INTERVAL WHERE gigid = ? AND ontime > ?";
-            try (PreparedStatement stmt = conn.prepareStatement(adjustSql)) {
+            try (PreparedStatement stmt = prepare(conn, adjustSql)) {
                 stmt.setInt(1, totalCancelledDuration);
                 stmt.setInt(2, gigId);
                 stmt.setTimestamp(3, Timestamp.valueOf(latestCancelledEnd));
@@ -566,10 +749,8 @@ public class GigSystem {
 
 
     public static String[][] task1(Connection conn, int gigID){
-        // SQL query to get act schedule for a specific gig
-        // Joins ACT_GIG with ACT to get act names
-        // Formats ontime and calculates offtime (ontime + duration)
-        // Orders results by ontime (earliest first)
+        // Act schedule for a specific gig, ordered by ontime (earliest first)
+        // Times are read as minutes and formatted here, rather than by TO_CHAR for every row (see task1Columnar)
 
 
         // Sample return: 
@@ -581,411 +762,784 @@ public class GigSystem {
             }
         */
 
+        GigEvents.TaskEvent event = GigEvents.taskStarted();
+        ColumnarResult result = task1Columnar(conn, gigID);
+        String[][] rows = result == null ? null : result.toStrings();
+        GigEvents.taskFinished(event, "task1", rows, gigID);
+        return rows;
+    }
+
+    /**
+     * task1 for many gigs in one query (gigid = ANY), instead of one round trip per gig.
+     * Times are formatted here from minutes since midnight rather than by TO_CHAR.
+     * @return each gig's lineup as task1 returns it, keyed by gigID in the order given (an empty array for a
+     *         gig with no performances), or null on error
+     */
+    public static Map<Integer, String[][]> task1(Connection conn, int[] gigIDs){
         String sql = "SELECT " +
+                     "ag.gigid, " +
                      "a.actname, " +
-                     "TO_CHAR(ag.ontime, 'HH24:MI') as ontime, " + //format timestamp to HH:mm 
-                     "TO_CHAR(ag.ontime + (ag.duration || ' minutes')::INTERVAL, 'HH24:MI') as offtime " + //adds duration and formats to HH:mm
+                     "(EXTRACT(HOUR FROM ag.ontime) * 60 + EXTRACT(MINUTE FROM ag.ontime))::INTEGER as onminute, " +
+                     "ag.duration " +
+                     "FROM ACT_GIG ag " +
+                     "JOIN ACT a ON ag.actid = a.actid " +
+                     "WHERE ag.gigid = ANY(?) " +
+                     "ORDER BY ag.gigid ASC, ag.ontime ASC";
+
+        try (PreparedStatement stmt = prepare(conn, sql)) {
+            stmt.setArray(1, conn.createArrayOf("integer", Arrays.stream(gigIDs).boxed().toArray()));
+            Map<Integer, List<String[]>> rowsByGig = new HashMap<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int onMinute = rs.getInt("onminute");
+                    rowsByGig.computeIfAbsent(rs.getInt("gigid"), k -> new ArrayList<>())
+                             .add(new String[]{rs.getString("actname"),
+                                               ColumnarResult.formatMinutes(onMinute),
+                                               ColumnarResult.formatMinutes(onMinute + rs.getInt("duration"))}); // Off time, may pass midnight
+                }
+            }
+
+            Map<Integer, String[][]> lineups = new LinkedHashMap<>();
+            for (int gigID : gigIDs) {
+                List<String[]> rows = rowsByGig.get(gigID);
+                lineups.put(gigID, rows == null ? new String[0][3] : rows.toArray(new String[0][]));
+            }
+            return lineups;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Typed form of task1: act name (dictionary-encoded), on and off times as minutes since midnight
+     * (int columns rendered as HH:MM by toStrings())
+     */
+    public static ColumnarResult task1Columnar(Connection conn, int gigID){
+        String sql = "SELECT " +
+                     "a.actname, " +
+                     "(EXTRACT(HOUR FROM ag.ontime) * 60 + EXTRACT(MINUTE FROM ag.ontime))::INTEGER as onminute, " +
+                     "ag.duration " +
                      "FROM ACT_GIG ag " +
                      "JOIN ACT a ON ag.actid = a.actid " +
                      "WHERE ag.gigid = ? " +
                      "ORDER BY ag.ontime ASC";
-        
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (PreparedStatement stmt = prepare(conn, sql)) {
             stmt.setInt(1, gigID);
-            // Prepraed statement auto-closes the connection when the block ends
-            // Execute the query and get results
-    
             try (ResultSet rs = stmt.executeQuery()) {
-                // Parameters binding: ensures the query is executed with the correct parameters
-                // Use helper method to convert ResultSet to String[][]
-                return convertResultToStrings(rs);
+                ColumnarResult.Builder result = new ColumnarResult.Builder(8, "actname", "ontime", "offtime")
+                    .dictColumn(0)
+                    .intColumn(1, ColumnarResult.Format.HH_MM, null)
+                    .intColumn(2, ColumnarResult.Format.HH_MM, null);
+                while (rs.next()) {
+                    int onMinute = rs.getInt("onminute");
+                    result.setString(0, rs.getString("actname"));
+                    result.setInt(1, onMinute);
+                    result.setInt(2, onMinute + rs.getInt("duration")); // Off time, may pass midnight
+                    result.endRow();
+                }
+                return result.build();
             }
-            
         } catch (SQLException e) {
             e.printStackTrace();
-            // Return null on error (or could return empty array)
             return null;
         }
     }
 
-    public static void task2(Connection conn, String venue, String gigTitle, LocalDateTime gigStart, int adultTicketPrice, ActPerformanceDetails[] actDetails){
-        // Validate input
-        if (venue == null || venue.trim().isEmpty()) {
-            return; // Invalid venue name
-        }
-        if (gigTitle == null || gigTitle.trim().isEmpty()) {
-            return; // Invalid gig title
-        }
-        if (actDetails == null || actDetails.length == 0) {
-            return; // No acts provided
-        }
-        if (adultTicketPrice < 0) {
-            return; // Invalid ticket price
+    /**
+     * Everything at a venue on a date in one query: its gigs (start order), their lineups and tickets sold,
+     * and the venue's capacity. The gigs are found through idx_gig_venueid_gigdatetime, so the cost does not
+     * grow with the venue's history.
+     * @return null if the venue does not exist or on error
+     */
+    public static VenueDay venueDay(Connection conn, String venueName, LocalDate date){
+        if (venueName == null || date == null) {
+            return null;
         }
         
-        boolean originalAutoCommit = true;
-        try {
-            // Set up transaction - disable auto-commit
-            originalAutoCommit = conn.getAutoCommit();
-            conn.setAutoCommit(false);
-            
-            // Validate venue exists and get venueid
-            int venueId = getVenueId(conn, venue);
-            if (venueId == -1) {
-                conn.rollback();
-                return; // Venue not found
-            }
-            
-            // Validate gig start time (Business Rule 15: 9am to 11:59pm)
-            int hour = gigStart.getHour();
-            int minute = gigStart.getMinute();
-            if (hour < 9 || hour > 23 || (hour == 23 && minute > 59)) {
-                conn.rollback();
-                return; // Invalid gig start time
-            }
-            
-            // Sort acts chronologically by onTime
-            Arrays.sort(actDetails, Comparator.comparing(ActPerformanceDetails::getOnTime));
-            
-            // Validate all acts exist and collect genres
-            Set<String> genres = new HashSet<>();
-            for (ActPerformanceDetails act : actDetails) {
-                if (!actExists(conn, act.getActID())) {
-                    conn.rollback();
-                    return; // Act does not exist
-                }
-                // Get genre for finish time validation
-                String genre = getActGenre(conn, act.getActID());
-                if (genre != null) {
-                    genres.add(genre);
+        // LEFT JOINs, so a venue with no gigs that day still returns its own row
+        String sql = "SELECT v.capacity, g.gigid, g.gigtitle, g.gigdatetime, g.gigstatus, sold.tickets, a.actname, " +
+                     "(EXTRACT(HOUR FROM ag.ontime) * 60 + EXTRACT(MINUTE FROM ag.ontime))::INTEGER as onminute, " +
+                     "ag.duration " +
+                     "FROM VENUE v " +
+                     "LEFT JOIN GIG g ON g.venueid = v.venueid AND g.gigdatetime >= ? AND g.gigdatetime < ? " +
+                     "LEFT JOIN LATERAL (SELECT COUNT(*) AS tickets FROM TICKET t WHERE t.gigid = g.gigid) sold ON true " +
+                     "LEFT JOIN ACT_GIG ag ON ag.gigid = g.gigid " +
+                     "LEFT JOIN ACT a ON a.actid = ag.actid " +
+                     "WHERE v.venuename = ? " +
+                     "ORDER BY g.gigdatetime ASC, g.gigid ASC, ag.ontime ASC";
+        
+        try (PreparedStatement stmt = prepare(conn, sql)) {
+            stmt.setTimestamp(1, Timestamp.valueOf(date.atStartOfDay()));
+            stmt.setTimestamp(2, Timestamp.valueOf(date.plusDays(1).atStartOfDay()));
+            stmt.setString(3, venueName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return null; // Venue not found
                 }
-            }
-            
-            // Validate first act starts at gigStart (Business Rule 11)
-            if (!actDetails[0].getOnTime().equals(gigStart)) {
-                conn.rollback();
-                return; // First act must start at gig start time
-            }
-            
-            // Validate final act finishes at least 60 mins after start (Business Rule 13)
-            ActPerformanceDetails lastAct = actDetails[actDetails.length - 1];
-            LocalDateTime lastActEnd = lastAct.getOnTime().plusMinutes(lastAct.getDuration());
-            LocalDateTime gigStartPlus60 = gigStart.plusMinutes(60);
-            if (lastActEnd.isBefore(gigStartPlus60)) {
-                conn.rollback();
-                return; // Final act must finish at least 60 minutes after gig start
-            }
-            
-            // Validate gig finish time by genre (Business Rule 14)
-            LocalDateTime maxFinishTime;
-            boolean hasRockOrPop = genres.contains("rock") || genres.contains("pop");
-            if (hasRockOrPop) {
-                // Rock/pop gigs must finish by 11pm
-                maxFinishTime = gigStart.toLocalDate().atTime(23, 0);
-            } else {
-                // Other gigs must finish by 1am next day
-                maxFinishTime = gigStart.toLocalDate().plusDays(1).atTime(1, 0);
-            }
-            if (lastActEnd.isAfter(maxFinishTime)) {
-                conn.rollback();
-                return; // Gig finish time violates genre-based rule
-            }
-            
-            // Validate act fees are consistent per act per gig (Business Rule 4)
-            Map<Integer, Integer> actFees = new HashMap<>();
-            for (ActPerformanceDetails act : actDetails) {
-                int actId = act.getActID();
-                int fee = act.getFee();
-                if (actFees.containsKey(actId)) {
-                    // Same act appears multiple times - fees must match
-                    if (actFees.get(actId) != fee) {
-                        conn.rollback();
-                        return; // Same act has different fees for same gig
+                int capacity = rs.getInt("capacity");
+                List<VenueDay.Gig> gigs = new ArrayList<>();
+                
+                // One row per performance, grouped by gig (no row with a gigid if the venue has no gigs that day)
+                boolean more = true;
+                while (more) {
+                    int gigId = rs.getInt("gigid");
+                    if (rs.wasNull()) {
+                        break;
                     }
-                } else {
-                    actFees.put(actId, fee);
+                    String title = rs.getString("gigtitle");
+                    LocalDateTime start = rs.getTimestamp("gigdatetime").toLocalDateTime();
+                    boolean active = "G".equals(rs.getString("gigstatus"));
+                    int sold = rs.getInt("tickets");
+                    List<String[]> lineup = new ArrayList<>();
+                    do {
+                        String actName = rs.getString("actname");
+                        if (actName != null) {
+                            int onMinute = rs.getInt("onminute");
+                            lineup.add(new String[]{actName,
+                                                    ColumnarResult.formatMinutes(onMinute),
+                                                    ColumnarResult.formatMinutes(onMinute + rs.getInt("duration"))});
+                        }
+                        more = rs.next();
+                    } while (more && rs.getInt("gigid") == gigId);
+                    gigs.add(new VenueDay.Gig(gigId, title, start, active, sold, lineup.toArray(new String[0][])));
                 }
+                return new VenueDay(venueName, date, capacity, gigs);
             }
-            
-            // Insert GIG record
-            int gigId = insertGig(conn, venueId, gigTitle, gigStart);
-            if (gigId == -1) {
-                conn.rollback();
-                return; // Failed to insert gig
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static void task2(Connection conn, String venue, String gigTitle, LocalDateTime gigStart, int adultTicketPrice, ActPerformanceDetails[] actDetails){
+        createGig(conn, venue, gigTitle, gigStart, adultTicketPrice, actDetails);
+    }
+
+    // task2, reporting whether the gig was created (ConnectionRouter only pins a session to the primary after a real write)
+    static boolean createGig(Connection conn, String venue, String gigTitle, LocalDateTime gigStart, int adultTicketPrice, ActPerformanceDetails[] actDetails){
+        GigEvents.TaskEvent event = GigEvents.taskStarted();
+        try {
+            // Validate input
+            if (venue == null || venue.trim().isEmpty()) {
+                return false; // Invalid venue name
             }
-            
-            // Insert ACT_GIG records (triggers will validate most business rules)
-            for (ActPerformanceDetails act : actDetails) {
-                insertActGig(conn, act.getActID(), gigId, act.getFee(), act.getOnTime(), act.getDuration());
-                // If insert fails, SQLException will be thrown and caught by outer try-catch
+            if (gigTitle == null || gigTitle.trim().isEmpty()) {
+                return false; // Invalid gig title
             }
-            
-            // Insert GIG_TICKET record for adult tickets
-            if (!insertGigTicket(conn, gigId, 'A', adultTicketPrice)) {
-                conn.rollback();
-                return; // Failed to insert ticket pricing
+            if (actDetails == null || actDetails.length == 0) {
+                return false; // No acts provided
             }
-            
-            // All validations passed and inserts successful - commit transaction
-            conn.commit();
-            
-        } catch (SQLException e) {
-            // Any SQL error - rollback transaction
-            try {
-                conn.rollback();
-            } catch (SQLException rollbackEx) {
-                rollbackEx.printStackTrace();
+            if (adultTicketPrice < 0) {
+                return false; // Invalid ticket price
             }
-            e.printStackTrace();
-        } finally {
-            // Restore original auto-commit setting
+        
             try {
-                conn.setAutoCommit(originalAutoCommit);
+                return TransactionRunner.run(conn, "task2", () -> {
+                    // Validate venue exists and get venueid
+                    int venueId = getVenueId(conn, venue);
+                    if (venueId == -1) {
+                        TransactionRunner.rollback(conn);
+                        return false; // Venue not found
+                    }
+                
+                    // Validate gig start time (Business Rule 15: 9am to 11:59pm)
+                    int hour = gigStart.getHour();
+                    int minute = gigStart.getMinute();
+                    if (hour < 9 || hour > 23 || (hour == 23 && minute > 59)) {
+                        TransactionRunner.rollback(conn);
+                        return false; // Invalid gig start time
+                    }
+                
+                    // Sort acts chronologically by onTime
+                    Arrays.sort(actDetails, Comparator.comparing(ActPerformanceDetails::getOnTime));
+                
+                    // Validate all acts exist and collect genres
+                    Set<String> genres = new HashSet<>();
+                    for (ActPerformanceDetails act : actDetails) {
+                        if (!actExists(conn, act.getActID())) {
+                            TransactionRunner.rollback(conn);
+                            return false; // Act does not exist
+                        }
+                        // Get genre for finish time validation
+                        String genre = getActGenre(conn, act.getActID());
+                        if (genre != null) {
+                            genres.add(genre);
+                        }
+                    }
+                
+                    // Validate first act starts at gigStart (Business Rule 11)
+                    if (!actDetails[0].getOnTime().equals(gigStart)) {
+                        TransactionRunner.rollback(conn);
+                        return false; // First act must start at gig start time
+                    }
+                
+                    // Validate final act finishes at least 60 mins after start (Business Rule 13)
+                    ActPerformanceDetails lastAct = actDetails[actDetails.length - 1];
+                    LocalDateTime lastActEnd = lastAct.getOnTime().plusMinutes(lastAct.getDuration());
+                    LocalDateTime gigStartPlus60 = gigStart.plusMinutes(60);
+                    if (lastActEnd.isBefore(gigStartPlus60)) {
+                        TransactionRunner.rollback(conn);
+                        return false; // Final act must finish at least 60 minutes after gig start
+                    }
+                
+                    // Validate gig finish time by genre (Business Rule 14)
+                    LocalDateTime maxFinishTime;
+                    boolean hasRockOrPop = genres.contains("rock") || genres.contains("pop");
+                    if (hasRockOrPop) {
+                        // Rock/pop gigs must finish by 11pm
+                        maxFinishTime = gigStart.toLocalDate().atTime(23, 0);
+                    } else {
+                        // Other gigs must finish by 1am next day
+                        maxFinishTime = gigStart.toLocalDate().plusDays(1).atTime(1, 0);
+                    }
+                    if (lastActEnd.isAfter(maxFinishTime)) {
+                        TransactionRunner.rollback(conn);
+                        return false; // Gig finish time violates genre-based rule
+                    }
+                
+                    // Validate act fees are consistent per act per gig (Business Rule 4)
+                    Map<Integer, Integer> actFees = new HashMap<>();
+                    for (ActPerformanceDetails act : actDetails) {
+                        int actId = act.getActID();
+                        int fee = act.getFee();
+                        if (actFees.containsKey(actId)) {
+                            // Same act appears multiple times - fees must match
+                            if (actFees.get(actId) != fee) {
+                                TransactionRunner.rollback(conn);
+                                return false; // Same act has different fees for same gig
+                            }
+                        } else {
+                            actFees.put(actId, fee);
+                        }
+                    }
+                
+                    // Lock the venue for the day and every act in the lineup, so a concurrent task2 cannot pass the
+                    // same trigger checks (Business Rules 2 and 9) before this gig commits
+                    int[] actIds = new int[actDetails.length];
+                    for (int i = 0; i < actDetails.length; i++) {
+                        actIds[i] = actDetails[i].getActID();
+                    }
+                    GigLocks.lockForNewGig(conn, venueId, gigStart.toLocalDate(), actIds);
+                
+                    // Insert GIG record
+                    int gigId = insertGig(conn, venueId, gigTitle, gigStart);
+                    if (gigId == -1) {
+                        TransactionRunner.rollback(conn);
+                        return false; // Failed to insert gig
+                    }
+                
+                    // Insert ACT_GIG records (triggers will validate most business rules)
+                    for (ActPerformanceDetails act : actDetails) {
+                        insertActGig(conn, act.getActID(), gigId, act.getFee(), act.getOnTime(), act.getDuration());
+                        // If insert fails, SQLException will be thrown and caught by outer try-catch
+                    }
+                
+                    // Insert GIG_TICKET record for adult tickets
+                    if (!insertGigTicket(conn, gigId, 'A', adultTicketPrice)) {
+                        TransactionRunner.rollback(conn);
+                        return false; // Failed to insert ticket pricing
+                    }
+                
+                    // Seat inventory mode: one SEAT row per seat of the venue
+                    if (SeatInventory.isEnabled()) {
+                        SeatInventory.createSeats(conn, gigId);
+                    }
+                
+                    // All validations passed and inserts successful - TransactionRunner commits
+                    TransactionRunner.afterCommit(() -> {
+                        TaskResultCache.lineupsChanged();
+                        GigMetadataCache.invalidate(gigId);
+                    });
+                    return true;
+                });
+            
             } catch (SQLException e) {
+                // Any SQL error - TransactionRunner has rolled back (after retrying serialization failures)
                 e.printStackTrace();
+                return false;
             }
+        } finally {
+            GigEvents.taskFinished(event, "task2", null, venue, gigTitle, gigStart, adultTicketPrice, actDetails);
         }
     }
 
     public static void task3(Connection conn, int gigid, String name, String email, String ticketType){
-        // Validate input
-        if (name == null || name.trim().isEmpty()) {
-            return; // Invalid customer name
-        }
-        if (email == null || email.trim().isEmpty()) {
-            return; // Invalid email
-        }
-        if (ticketType == null || ticketType.length() != 1) {
-            return; // Invalid ticket type (must be single character)
-        }
-        
-        boolean originalAutoCommit = true;
+        buyTicket(conn, gigid, name, email, ticketType);
+    }
+
+    // task3, reporting whether the ticket was sold (ConnectionRouter only pins a session to the primary after a real write)
+    static boolean buyTicket(Connection conn, int gigid, String name, String email, String ticketType){
+        GigEvents.TaskEvent event = GigEvents.taskStarted();
         try {
-            // Set up transaction - disable auto-commit
-            originalAutoCommit = conn.getAutoCommit();
-            conn.setAutoCommit(false);
-            
-            // Validate gig exists and is not cancelled
-            if (!gigExistsAndActive(conn, gigid)) {
-                conn.rollback();
-                return; // Gig does not exist or is cancelled
+            // Validate input
+            if (!isValidPurchase(name, email, ticketType)) {
+                return false;
             }
-            
-            // Validate ticketType exists in GIG_TICKET for this gig
-            Integer ticketPrice = getTicketPrice(conn, gigid, ticketType.charAt(0));
-            if (ticketPrice == null) {
-                conn.rollback();
-                return; // Ticket type not available for this gig
-            }
-            
-            // Insert TICKET record
-            // Triggers will validate:
-            // - Ticket cost matches GIG_TICKET price (Business Rule via trigger)
-            // - Venue capacity is not exceeded (Business Rule 12 via trigger)
-            insertTicket(conn, gigid, name, email, ticketType.charAt(0), ticketPrice);
-            
-            // All validations passed and insert successful - commit transaction
-            conn.commit();
-            
-        } catch (SQLException e) {
-            // Any SQL error - rollback transaction
-            // This includes trigger violations (capacity exceeded, cost mismatch, etc.)
-            try {
-                conn.rollback();
-            } catch (SQLException rollbackEx) {
-                rollbackEx.printStackTrace();
+        
+            // Sold out or cancelled: reject without a transaction
+            if (SoldOutRegistry.rejects(gigid)) {
+                return false;
             }
-            e.printStackTrace();
-        } finally {
-            // Restore original auto-commit setting
+        
             try {
-                conn.setAutoCommit(originalAutoCommit);
+                return TransactionRunner.run(conn, "task3", () -> {
+                    // Validate the gig and ticket type, then insert the TICKET record
+                    int customerId = sellTicket(conn, gigid, name, email, ticketType.charAt(0));
+                    if (customerId == -1) {
+                        TransactionRunner.rollback(conn);
+                        return false; // Gig not active, ticket type not available, or sold out
+                    }
+                
+                    // All validations passed and insert successful - TransactionRunner commits
+                    TransactionRunner.afterCommit(() -> ticketSold(email, customerId));
+                    return true;
+                });
+            
             } catch (SQLException e) {
+                // Any SQL error - TransactionRunner has rolled back (after retrying serialization failures)
+                // This includes trigger violations (capacity exceeded, cost mismatch, etc.)
+                ticketRejected(e, gigid, email);
                 e.printStackTrace();
+                return false;
             }
+        } finally {
+            GigEvents.taskFinished(event, "task3", null, gigid, name, email, ticketType);
         }
     }
 
     public static String[][] task4(Connection conn, int gigID, String actName){
+        GigEvents.TaskEvent event = GigEvents.taskStarted();
+        String[][] result = task4(conn, gigID, actName, null);
+        GigEvents.taskFinished(event, "task4", result, gigID, actName);
+        return result;
+    }
+
+    /**
+     * task4 that streams the affected customers of a cancelled gig instead of returning them.
+     * In Situation B each customer (name, email) is passed to affectedCustomers as it is read, in the order
+     * task4 returns them, and an empty array is returned; Situation A returns the lineup as task4 does.
+     * The customers are read after the cancellation has committed, with no lock held, so the callback may block,
+     * and each customer is passed once. If reading them fails, null is returned although the gig stays cancelled.
+     * @param affectedCustomers null to return the customers as task4 does
+     */
+    public static String[][] task4(Connection conn, int gigID, String actName, BiConsumer<String, String> affectedCustomers){
         // Validate input
         if (actName == null || actName.trim().isEmpty()) {
             return null;
         }
         
-        boolean originalAutoCommit = true;
         try {
-            // Set up transaction - disable auto-commit
-            originalAutoCommit = conn.getAutoCommit();
-            conn.setAutoCommit(false);
-            
-            // Validate gig exists
-            if (!gigExistsAndActive(conn, gigID)) {
-                // Check if gig exists but is cancelled
-                String checkGigSql = "SELECT 1 FROM GIG WHERE gigid = ?";
-                try (PreparedStatement stmt = conn.prepareStatement(checkGigSql)) {
+            String[][] lineupOrCustomers = TransactionRunner.run(conn, "task4", () -> {
+                // Exclusive gig lock: no sale or other task4 on this gig runs until this transaction ends
+                GigLocks.lockGigExclusive(conn, gigID);
+                
+                // Validate gig exists
+                if (!gigExistsAndActive(conn, gigID)) {
+                    // Check if gig exists but is cancelled
+                    String checkGigSql = "SELECT 1 FROM GIG WHERE gigid = ?";
+                    try (PreparedStatement stmt = prepare(conn, checkGigSql)) {
+                        stmt.setInt(1, gigID);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            if (!rs.next()) {
+                                TransactionRunner.rollback(conn);
+                                return null; // Gig does not exist
+                            }
+                        }
+                    }
+                    // Gig exists but is cancelled - cannot cancel act from cancelled gig
+                    TransactionRunner.rollback(conn);
+                    return null;
+                }
+                
+                // Get act ID by name
+                int actId = getActIdByName(conn, actName);
+                if (actId == -1) {
+                    TransactionRunner.rollback(conn);
+                    return null; // Act not found
+                }
+                
+                // Check if act has performances in this gig
+                String checkPerfSql = "SELECT COUNT(*) as count FROM ACT_GIG WHERE gigid = ? AND actid = ?";
+                int performanceCount = 0;
+                try (PreparedStatement stmt = prepare(conn, checkPerfSql)) {
                     stmt.setInt(1, gigID);
+                    stmt.setInt(2, actId);
                     try (ResultSet rs = stmt.executeQuery()) {
-                        if (!rs.next()) {
-                            conn.rollback();
-                            return null; // Gig does not exist
+                        if (rs.next()) {
+                            performanceCount = rs.getInt("count");
                         }
                     }
                 }
-                // Gig exists but is cancelled - cannot cancel act from cancelled gig
-                conn.rollback();
-                return null;
-            }
-            
-            // Get act ID by name
-            int actId = getActIdByName(conn, actName);
-            if (actId == -1) {
-                conn.rollback();
-                return null; // Act not found
-            }
-            
-            // Check if act has performances in this gig
-            String checkPerfSql = "SELECT COUNT(*) as count FROM ACT_GIG WHERE gigid = ? AND actid = ?";
-            int performanceCount = 0;
-            try (PreparedStatement stmt = conn.prepareStatement(checkPerfSql)) {
-                stmt.setInt(1, gigID);
-                stmt.setInt(2, actId);
-                try (ResultSet rs = stmt.executeQuery()) {
-                    if (rs.next()) {
-                        performanceCount = rs.getInt("count");
+                
+                if (performanceCount == 0) {
+                    TransactionRunner.rollback(conn);
+                    return null; // Act has no performances in this gig
+                }
+                
+                // Calculate total cancelled duration
+                int totalCancelledDuration = getTotalCancelledDuration(conn, gigID, actId);
+                
+                // Check if act is headline act (final or only act)
+                boolean isHeadline = isHeadlineAct(conn, gigID, actId);
+                
+                // Check if cancellation would violate interval rules
+                boolean wouldViolate = false;
+                if (!isHeadline) {
+                    // Only check interval violations if not headline (headline always cancels gig)
+                    wouldViolate = wouldViolateIntervalRules(conn, gigID, actId, totalCancelledDuration);
+                }
+                
+                // Decide action based on conditions
+                String[][] result;
+                boolean gigCancelled = isHeadline || wouldViolate;
+                
+                if (gigCancelled) {
+                    // Situation B: Cancel entire gig (a streaming call reads the customers after the commit)
+                    if (affectedCustomers == null) {
+                        result = cancelEntireGig(conn, gigID);
+                    } else {
+                        cancelAndRefundGig(conn, gigID);
+                        result = new String[0][2];
                     }
+                } else {
+                    // Situation A: Cancel act and adjust schedule
+                    result = cancelActAndAdjustSchedule(conn, gigID, actId, totalCancelledDuration);
                 }
-            }
-            
-            if (performanceCount == 0) {
-                conn.rollback();
-                return null; // Act has no performances in this gig
-            }
-            
-            // Calculate total cancelled duration
-            int totalCancelledDuration = getTotalCancelledDuration(conn, gigID, actId);
-            
-            // Check if act is headline act (final or only act)
-            boolean isHeadline = isHeadlineAct(conn, gigID, actId);
-            
-            // Check if cancellation would violate interval rules
-            boolean wouldViolate = false;
-            if (!isHeadline) {
-                // Only check interval violations if not headline (headline always cancels gig)
-                wouldViolate = wouldViolateIntervalRules(conn, gigID, actId, totalCancelledDuration);
-            }
-            
-            // Decide action based on conditions
-            String[][] result;
+                
+                // All operations successful - TransactionRunner commits
+                TransactionRunner.afterCommit(() -> {
+                    TaskResultCache.lineupsChanged();
+                    if (gigCancelled) {
+                        // Tickets were refunded
+                        TaskResultCache.ticketsChanged();
+                        GigMetadataCache.invalidate(gigID);
+                        SoldOutRegistry.markClosed(gigID);
+                    }
+                });
+                return result;
+            });
             
-            if (isHeadline || wouldViolate) {
-                // Situation B: Cancel entire gig
-                result = cancelEntireGig(conn, gigID);
-            } else {
-                // Situation A: Cancel act and adjust schedule
-                result = cancelActAndAdjustSchedule(conn, gigID, actId, totalCancelledDuration);
+            // Situation B of a streaming call (Situation A always returns the remaining lineup)
+            if (affectedCustomers != null && lineupOrCustomers != null && lineupOrCustomers.length == 0) {
+                streamGigCustomers(conn, gigID, affectedCustomers);
             }
+            return lineupOrCustomers;
             
-            // All operations successful - commit transaction
-            conn.commit();
-            return result;
+        } catch (SQLException e) {
+            // Any SQL error - TransactionRunner has rolled back (after retrying serialization failures)
+            e.printStackTrace();
+            return null;
+        }
+    }
+    /**
+     * Cancels an act from every active gig starting at or after fromDate, deciding Situation A or B per gig
+     * as task4 does, in one transaction. The lineups are loaded in one query and decided in memory, then
+     * the deletes, schedule shifts and gig cancellations are applied with one statement each.
+     * @return the outcome per gig (empty if the act has no such gigs), or null if the act does not exist or on error
+     */
+    public static TourCancellation cancelActEverywhere(Connection conn, String actName, LocalDateTime fromDate){
+        // Validate input
+        if (actName == null || actName.trim().isEmpty() || fromDate == null) {
+            return null;
+        }
+        
+        try {
+            return TransactionRunner.run(conn, "cancelActEverywhere", () -> {
+                int actId = getActIdByName(conn, actName);
+                if (actId == -1) {
+                    TransactionRunner.rollback(conn);
+                    return null; // Act not found
+                }
+                
+                // Exclusive locks on every gig the act plays, in gigid order, before reading the lineups
+                int[] gigIds = getActiveGigsOfAct(conn, actId, fromDate);
+                GigLocks.lockGigsExclusive(conn, gigIds);
+                
+                // All lineups in one query (re-checks gigstatus, since a gig may have been cancelled before we locked it)
+                Map<Integer, Integer> gigStarts = new HashMap<>();
+                Map<Integer, List<PerformanceInfo>> lineups = new HashMap<>();
+                Map<Integer, String> actNames = new HashMap<>();
+                loadLineups(conn, gigIds, gigStarts, lineups, actNames);
+                
+                // Decide Situation A or B per gig in memory
+                List<Integer> cancelGigs = new ArrayList<>();
+                List<Integer> shiftGigs = new ArrayList<>();
+                List<Integer> shiftAfter = new ArrayList<>();
+                List<Integer> shiftMinutes = new ArrayList<>();
+                Map<Integer, String[][]> newLineups = new HashMap<>();
+                for (int gigId : gigIds) {
+                    List<PerformanceInfo> perfs = lineups.get(gigId);
+                    int latestCancelledEnd = perfs == null ? NO_TIME : getLatestCancelledEndTime(perfs, actId);
+                    if (latestCancelledEnd == NO_TIME) {
+                        continue; // Cancelled, or the act was removed, before we locked the gig
+                    }
+                    int totalCancelledDuration = 0;
+                    for (PerformanceInfo perf : perfs) {
+                        if (perf.actId == actId) {
+                            totalCancelledDuration += perf.duration;
+                        }
+                    }
+                    
+                    if (isHeadlineAct(perfs, actId) || wouldViolateIntervalRules(perfs, gigStarts.get(gigId), actId, totalCancelledDuration)) {
+                        // Situation B: Cancel entire gig
+                        cancelGigs.add(gigId);
+                    } else {
+                        // Situation A: Cancel act and move later performances earlier
+                        shiftGigs.add(gigId);
+                        shiftAfter.add(latestCancelledEnd);
+                        shiftMinutes.add(totalCancelledDuration);
+                        newLineups.put(gigId, adjustedLineup(perfs, actId, latestCancelledEnd, totalCancelledDuration, actNames));
+                    }
+                }
+                
+                if (!shiftGigs.isEmpty()) {
+                    deletePerformances(conn, actId, shiftGigs);
+                    shiftPerformances(conn, shiftGigs, shiftAfter, shiftMinutes);
+                }
+                Map<Integer, List<String[]>> customersByGig = new HashMap<>();
+                if (!cancelGigs.isEmpty()) {
+                    customersByGig = cancelGigs(conn, cancelGigs);
+                }
+                
+                List<TourCancellation.GigOutcome> outcomes = new ArrayList<>();
+                for (int gigId : gigIds) {
+                    if (newLineups.containsKey(gigId)) {
+                        outcomes.add(new TourCancellation.GigOutcome(gigId, false, newLineups.get(gigId)));
+                    } else if (cancelGigs.contains(gigId)) {
+                        List<String[]> customers = customersByGig.getOrDefault(gigId, new ArrayList<>());
+                        outcomes.add(new TourCancellation.GigOutcome(gigId, true, customers.toArray(new String[0][])));
+                    }
+                }
+                
+                // All operations successful - TransactionRunner commits
+                TransactionRunner.afterCommit(() -> {
+                    TaskResultCache.lineupsChanged();
+                    if (!cancelGigs.isEmpty()) {
+                        // Tickets were refunded
+                        TaskResultCache.ticketsChanged();
+                        for (int gigId : cancelGigs) {
+                            GigMetadataCache.invalidate(gigId);
+                            SoldOutRegistry.markClosed(gigId);
+                        }
+                    }
+                });
+                return new TourCancellation(outcomes);
+            });
             
         } catch (SQLException e) {
-            // Any SQL error - rollback transaction
-            try {
-                conn.rollback();
-            } catch (SQLException rollbackEx) {
-                rollbackEx.printStackTrace();
-            }
+            // Any SQL error - TransactionRunner has rolled back (after retrying serialization failures)
             e.printStackTrace();
             return null;
-        } finally {
-            // Restore original auto-commit setting
-            try {
-                conn.setAutoCommit(originalAutoCommit);
-            } catch (SQLException e) {
-                e.printStackTrace();
+        }
+    }
+    
+    // Helper method to get the active gigs an act performs in from a date onwards, in gigid order
+    private static int[] getActiveGigsOfAct(Connection conn, int actId, LocalDateTime fromDate) throws SQLException {
+        String sql = "SELECT DISTINCT g.gigid FROM GIG g " +
+                     "JOIN ACT_GIG ag ON ag.gigid = g.gigid " +
+                     "WHERE ag.actid = ? AND g.gigstatus = 'G' AND g.gigdatetime >= ? " +
+                     "ORDER BY g.gigid";
+        List<Integer> gigIds = new ArrayList<>();
+        try (PreparedStatement stmt = prepare(conn, sql)) {
+            stmt.setInt(1, actId);
+            stmt.setTimestamp(2, Timestamp.valueOf(fromDate));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    gigIds.add(rs.getInt("gigid"));
+                }
+            }
+        }
+        return gigIds.stream().mapToInt(Integer::intValue).toArray();
+    }
+    
+    // Helper method to load the full lineups of several active gigs in one query
+    private static void loadLineups(Connection conn, int[] gigIds, Map<Integer, Integer> gigStarts,
+                                    Map<Integer, List<PerformanceInfo>> lineups, Map<Integer, String> actNames) throws SQLException {
+        String sql = "SELECT g.gigid, " + String.format(EPOCH_MINUTE, "g.gigdatetime") + " AS startminute, ag.actid, a.actname, " +
+                     String.format(EPOCH_MINUTE, "ag.ontime") + " AS onminute, ag.duration " +
+                     "FROM GIG g " +
+                     "JOIN ACT_GIG ag ON ag.gigid = g.gigid " +
+                     "JOIN ACT a ON a.actid = ag.actid " +
+                     "WHERE g.gigid = ANY(?) AND g.gigstatus = 'G' " +
+                     "ORDER BY g.gigid, ag.ontime";
+        try (PreparedStatement stmt = prepare(conn, sql)) {
+            stmt.setArray(1, conn.createArrayOf("integer", Arrays.stream(gigIds).boxed().toArray()));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int gigId = rs.getInt("gigid");
+                    int actId = rs.getInt("actid");
+                    gigStarts.putIfAbsent(gigId, rs.getInt("startminute"));
+                    actNames.putIfAbsent(actId, rs.getString("actname"));
+                    lineups.computeIfAbsent(gigId, k -> new ArrayList<>())
+                           .add(new PerformanceInfo(actId, rs.getInt("onminute"), rs.getInt("duration")));
+                }
+            }
+        }
+    }
+    
+    // Helper method to compute a gig's lineup after Situation A, in task1's format, without querying it again
+    private static String[][] adjustedLineup(List<PerformanceInfo> perfs, int actId, int latestCancelledEnd,
+                                             int totalCancelledDuration, Map<Integer, String> actNames) {
+        List<String[]> rows = new ArrayList<>();
+        for (PerformanceInfo perf : perfs) {
+            if (perf.actId == actId) {
+                continue;
+            }
+            // Same shift as cancelActAndAdjustSchedule, so the ontime order is unchanged
+            int onTime = perf.onTime > latestCancelledEnd ? perf.onTime - totalCancelledDuration : perf.onTime;
+            rows.add(new String[]{actNames.get(perf.actId),
+                                  ColumnarResult.formatMinutes(onTime),
+                                  ColumnarResult.formatMinutes(onTime + perf.duration)});
+        }
+        return rows.toArray(new String[0][]);
+    }
+    
+    // Helper method to delete an act's performances from several gigs in one statement
+    private static void deletePerformances(Connection conn, int actId, List<Integer> gigIds) throws SQLException {
+        String sql = "DELETE FROM ACT_GIG WHERE actid = ? AND gigid = ANY(?)";
+        try (PreparedStatement stmt = prepare(conn, sql)) {
+            stmt.setInt(1, actId);
+            stmt.setArray(2, conn.createArrayOf("integer", gigIds.toArray()));
+            stmt.executeUpdate();
+        }
+    }
+    
+    // Helper method to move later performances earlier in several gigs in one statement
+    // (one row per gig: performances starting after that gig's cutoff move earlier by its minutes)
+    private static void shiftPerformances(Connection conn, List<Integer> gigIds, List<Integer> after, List<Integer> minutes) throws SQLException {
+        // Cutoffs are minutes since 1970-01-01, like the scheduling helpers
+        String sql = "UPDATE ACT_GIG ag SET ontime = ag.ontime - s.minutes * INTERVAL '1 minute' " +
+                     "FROM unnest(?::INTEGER[], ?::INTEGER[], ?::INTEGER[]) AS s(gigid, cutoff, minutes) " +
+                     "WHERE ag.gigid = s.gigid AND ag.ontime > TIMESTAMP 'epoch' + s.cutoff * INTERVAL '1 minute' AND s.minutes > 0";
+        try (PreparedStatement stmt = prepare(conn, sql)) {
+            stmt.setArray(1, conn.createArrayOf("integer", gigIds.toArray()));
+            stmt.setArray(2, conn.createArrayOf("integer", after.toArray()));
+            stmt.setArray(3, conn.createArrayOf("integer", minutes.toArray()));
+            stmt.executeUpdate();
+        }
+    }
+    
+    // Helper method to cancel several gigs, refund their tickets, and fetch their customers
+    // Returns each gig's distinct customers (name, email) ordered by name, as cancelEntireGig does
+    private static Map<Integer, List<String[]>> cancelGigs(Connection conn, List<Integer> gigIds) throws SQLException {
+        java.sql.Array gigArray = conn.createArrayOf("integer", gigIds.toArray());
+        try (PreparedStatement stmt = prepare(conn, "UPDATE GIG SET gigstatus = 'C' WHERE gigid = ANY(?)")) {
+            stmt.setArray(1, gigArray);
+            stmt.executeUpdate();
+        }
+        
+        // Refund and fetch customers in one scan, as cancelEntireGig does
+        String refundedTickets;
+        if (RefundLedger.isEnabled()) {
+            RefundLedger.recordAll(conn, gigIds);
+            refundedTickets = "SELECT gigid, customerid, customername, customeremail FROM TICKET WHERE gigid = ANY(?)";
+        } else {
+            refundedTickets = "UPDATE TICKET SET cost = 0 WHERE gigid = ANY(?) RETURNING gigid, customerid, customername, customeremail";
+        }
+        
+        // Distinct customers per gig, ordered by name, as in cancelEntireGig
+        String customerSql = "WITH refunded AS (" + refundedTickets + ") " +
+                             "SELECT DISTINCT r.gigid, " + REFUNDED_CUSTOMER_COLUMNS +
+                             "FROM refunded r LEFT JOIN CUSTOMER c ON c.customerid = r.customerid " +
+                             "ORDER BY r.gigid, customername ASC";
+        Map<Integer, List<String[]>> customers = new HashMap<>();
+        try (PreparedStatement stmt = prepare(conn, customerSql)) {
+            stmt.setArray(1, gigArray);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    customers.computeIfAbsent(rs.getInt("gigid"), k -> new ArrayList<>())
+                             .add(new String[]{rs.getString("customername"), rs.getString("customeremail")});
+                }
             }
         }
+        return customers;
     }
 
     public static String[][] task5(Connection conn){
+        GigEvents.TaskEvent event = GigEvents.taskStarted();
+        ColumnarResult result = task5Columnar(conn);
+        String[][] rows = result == null ? null : result.toStrings();
+        GigEvents.taskFinished(event, "task5", rows);
+        return rows;
+    }
+
+    /**
+     * Typed form of task5: column 0 is the gigID, column 1 the tickets still to sell (both int columns)
+     */
+    public static ColumnarResult task5Columnar(Connection conn){
+        return TaskResultCache.get("task5", TaskResultCache.TICKETS | TaskResultCache.LINEUPS, !isReadOnly(conn), () -> computeTask5(conn));
+    }
+
+    // SQL query to calculate tickets needed to sell for each gig
+    // Uses CTEs to:
+    // 1. Calculate act fees per gig (each act counted once per gig, as per Business Rule 4)
+    // 2. Calculate total cost per gig (act fees + venue hire cost)
+    // 3. Calculate total revenue per gig (sum of all ticket costs actually paid, i.e. 0 once refunded)
+    // 4. Find cheapest ticket price per gig
+    // 5. Calculate tickets needed to sell
+    static final String TASK5_SQL =
+        "WITH act_fees_per_gig AS (" +
+        "    SELECT " +
+        "        gigid, " +
+        "        actid, " +
+        "        MAX(actgigfee) as act_fee " +  // All performances by same act have same fee (Business Rule 4)
+        "    FROM ACT_GIG " +
+        "    GROUP BY gigid, actid" +
+        "), " +
+        "gig_costs AS (" +
+        "    SELECT " +
+        "        g.gigid, " +
+        "        COALESCE(SUM(af.act_fee), 0) as total_act_fees, " +
+        "        v.hirecost, " +
+        "        COALESCE(SUM(af.act_fee), 0) + v.hirecost as total_cost " +
+        "    FROM GIG g " +
+        "    LEFT JOIN VENUE v ON g.venueid = v.venueid " +
+        "    LEFT JOIN act_fees_per_gig af ON g.gigid = af.gigid " +
+        "    GROUP BY g.gigid, v.hirecost" +
+        "), " +
+        "gig_revenue AS (" +
+        "    SELECT " +
+        "        gigid, " +
+        "        COALESCE(SUM(cost), 0) as total_revenue " +
+        "    FROM TICKET_EFFECTIVE " +
+        "    GROUP BY gigid" +
+        "), " +
+        "gig_cheapest_price AS (" +
+        "    SELECT " +
+        "        gigid, " +
+        "        MIN(price) as cheapest_price " +
+        "    FROM GIG_TICKET " +
+        "    GROUP BY gigid" +
+        ") " +
+        "SELECT " +
+        "    gc.gigid, " +
+        "    CASE " +
+        "        WHEN COALESCE(gr.total_revenue, 0) >= gc.total_cost THEN 0 " +
+        "        WHEN gcp.cheapest_price IS NULL OR gcp.cheapest_price = 0 THEN 0 " +  // No tickets defined, return 0
+        "        ELSE CEIL((gc.total_cost - COALESCE(gr.total_revenue, 0))::NUMERIC / gcp.cheapest_price)::INTEGER " +
+        "    END as tickets_to_sell " +
+        "FROM gig_costs gc " +
+        "LEFT JOIN gig_revenue gr ON gc.gigid = gr.gigid " +
+        "LEFT JOIN gig_cheapest_price gcp ON gc.gigid = gcp.gigid " +
+        "ORDER BY gc.gigid ASC";
+
+    private static ColumnarResult computeTask5(Connection conn){
         try {
-            // SQL query to calculate tickets needed to sell for each gig
-            // Uses CTEs to:
-            // 1. Calculate act fees per gig (each act counted once per gig, as per Business Rule 4)
-            // 2. Calculate total cost per gig (act fees + venue hire cost)
-            // 3. Calculate total revenue per gig (sum of all ticket costs)
-            // 4. Find cheapest ticket price per gig
-            // 5. Calculate tickets needed to sell
-            String sql = 
-                "WITH act_fees_per_gig AS (" +
-                "    SELECT " +
-                "        gigid, " +
-                "        actid, " +
-                "        MAX(actgigfee) as act_fee " +  // All performances by same act have same fee (Business Rule 4)
-                "    FROM ACT_GIG " +
-                "    GROUP BY gigid, actid" +
-                "), " +
-                "gig_costs AS (" +
-                "    SELECT " +
-                "        g.gigid, " +
-                "        COALESCE(SUM(af.act_fee), 0) as total_act_fees, " +
-                "        v.hirecost, " +
-                "        COALESCE(SUM(af.act_fee), 0) + v.hirecost as total_cost " +
-                "    FROM GIG g " +
-                "    LEFT JOIN VENUE v ON g.venueid = v.venueid " +
-                "    LEFT JOIN act_fees_per_gig af ON g.gigid = af.gigid " +
-                "    GROUP BY g.gigid, v.hirecost" +
-                "), " +
-                "gig_revenue AS (" +
-                "    SELECT " +
-                "        gigid, " +
-                "        COALESCE(SUM(cost), 0) as total_revenue " +
-                "    FROM TICKET " +
-                "    GROUP BY gigid" +
-                "), " +
-                "gig_cheapest_price AS (" +
-                "    SELECT " +
-                "        gigid, " +
-                "        MIN(price) as cheapest_price " +
-                "    FROM GIG_TICKET " +
-                "    GROUP BY gigid" +
-                ") " +
-                "SELECT " +
-                "    gc.gigid, " +
-                "    CASE " +
-                "        WHEN COALESCE(gr.total_revenue, 0) >= gc.total_cost THEN 0 " +
-                "        WHEN gcp.cheapest_price IS NULL OR gcp.cheapest_price = 0 THEN 0 " +  // No tickets defined, return 0
-                "        ELSE CEIL((gc.total_cost - COALESCE(gr.total_revenue, 0))::NUMERIC / gcp.cheapest_price)::INTEGER " +
-                "    END as tickets_to_sell " +
-                "FROM gig_costs gc " +
-                "LEFT JOIN gig_revenue gr ON gc.gigid = gr.gigid " +
-                "LEFT JOIN gig_cheapest_price gcp ON gc.gigid = gcp.gigid " +
-                "ORDER BY gc.gigid ASC";
+            String sql = TASK5_SQL;
             
-            try (PreparedStatement stmt = conn.prepareStatement(sql);
+            try (PreparedStatement stmt = prepare(conn, sql);
                  ResultSet rs = stmt.executeQuery()) {
                 
-                // Collect results in a list first to determine size
-                List<String[]> results = new ArrayList<>();
+                // Read straight into int columns - no String per value
+                ColumnarResult.Builder result = new ColumnarResult.Builder(64, "gigid", "tickets_to_sell");
                 while (rs.next()) {
-                    String[] row = new String[2];
-                    row[0] = String.valueOf(rs.getInt("gigid"));
-                    row[1] = String.valueOf(rs.getInt("tickets_to_sell"));
-                    results.add(row);
-                }
-
-                // Convert to 2D array
-                if (results.isEmpty()) {
-                    return new String[0][2];
+                    result.setInt(0, rs.getInt("gigid"));
+                    result.setInt(1, rs.getInt("tickets_to_sell"));
+                    result.endRow();
                 }
-
-                String[][] result = new String[results.size()][2];
-                for (int i = 0; i < results.size(); i++) {
-                    result[i] = results.get(i);
-                }
-                return result;
+                return result.build();
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -994,256 +1548,381 @@ public class GigSystem {
     }
 
     public static String[][] task6(Connection conn){
+        GigEvents.TaskEvent event = GigEvents.taskStarted();
+        ColumnarResult result = task6Columnar(conn);
+        String[][] rows = result == null ? null : result.toStrings();
+        GigEvents.taskFinished(event, "task6", rows);
+        return rows;
+    }
+
+    /**
+     * Typed form of task6: act name (dictionary-encoded), year (int, null on the per-act "Total" row), tickets sold (int)
+     */
+    public static ColumnarResult task6Columnar(Connection conn){
+        return TaskResultCache.get("task6", TaskResultCache.TICKETS | TaskResultCache.LINEUPS, !isReadOnly(conn), () -> computeTask6(conn));
+    }
+
+    // Headline acts (every act tied for the last finish) of gigs going ahead, shared by TASK6_SQL, TASK7_SQL,
+    // their archive-merge counts and SeasonArchive
+    static final String HEADLINE_ACTS_CTE =
+        "WITH headline_acts AS (" +
+        "    SELECT DISTINCT ag.gigid, ag.actid, a.actname " +
+        "    FROM ACT_GIG ag " +
+        "    JOIN ACT a ON ag.actid = a.actid " +
+        "    JOIN GIG g ON ag.gigid = g.gigid " +
+        "    WHERE g.gigstatus = 'G' " +
+        "      AND (ag.ontime + (ag.duration || ' minutes')::INTERVAL) = (" +
+        "          SELECT MAX(ag2.ontime + (ag2.duration || ' minutes')::INTERVAL) " +
+        "          FROM ACT_GIG ag2 " +
+        "          WHERE ag2.gigid = ag.gigid" +
+        "      )" +
+        ") ";
+
+    // SQL query to find tickets sold per act per year for headline acts only
+    // Uses CTEs to:
+    // 1. Identify headline acts (acts with latest end time per gig)
+    // 2. Count tickets per act per year
+    // 3. Calculate totals per act
+    static final String TASK6_SQL =
+        HEADLINE_ACTS_CTE +
+        ", " +
+        "tickets_per_year AS (" +
+        "    SELECT ha.actname, EXTRACT(YEAR FROM g.gigdatetime)::INTEGER as year, COUNT(*)::INTEGER as tickets_sold " +
+        "    FROM headline_acts ha " +
+        "    JOIN GIG g ON ha.gigid = g.gigid " +
+        "    JOIN TICKET t ON g.gigid = t.gigid " +
+        "    GROUP BY ha.actname, EXTRACT(YEAR FROM g.gigdatetime)" +
+        "), " +
+        "act_totals AS (" +
+        "    SELECT actname, SUM(tickets_sold)::INTEGER as total_tickets " +
+        "    FROM tickets_per_year " +
+        "    GROUP BY actname" +
+        ") " +
+        "SELECT combined.actname, combined.year, combined.tickets_sold " +
+        "FROM (" +
+        "    SELECT tpy.actname, tpy.year, tpy.tickets_sold, at.total_tickets " +
+        "    FROM tickets_per_year tpy " +
+        "    JOIN act_totals at ON tpy.actname = at.actname " +
+        "    UNION ALL " +
+        "    SELECT at.actname, NULL::INTEGER as year, at.total_tickets as tickets_sold, at.total_tickets " +  // NULL year = 'Total' row
+        "    FROM act_totals at" +
+        ") combined " +
+        "ORDER BY combined.total_tickets ASC, combined.actname ASC, combined.year ASC NULLS LAST";
+
+    private static ColumnarResult computeTask6(Connection conn){
         try {
-            // SQL query to find tickets sold per act per year for headline acts only
-            // Uses CTEs to:
-            // 1. Identify headline acts (acts with latest end time per gig)
-            // 2. Count tickets per act per year
-            // 3. Calculate totals per act
-            String sql = 
-                "WITH headline_acts AS (" +
-                "    SELECT DISTINCT ag.gigid, ag.actid, a.actname " +
-                "    FROM ACT_GIG ag " +
-                "    JOIN ACT a ON ag.actid = a.actid " +
-                "    JOIN GIG g ON ag.gigid = g.gigid " +
-                "    WHERE g.gigstatus = 'G' " +
-                "      AND (ag.ontime + (ag.duration || ' minutes')::INTERVAL) = (" +
-                "          SELECT MAX(ag2.ontime + (ag2.duration || ' minutes')::INTERVAL) " +
-                "          FROM ACT_GIG ag2 " +
-                "          WHERE ag2.gigid = ag.gigid" +
-                "      )" +
-                "), " +
-                "tickets_per_year AS (" +
-                "    SELECT ha.actname, EXTRACT(YEAR FROM g.gigdatetime)::INTEGER as year, COUNT(*) as tickets_sold " +
-                "    FROM headline_acts ha " +
-                "    JOIN GIG g ON ha.gigid = g.gigid " +
-                "    JOIN TICKET t ON g.gigid = t.gigid " +
-                "    GROUP BY ha.actname, EXTRACT(YEAR FROM g.gigdatetime)" +
-                "), " +
-                "act_totals AS (" +
-                "    SELECT actname, SUM(tickets_sold) as total_tickets " +
-                "    FROM tickets_per_year " +
-                "    GROUP BY actname" +
-                ") " +
-                "SELECT combined.actname, combined.year, combined.tickets_sold " +
-                "FROM (" +
-                "    SELECT tpy.actname, tpy.year::TEXT as year, tpy.tickets_sold::TEXT as tickets_sold, at.total_tickets " +
-                "    FROM tickets_per_year tpy " +
-                "    JOIN act_totals at ON tpy.actname = at.actname " +
-                "    UNION ALL " +
-                "    SELECT at.actname, 'Total' as year, at.total_tickets::TEXT as tickets_sold, at.total_tickets " +
-                "    FROM act_totals at" +
-                ") combined " +
-                "ORDER BY combined.total_tickets ASC, combined.actname ASC, " +
-                "    CASE WHEN combined.year = 'Total' THEN 1 ELSE 0 END, " +
-                "    CASE WHEN combined.year = 'Total' THEN NULL ELSE combined.year::INTEGER END ASC NULLS LAST";
-            
-            // Debug: Print full SQL query
-            System.out.println("DEBUG Task6 SQL (full):");
-            System.out.println(sql);
-            
-            try (PreparedStatement stmt = conn.prepareStatement(sql);
+            // Archived seasons are added in Java, so the totals and ordering are computed there too
+            SeasonArchive.Aggregates archive = SeasonArchive.aggregates();
+            if (archive != null) {
+                return computeTask6Merged(conn, archive);
+            }
+            try (PreparedStatement stmt = prepare(conn, TASK6_SQL);
                  ResultSet rs = stmt.executeQuery()) {
                 
-                // Collect results in a list
-                List<String[]> results = new ArrayList<>();
+                // Collect results into typed columns (the 'Total' row has a null year)
+                ColumnarResult.Builder builder = new ColumnarResult.Builder(64, "actname", "year", "tickets_sold")
+                    .dictColumn(0)
+                    .intColumn(1, ColumnarResult.Format.NUMBER, "Total");
                 while (rs.next()) {
-                    String[] row = new String[3];
-                    row[0] = rs.getString("actname");
-                    row[1] = rs.getString("year");
-                    row[2] = rs.getString("tickets_sold");
-                    results.add(row);
-                }
-                
-                System.out.println("DEBUG Task6: SQL returned " + results.size() + " rows from database");
-                
-                // Convert to 2D array
-                if (results.isEmpty()) {
-                    return new String[0][3];
-                }
-                
-                String[][] result = new String[results.size()][3];
-                for (int i = 0; i < results.size(); i++) {
-                    result[i] = results.get(i);
-                }
-                
-                // Debug output
-                System.out.println("DEBUG Task6: Returned " + result.length + " rows");
-                for (int i = 0; i < Math.min(result.length, 25); i++) {
-                    System.out.println("DEBUG Task6[" + i + "]: " + 
-                        (result[i][0] != null ? result[i][0] : "null") + " | " + 
-                        (result[i][1] != null ? result[i][1] : "null") + " | " + 
-                        (result[i][2] != null ? result[i][2] : "null"));
-                }
-                if (result.length > 25) {
-                    System.out.println("DEBUG Task6: ... (showing first 25 of " + result.length + " rows)");
+                    builder.setString(0, rs.getString("actname"));
+                    int year = rs.getInt("year");
+                    if (rs.wasNull()) {
+                        builder.setNull(1);
+                    } else {
+                        builder.setInt(1, year);
+                    }
+                    builder.setInt(2, rs.getInt("tickets_sold"));
+                    builder.endRow();
                 }
-                
-                return result;
+                return builder.build();
             }
         } catch (SQLException e) {
-            System.err.println("DEBUG Task6 SQLException: " + e.getMessage());
-            System.err.println("SQL State: " + e.getSQLState());
-            e.printStackTrace(); 
-            return null; 
+            e.printStackTrace();
+            return null;
         }
     }
 
     public static String[][] task7(Connection conn){
+        GigEvents.TaskEvent event = GigEvents.taskStarted();
+        ColumnarResult result = task7Columnar(conn);
+        String[][] rows = result == null ? null : result.toStrings();
+        GigEvents.taskFinished(event, "task7", rows);
+        return rows;
+    }
+
+    /**
+     * Typed form of task7: act name and customer name, both dictionary-encoded
+     */
+    public static ColumnarResult task7Columnar(Connection conn){
+        return TaskResultCache.get("task7", TaskResultCache.TICKETS | TaskResultCache.LINEUPS, !isReadOnly(conn), () -> computeTask7(conn));
+    }
+
+    // SQL query to find regular customers for headline acts
+    // Shows each act who has performed as headline act along with customers who attended
+    // Acts ordered alphabetically, customers ordered by ticket count (most first)
+    // A customer is a CUSTOMER row (one per email); tickets not yet interned (null customerid) group by email
+    static final String TASK7_SQL =
+        HEADLINE_ACTS_CTE +
+        ", " +
+        "customer_tickets AS (" +
+        "    SELECT ha.actname, t.customerid, " +
+        "           CASE WHEN t.customerid IS NULL THEN t.customeremail END as customeremail, " +
+        "           MIN(t.customername) as customername, COUNT(*) as ticket_count " +
+        "    FROM headline_acts ha " +
+        "    JOIN TICKET t ON ha.gigid = t.gigid " +
+        "    GROUP BY ha.actname, t.customerid, CASE WHEN t.customerid IS NULL THEN t.customeremail END" +
+        "    HAVING COUNT(*) >= 2" +
+        "), " +
+        "all_headline_acts AS (" +
+        "    SELECT DISTINCT actname " +
+        "    FROM headline_acts" +
+        ") " +
+        "SELECT aha.actname, COALESCE(c.customername, ct.customername, '[None]') as customername, ct.ticket_count " +
+        "FROM all_headline_acts aha " +
+        "LEFT JOIN customer_tickets ct ON aha.actname = ct.actname " +
+        "LEFT JOIN CUSTOMER c ON c.customerid = ct.customerid " +
+        "ORDER BY aha.actname ASC, ct.ticket_count DESC NULLS LAST";
+
+    private static ColumnarResult computeTask7(Connection conn){
         try {
-            // SQL query to find regular customers for headline acts
-            // Shows each act who has performed as headline act along with customers who attended
-            // Acts ordered alphabetically, customers ordered by ticket count (most first)
-            String sql = 
-                "WITH headline_acts AS (" +
-                "    SELECT DISTINCT ag.gigid, ag.actid, a.actname " +
-                "    FROM ACT_GIG ag " +
-                "    JOIN ACT a ON ag.actid = a.actid " +
-                "    JOIN GIG g ON ag.gigid = g.gigid " +
-                "    WHERE g.gigstatus = 'G' " +
-                "      AND (ag.ontime + (ag.duration || ' minutes')::INTERVAL) = (" +
-                "          SELECT MAX(ag2.ontime + (ag2.duration || ' minutes')::INTERVAL) " +
-                "          FROM ACT_GIG ag2 " +
-                "          WHERE ag2.gigid = ag.gigid" +
-                "      )" +
-                "), " +
-                "customer_tickets AS (" +
-                "    SELECT ha.actname, t.customername, COUNT(*) as ticket_count " +
-                "    FROM headline_acts ha " +
-                "    JOIN TICKET t ON ha.gigid = t.gigid " +
-                "    GROUP BY ha.actname, t.customername" +
-                "    HAVING COUNT(*) >= 2" +
-                "), " +
-                "all_headline_acts AS (" +
-                "    SELECT DISTINCT actname " +
-                "    FROM headline_acts" +
-                ") " +
-                "SELECT aha.actname, COALESCE(ct.customername, '[None]') as customername, ct.ticket_count " +
-                "FROM all_headline_acts aha " +
-                "LEFT JOIN customer_tickets ct ON aha.actname = ct.actname " +
-                "ORDER BY aha.actname ASC, ct.ticket_count DESC NULLS LAST";
-            
-            // Debug: Print full SQL query
-            System.out.println("DEBUG Task7 SQL (full):");
-            System.out.println(sql);
-            
-            try (PreparedStatement stmt = conn.prepareStatement(sql);
+            SeasonArchive.Aggregates archive = SeasonArchive.aggregates();
+            if (archive != null) {
+                return computeTask7Merged(conn, archive);
+            }
+            try (PreparedStatement stmt = prepare(conn, TASK7_SQL);
                  ResultSet rs = stmt.executeQuery()) {
                 
-                // Collect results in a list
-                List<String[]> results = new ArrayList<>();
+                // Collect results into dictionary-encoded columns (act and customer names repeat a lot)
+                ColumnarResult.Builder builder = new ColumnarResult.Builder(64, "actname", "customername")
+                    .dictColumn(0)
+                    .dictColumn(1);
                 while (rs.next()) {
-                    String[] row = new String[2];
-                    row[0] = rs.getString("actname");
-                    row[1] = rs.getString("customername");
-                    Integer ticketCount = rs.getObject("ticket_count") != null ? rs.getInt("ticket_count") : null;
-                    System.out.println("DEBUG Task7 DB row: " + row[0] + " | " + row[1] + " | tickets: " + ticketCount);
-                    results.add(row);
-                }
-                
-                System.out.println("DEBUG Task7: SQL returned " + results.size() + " rows from database");
-                
-                // Convert to 2D array
-                if (results.isEmpty()) {
-                    return new String[0][2];
+                    builder.setString(0, rs.getString("actname"));
+                    builder.setString(1, rs.getString("customername"));
+                    builder.endRow();
                 }
-                
-                String[][] result = new String[results.size()][2];
-                for (int i = 0; i < results.size(); i++) {
-                    result[i] = results.get(i);
+                return builder.build();
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Live tickets per headline act and year (tickets_per_year of TASK6_SQL), to add to SeasonArchive's
+    static final String TASK6_COUNTS_SQL =
+        HEADLINE_ACTS_CTE +
+        "SELECT ha.actname, EXTRACT(YEAR FROM g.gigdatetime)::INTEGER as year, COUNT(*)::INTEGER as tickets_sold " +
+        "FROM headline_acts ha " +
+        "JOIN GIG g ON ha.gigid = g.gigid " +
+        "JOIN TICKET t ON g.gigid = t.gigid " +
+        "GROUP BY ha.actname, EXTRACT(YEAR FROM g.gigdatetime)";
+
+    // Live tickets per headline act and customer, before the HAVING of Task 7, to add to SeasonArchive's.
+    // Customers are keyed by email, which the archive keeps; acts with no tickets come back once with a null email
+    static final String TASK7_COUNTS_SQL =
+        HEADLINE_ACTS_CTE +
+        ", customer_tickets AS (" +
+        "    SELECT ha.actname, t.customerid, " +
+        "           CASE WHEN t.customerid IS NULL THEN t.customeremail END as customeremail, " +
+        "           MIN(t.customername) as customername, COUNT(t.ticketid) as ticket_count " +
+        "    FROM headline_acts ha " +
+        "    LEFT JOIN TICKET t ON ha.gigid = t.gigid " +
+        "    GROUP BY ha.actname, t.customerid, CASE WHEN t.customerid IS NULL THEN t.customeremail END" +
+        ") " +
+        "SELECT ct.actname, COALESCE(c.customeremail, ct.customeremail) as customeremail, " +
+        "       COALESCE(c.customername, ct.customername) as customername, ct.ticket_count " +
+        "FROM customer_tickets ct " +
+        "LEFT JOIN CUSTOMER c ON c.customerid = ct.customerid";
+
+    // Task 6 over live and archived gigs: the same rows and order as TASK6_SQL
+    private static ColumnarResult computeTask6Merged(Connection conn, SeasonArchive.Aggregates archive) throws SQLException {
+        Map<String, Map<Integer, Integer>> ticketsByAct = new HashMap<>();
+        try (PreparedStatement stmt = prepare(conn, TASK6_COUNTS_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                ticketsByAct.computeIfAbsent(rs.getString("actname"), k -> new HashMap<>())
+                            .merge(rs.getInt("year"), rs.getInt("tickets_sold"), Integer::sum);
+            }
+        }
+        archive.ticketsByYear.forEach((act, years) ->
+            years.forEach((year, tickets) ->
+                ticketsByAct.computeIfAbsent(act, k -> new HashMap<>()).merge(year, tickets, Integer::sum)));
+
+        Map<String, Integer> totals = new HashMap<>();
+        ticketsByAct.forEach((act, years) ->
+            totals.put(act, years.values().stream().mapToInt(Integer::intValue).sum()));
+        List<String> acts = new ArrayList<>(ticketsByAct.keySet());
+        acts.sort(Comparator.<String>comparingInt(totals::get).thenComparing(Comparator.naturalOrder()));
+
+        ColumnarResult.Builder builder = new ColumnarResult.Builder(64, "actname", "year", "tickets_sold")
+            .dictColumn(0)
+            .intColumn(1, ColumnarResult.Format.NUMBER, "Total");
+        for (String act : acts) {
+            Map<Integer, Integer> years = ticketsByAct.get(act);
+            List<Integer> sortedYears = new ArrayList<>(years.keySet());
+            sortedYears.sort(null);
+            for (int year : sortedYears) {
+                builder.setString(0, act);
+                builder.setInt(1, year);
+                builder.setInt(2, years.get(year));
+                builder.endRow();
+            }
+            builder.setString(0, act);
+            builder.setNull(1);
+            builder.setInt(2, totals.get(act));
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    // Task 7 over live and archived gigs: the same rows and order as TASK7_SQL
+    private static ColumnarResult computeTask7Merged(Connection conn, SeasonArchive.Aggregates archive) throws SQLException {
+        // Headline act -> customer email -> tickets, and each email's name (CUSTOMER's, else the archive's)
+        Map<String, Map<String, Integer>> ticketsByAct = new HashMap<>();
+        Map<String, String> names = new HashMap<>(archive.namesByEmail);
+        try (PreparedStatement stmt = prepare(conn, TASK7_COUNTS_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                Map<String, Integer> customers = ticketsByAct.computeIfAbsent(rs.getString("actname"), k -> new HashMap<>());
+                String email = rs.getString("customeremail");
+                if (email != null) {
+                    customers.merge(email, rs.getInt("ticket_count"), Integer::sum);
+                    names.put(email, rs.getString("customername"));
                 }
-                
-                // Debug output
-                System.out.println("DEBUG Task7: Returned " + result.length + " rows");
-                for (int i = 0; i < result.length; i++) {
-                    System.out.println("DEBUG Task7[" + i + "]: " + 
-                        (result[i][0] != null ? result[i][0] : "null") + " | " + 
-                        (result[i][1] != null ? result[i][1] : "null"));
+            }
+        }
+        archive.ticketsByEmail.forEach((act, customers) -> {
+            Map<String, Integer> merged = ticketsByAct.computeIfAbsent(act, k -> new HashMap<>());
+            customers.forEach((email, tickets) -> merged.merge(email, tickets, Integer::sum));
+        });
+
+        List<String> acts = new ArrayList<>(ticketsByAct.keySet());
+        acts.sort(null);
+        ColumnarResult.Builder builder = new ColumnarResult.Builder(64, "actname", "customername")
+            .dictColumn(0)
+            .dictColumn(1);
+        for (String act : acts) {
+            Map<String, Integer> customers = ticketsByAct.get(act);
+            List<String> regulars = new ArrayList<>();
+            for (Map.Entry<String, Integer> customer : customers.entrySet()) {
+                if (customer.getValue() >= 2) {
+                    regulars.add(customer.getKey());
                 }
-                
-                return result;
             }
+            regulars.sort(Comparator.<String>comparingInt(customers::get).reversed()
+                                    .thenComparing(names::get).thenComparing(Comparator.naturalOrder()));
+            if (regulars.isEmpty()) {
+                builder.setString(0, act);
+                builder.setString(1, "[None]");
+                builder.endRow();
+            }
+            for (String email : regulars) {
+                builder.setString(0, act);
+                builder.setString(1, names.get(email));
+                builder.endRow();
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Links tickets that were loaded without going through task3 (e.g. bulk-loaded test data) to CUSTOMER rows
+     * @param conn Database connection
+     * @return the number of tickets that were updated, or -1 on error
+     */
+    public static int internCustomers(Connection conn){
+        String sql = "SELECT intern_ticket_customers()";
+        try (PreparedStatement stmt = prepare(conn, sql);
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
         } catch (SQLException e) {
-            System.err.println("DEBUG Task7 SQLException: " + e.getMessage());
-            System.err.println("SQL State: " + e.getSQLState());
             e.printStackTrace();
-        return null;
+            return -1;
         }
     }
 
     public static String[][] task8(Connection conn){
+        GigEvents.TaskEvent event = GigEvents.taskStarted();
+        ColumnarResult result = task8Columnar(conn);
+        String[][] rows = result == null ? null : result.toStrings();
+        GigEvents.taskFinished(event, "task8", rows);
+        return rows;
+    }
+
+    /**
+     * Typed form of task8: venue name and act name (dictionary-encoded), tickets required (int)
+     */
+    public static ColumnarResult task8Columnar(Connection conn){
+        return TaskResultCache.get("task8", TaskResultCache.TICKETS, !isReadOnly(conn), () -> computeTask8(conn));
+    }
+
+    // SQL query to find economically feasible venue-act combinations
+    // Uses CTEs to:
+    // 1. Calculate average ticket price from all non-cancelled gigs (cost actually paid, as in task5)
+    // 2. Generate all venue-act combinations
+    // 3. Calculate total costs and tickets required
+    // 4. Filter economically feasible combinations
+    static final String TASK8_SQL =
+        "WITH average_ticket_price AS (" +
+        "    SELECT ROUND(AVG(t.cost))::INTEGER as avg_price " +
+        "    FROM TICKET_EFFECTIVE t " +
+        "    JOIN GIG g ON t.gigid = g.gigid " +
+        "    WHERE g.gigstatus = 'G'" +
+        "), " +
+        "venue_act_combinations AS (" +
+        "    SELECT v.venuename, a.actname, a.standardfee, v.hirecost " +
+        "    FROM VENUE v " +
+        "    CROSS JOIN ACT a" +
+        "), " +
+        "total_costs AS (" +
+        "    SELECT " +
+        "        vac.venuename, " +
+        "        vac.actname, " +
+        "        vac.standardfee + vac.hirecost as total_cost, " +
+        "        atp.avg_price " +
+        "    FROM venue_act_combinations vac " +
+        "    CROSS JOIN average_ticket_price atp" +
+        "), " +
+        "tickets_required AS (" +
+        "    SELECT " +
+        "        venuename, " +
+        "        actname, " +
+        "        CASE " +
+        "            WHEN avg_price > 0 THEN CEIL(total_cost::NUMERIC / avg_price)::INTEGER " +
+        "            ELSE NULL " +
+        "        END as tickets_needed, " +
+        "        total_cost, " +
+        "        avg_price " +
+        "    FROM total_costs" +
+        ") " +
+        "SELECT " +
+        "    venuename, " +
+        "    actname, " +
+        "    tickets_needed as tickets_required " +
+        "FROM tickets_required " +
+        "WHERE tickets_needed IS NOT NULL " +
+        "  AND avg_price * tickets_needed >= total_cost " +
+        "ORDER BY venuename ASC, tickets_needed DESC";
+
+    private static ColumnarResult computeTask8(Connection conn){
         try {
-            // SQL query to find economically feasible venue-act combinations
-            // Uses CTEs to:
-            // 1. Calculate average ticket price from all non-cancelled gigs
-            // 2. Generate all venue-act combinations
-            // 3. Calculate total costs and tickets required
-            // 4. Filter economically feasible combinations
-            String sql = 
-                "WITH average_ticket_price AS (" +
-                "    SELECT ROUND(AVG(t.cost))::INTEGER as avg_price " +
-                "    FROM TICKET t " +
-                "    JOIN GIG g ON t.gigid = g.gigid " +
-                "    WHERE g.gigstatus = 'G'" +
-                "), " +
-                "venue_act_combinations AS (" +
-                "    SELECT v.venuename, a.actname, a.standardfee, v.hirecost " +
-                "    FROM VENUE v " +
-                "    CROSS JOIN ACT a" +
-                "), " +
-                "total_costs AS (" +
-                "    SELECT " +
-                "        vac.venuename, " +
-                "        vac.actname, " +
-                "        vac.standardfee + vac.hirecost as total_cost, " +
-                "        atp.avg_price " +
-                "    FROM venue_act_combinations vac " +
-                "    CROSS JOIN average_ticket_price atp" +
-                "), " +
-                "tickets_required AS (" +
-                "    SELECT " +
-                "        venuename, " +
-                "        actname, " +
-                "        CASE " +
-                "            WHEN avg_price > 0 THEN CEIL(total_cost::NUMERIC / avg_price)::INTEGER " +
-                "            ELSE NULL " +
-                "        END as tickets_needed, " +
-                "        total_cost, " +
-                "        avg_price " +
-                "    FROM total_costs" +
-                ") " +
-                "SELECT " +
-                "    venuename, " +
-                "    actname, " +
-                "    tickets_needed::TEXT as tickets_required " +
-                "FROM tickets_required " +
-                "WHERE tickets_needed IS NOT NULL " +
-                "  AND avg_price * tickets_needed >= total_cost " +
-                "ORDER BY venuename ASC, tickets_needed DESC";
+            String sql = TASK8_SQL;
             
-            try (PreparedStatement stmt = conn.prepareStatement(sql);
+            try (PreparedStatement stmt = prepare(conn, sql);
                  ResultSet rs = stmt.executeQuery()) {
                 
-                // Collect results in a list
-                List<String[]> results = new ArrayList<>();
+                // Every venue appears once per act, so both name columns are dictionary-encoded
+                ColumnarResult.Builder result = new ColumnarResult.Builder(64, "venuename", "actname", "tickets_required")
+                    .dictColumn(0)
+                    .dictColumn(1);
                 while (rs.next()) {
-                    String[] row = new String[3];
-                    row[0] = rs.getString("venuename");
-                    row[1] = rs.getString("actname");
-                    row[2] = rs.getString("tickets_required");
-                    results.add(row);
-                }
-                
-                // Convert to 2D array
-                if (results.isEmpty()) {
-                    return new String[0][3];
-                }
-                
-                String[][] result = new String[results.size()][3];
-                for (int i = 0; i < results.size(); i++) {
-                    result[i] = results.get(i);
+                    result.setString(0, rs.getString("venuename"));
+                    result.setString(1, rs.getString("actname"));
+                    result.setInt(2, rs.getInt("tickets_required"));
+                    result.endRow();
                 }
-                return result;
+                return result.build();
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -1363,6 +2042,26 @@ public class GigSystem {
         return getPortConnection();
     }
 
+    /**
+     * Gets a read-only connection to a streaming replica, configured by the CWK_REPLICA_URL environment variable
+     * (e.g. jdbc:postgresql://127.0.0.1:5433/cwk?user=postgres&password=password)
+     * @return A read-only JDBC Connection, or null if no replica is configured or it cannot be reached
+     */
+    public static Connection getReplicaConnection() {
+        String url = System.getenv("CWK_REPLICA_URL");
+        if (url == null || url.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            Connection conn = DriverManager.getConnection(url);
+            conn.setReadOnly(true);
+            return conn;
+        } catch (SQLException e) {
+            System.err.format("Replica connection failed, reading from the primary instead\nSQL State: %s\n%s\n", e.getSQLState(), e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Iterates through a ResultSet and converts to a 2D Array of Strings
      * @param rs JDBC ResultSet
@@ -0,0 +1,171 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous facade over GigSystem. Every task runs on a bounded executor with a connection from a
+ * pool, and returns a CompletableFuture instead of blocking the caller.
+ *
+ * - Results are the same as the synchronous tasks (including null when a task fails).
+ * - Cancelling a returned future cancels the statement that is running (Statement.cancel), and
+ *   any statement the task would run afterwards fails, so the task rolls back.
+ * - withTimeout(seconds) returns a view whose calls apply Statement.setQueryTimeout to every statement.
+ * - When the executor queue is full, the future completes exceptionally with RejectedExecutionException.
+ */
+public class GigSystemAsync implements AutoCloseable {
+
+    private final ConnectionPool pool;
+    private final ExecutorService executor;
+    private final int timeoutSeconds;
+    private final boolean ownsResources;
+
+    /**
+     * Opens a pool of `threads` connections with GigSystem.getConnection() and one worker thread per connection
+     * @param queueCapacity Calls that can wait for a worker before new calls are rejected
+     */
+    public GigSystemAsync(int threads, int queueCapacity) throws SQLException {
+        this(new ConnectionPool(threads, GigSystem::getConnection), queueCapacity);
+    }
+
+    public GigSystemAsync(ConnectionPool pool, int queueCapacity) {
+        this(pool, newExecutor(pool.size(), queueCapacity), 0, true);
+    }
+
+    private GigSystemAsync(ConnectionPool pool, ExecutorService executor, int timeoutSeconds, boolean ownsResources) {
+        this.pool = pool;
+        this.executor = executor;
+        this.timeoutSeconds = timeoutSeconds;
+        this.ownsResources = ownsResources;
+    }
+
+    // One worker per pooled connection, so a worker never waits for a connection
+    private static ExecutorService newExecutor(int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            r -> {
+                Thread t = new Thread(r, "gigsystem-async-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @return a view of this facade that applies a query timeout to every statement of every call
+     */
+    public GigSystemAsync withTimeout(int seconds) {
+        return new GigSystemAsync(pool, executor, seconds, false);
+    }
+
+    @FunctionalInterface
+    private interface Call<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    private <T> CompletableFuture<T> submit(Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        QueryContext context = new QueryContext(timeoutSeconds);
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                context.cancel();
+            }
+        });
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) {
+                    return; // Cancelled while queued
+                }
+                Connection conn = null;
+                try {
+                    conn = pool.borrow(0);
+                    context.open();
+                    future.complete(call.run(conn));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    context.close();
+                    if (conn != null) {
+                        pool.release(conn);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public CompletableFuture<String[][]> task1(int gigID) {
+        return submit(conn -> GigSystem.task1(conn, gigID));
+    }
+
+    public CompletableFuture<Void> task2(String venue, String gigTitle, LocalDateTime gigStart, int adultTicketPrice, ActPerformanceDetails[] actDetails) {
+        return submit(conn -> {
+            GigSystem.task2(conn, venue, gigTitle, gigStart, adultTicketPrice, actDetails);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> task3(int gigid, String name, String email, String ticketType) {
+        return submit(conn -> {
+            GigSystem.task3(conn, gigid, name, email, ticketType);
+            return null;
+        });
+    }
+
+    public CompletableFuture<String[][]> task4(int gigID, String actName) {
+        return submit(conn -> GigSystem.task4(conn, gigID, actName));
+    }
+
+    public CompletableFuture<String[][]> task5() {
+        return submit(GigSystem::task5);
+    }
+
+    public CompletableFuture<String[][]> task6() {
+        return submit(GigSystem::task6);
+    }
+
+    public CompletableFuture<String[][]> task7() {
+        return submit(GigSystem::task7);
+    }
+
+    public CompletableFuture<String[][]> task8() {
+        return submit(GigSystem::task8);
+    }
+
+    /**
+     * Fetches the lineups of many gigs with the batched task1, in one query on one pooled connection
+     * @return gigID to lineup, in the order the ids were given (null on error, as GigSystem.task1(conn, gigIDs))
+     */
+    public CompletableFuture<Map<Integer, String[][]>> task1All(int[] gigIDs) {
+        return submit(conn -> GigSystem.task1(conn, gigIDs));
+    }
+
+    /**
+     * Stops accepting calls, waits for running ones, and closes the pool. A view created by withTimeout()
+     * does not own the executor or pool, so closing it does nothing.
+     */
+    @Override
+    public void close() {
+        if (!ownsResources) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.close();
+    }
+}
@@ -9,11 +9,16 @@ import java.util.Random;
 import java.util.GregorianCalendar;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.HashSet;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import java.time.LocalDateTime;
 public class GigTester {
     public static void main(String[] args) throws SQLException{
@@ -35,7 +40,7 @@ public class GigTester {
             }
             if(args[0].equals("test")){
                 String warning = "WARNING: These tests have NOT been fully implemented, it is up to you to read them and check the logic\n"
-                + "WARNING: Please note that tests 1,5,6 are based on testbig.sql, tests 7 and 8 are based on testsmall.sql";
+                + "WARNING: Please note that tests 1,5,6 are based on testbig.sql, tests 7, 8 and 10 onwards are based on testsmall.sql";
                 System.out.println(warning);
                 System.err.println(warning);
                 if(args.length > 1){
@@ -43,9 +48,11 @@ public class GigTester {
                     switch(test){
                         case 1:
                             System.out.println("Test 1 status: " + testTask1());
+                            System.out.println("Test 1 (batch) status: " + testTask1Batch());
                             break;
                         case 2:
                             System.out.println("Test 2 status: " + testTask2());
+                            System.out.println("Test 2 (concurrent) status: " + testTask2Concurrent());
                             break;
                         case 3:
                             System.out.println("Test 3 (valid) status: " + testTask3());
@@ -66,6 +73,36 @@ public class GigTester {
                         case 8:
                             System.out.println("Test 8 status: " + testTask8());
                             break;
+                        case 9:
+                            System.out.println("Test 9 (router) status: " + testConnectionRouter());
+                            break;
+                        case 10:
+                            System.out.println("Test 10 (gig metadata cache) status: " + testGigMetadataCache());
+                            break;
+                        case 11:
+                            System.out.println("Test 11 (sold out registry) status: " + testSoldOutRegistry());
+                            break;
+                        case 12:
+                            System.out.println("Test 12 (sales journal) status: " + testSalesJournal());
+                            break;
+                        case 13:
+                            System.out.println("Test 13 (tour cancellation) status: " + testTourCancellation());
+                            break;
+                        case 14:
+                            System.out.println("Test 14 (refund ledger) status: " + testRefundLedger());
+                            break;
+                        case 15:
+                            System.out.println("Test 15 (season archive) status: " + testSeasonArchive());
+                            break;
+                        case 16:
+                            System.out.println("Test 16 (slow statement log) status: " + testSlowStatementLog());
+                            break;
+                        case 17:
+                            System.out.println("Test 17 (task result cache) status: " + testTaskResultCache());
+                            break;
+                        case 18:
+                            System.out.println("Test 18 (purchase coordinator) status: " + testPurchaseCoordinator());
+                            break;
                     }
                 }
             }
@@ -97,6 +134,35 @@ public class GigTester {
         return true;
     }
     
+    // The multi-gig task1 must return, for each gig, exactly what task1 returns for it alone
+    public static boolean testTask1Batch(){
+        Connection conn = GigSystem.getConnection();
+        int[] gigIDs = {11, 1, 11, 99999};
+        Map<Integer, String[][]> out = GigSystem.task1(conn, gigIDs);
+        try {
+            if(out == null || out.size() != 3){
+                throw new TestFailedException("Gigs " + (out == null ? "null" : out.size()), "Gigs 3");
+            }
+            for(int gigID : gigIDs){
+                String[][] single = GigSystem.task1(conn, gigID);
+                String[][] batch = out.get(gigID);
+                if(batch.length != single.length){
+                    throw new TestFailedException("Gig " + gigID + " length " + batch.length, "Length " + single.length);
+                }
+                for(int i = 0; i < single.length; i++){
+                    for(int j = 0; j < 3; j++){
+                        checkValues(batch[i][j], single[i][j]);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        return true;
+    }
+    
     public static boolean testTask2(){
         Connection conn = GigSystem.getConnection();
         if (conn == null) {
@@ -290,6 +356,88 @@ public class GigTester {
         }
     }
     
+    // Several connections create the same gig (same venue, day and acts) at once.
+    // The venue-day and act locks should let exactly one of them commit.
+    public static boolean testTask2Concurrent(){
+        int attempts = 8;
+        String title = "The Concurrent Party";
+        LocalDateTime start = LocalDateTime.of(2021,java.time.Month.NOVEMBER,16,20,00);
+        ActPerformanceDetails[] apd = new ActPerformanceDetails[2];
+        apd[0] = new ActPerformanceDetails(3, 20000, start, 30);
+        apd[1] = new ActPerformanceDetails(4, 30000, start.plusMinutes(40), 40);
+
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < attempts; i++) {
+            Connection conn = GigSystem.getConnection();
+            if (conn == null) {
+                System.err.println("Failed to get database connection");
+                return false;
+            }
+            connections.add(conn);
+        }
+
+        java.util.concurrent.CountDownLatch ready = new java.util.concurrent.CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (Connection conn : connections) {
+            Thread t = new Thread(() -> {
+                try {
+                    ready.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // task2 sorts the array it is given, so each call gets its own copy
+                GigSystem.task2(conn, venues[3], title, start, 40, apd.clone());
+            });
+            threads.add(t);
+            t.start();
+        }
+        ready.countDown();
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+            Connection conn = connections.get(0);
+            String sql = "SELECT COUNT(*) as count FROM GIG WHERE gigtitle = ?";
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, title);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    int created = rs.next() ? rs.getInt("count") : 0;
+                    if (created != 1) {
+                        System.err.println("Test failed: " + created + " of " + attempts + " concurrent task2 calls created the gig (expected 1)");
+                        return false;
+                    }
+                }
+            }
+            System.out.println("Test passed: exactly one of " + attempts + " concurrent task2 calls created the gig");
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            // Clean up: delete the created gig with its performances and prices
+            String[] deleteSqls = {
+                "DELETE FROM ACT_GIG WHERE gigid IN (SELECT gigid FROM GIG WHERE gigtitle = ?)",
+                "DELETE FROM GIG_TICKET WHERE gigid IN (SELECT gigid FROM GIG WHERE gigtitle = ?)",
+                "DELETE FROM GIG WHERE gigtitle = ?"
+            };
+            for (String deleteSql : deleteSqls) {
+                try (PreparedStatement stmt = connections.get(0).prepareStatement(deleteSql)) {
+                    stmt.setString(1, title);
+                    stmt.executeUpdate();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (Connection conn : connections) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
     // Helper method to get maximum gigid
     private static int getMaxGigId(Connection conn) {
         try {
@@ -373,6 +521,709 @@ public class GigTester {
         }
     }
 
+    // Based on testbig.sql. Set CWK_REPLICA_URL to exercise a streaming replica (see doc/setup_testing.md)
+    public static boolean testConnectionRouter(){
+        long readYourWritesMillis = 2000;
+        try {
+            ConnectionRouter router = ConnectionRouter.fromEnvironment(readYourWritesMillis);
+            ConnectionRouter.Session session = router.newSession();
+            Connection primary = router.primary();
+
+            if (!router.hasReplica()) {
+                System.out.println("No replica configured (CWK_REPLICA_URL), reads should use the primary");
+                if (session.forRead() != primary) {
+                    System.err.println("Test failed: read was not routed to the primary");
+                    return false;
+                }
+                return session.task1(24) != null;
+            }
+
+            Connection replica = session.forRead();
+            if (replica == primary || !replica.isReadOnly()) {
+                System.err.println("Test failed: read was not routed to a read-only replica");
+                return false;
+            }
+            try (PreparedStatement stmt = replica.prepareStatement("SELECT pg_is_in_recovery()");
+                 ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next() || !rs.getBoolean(1)) {
+                    System.err.println("Test failed: CWK_REPLICA_URL does not point at a standby");
+                    return false;
+                }
+            }
+
+            String email = "rrouter@testemail";
+            session.task3(24, "R Router", email, "A");
+            if (session.forRead() != primary) {
+                System.err.println("Test failed: read straight after a write should go to the primary");
+                return false;
+            }
+            if (countTickets(session.forRead(), email) != 1) {
+                System.err.println("Test failed: session did not read its own write");
+                return false;
+            }
+
+            // After the window, reads go back to the replica, which should have replayed the ticket
+            Thread.sleep(readYourWritesMillis + 100);
+            if (session.forRead() != replica) {
+                System.err.println("Test failed: read after the window should go back to the replica");
+                return false;
+            }
+            boolean replicated = false;
+            for (int i = 0; i < 50 && !replicated; i++) {
+                replicated = countTickets(replica, email) == 1;
+                if (!replicated) {
+                    Thread.sleep(100);
+                }
+            }
+
+            // Clean up on the primary
+            try (PreparedStatement stmt = primary.prepareStatement("DELETE FROM TICKET WHERE customeremail = ?")) {
+                stmt.setString(1, email);
+                stmt.executeUpdate();
+            }
+
+            if (!replicated) {
+                System.err.println("Test failed: ticket never reached the replica");
+                return false;
+            }
+            System.out.println("Test passed: reads routed to the replica, writes and read-your-writes to the primary");
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static int countTickets(Connection conn, String email) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM TICKET WHERE customeremail = ?")) {
+            stmt.setString(1, email);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // Based on testsmall.sql. task4 must drop the cancelled gig from GigMetadataCache once it commits,
+    // so task3 stops selling it
+    public static boolean testGigMetadataCache(){
+        Connection conn = GigSystem.getConnection();
+        if (conn == null) {
+            System.err.println("Failed to get database connection");
+            return false;
+        }
+        
+        int gigid = 4;
+        String actName = "Scalar Swift";
+        String[] names = {"G Jones", "J Smith"};
+        String[] emails = {"gjones@example.com", "jsmith@example.com"};
+        
+        try {
+            GigMetadataCache.GigMetadata before = GigMetadataCache.get(conn, gigid);
+            if (before == null || !before.isActive()) {
+                throw new TestFailedException("Gig " + gigid + " cached as " + (before == null ? "missing" : "cancelled"), "active");
+            }
+            checkValues(String.valueOf(before.price('A')), "40");
+            
+            // Scalar Swift is the only act, so task4 cancels the whole gig
+            String[][] out = GigSystem.task4(conn, gigid, actName);
+            if (out == null || out.length != names.length) {
+                throw new TestFailedException("Length " + (out == null ? "null" : out.length), "Length " + names.length);
+            }
+            for (int i = 0; i < names.length; i++) {
+                checkValues(out[i][0], names[i]);
+                checkValues(out[i][1], emails[i]);
+            }
+            
+            GigMetadataCache.GigMetadata after = GigMetadataCache.get(conn, gigid);
+            if (after == null || after.isActive()) {
+                throw new TestFailedException("Gig " + gigid + " cached as active", "cancelled");
+            }
+            GigSystem.task3(conn, gigid, "M Cache", "mcache@testemail", "A");
+            checkValues(String.valueOf(countTickets(conn, "mcache@testemail")), "0");
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            // Clean up: restore gig 4 and its ticket costs (all 40 in testsmall.sql)
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement("UPDATE GIG SET gigstatus = 'G' WHERE gigid = ?")) {
+                    stmt.setInt(1, gigid);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("UPDATE TICKET SET cost = 40 WHERE gigid = ?")) {
+                    stmt.setInt(1, gigid);
+                    stmt.executeUpdate();
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            GigMetadataCache.invalidate(gigid);
+            SoldOutRegistry.reopen(gigid);
+        }
+        
+        return true;
+    }
+
+    // Based on testsmall.sql. Gig 4 (Village Hall, capacity 80) has 3 tickets. Once it is full, the capacity
+    // error marks it sold out and task3 rejects it without a transaction, until it is reopened
+    public static boolean testSoldOutRegistry(){
+        Connection conn = GigSystem.getConnection();
+        if (conn == null) {
+            System.err.println("Failed to get database connection");
+            return false;
+        }
+        
+        int gigid = 4;
+        String email = "soldout@testemail";
+        
+        try {
+            for (int i = 0; i < 77; i++) {
+                GigSystem.task3(conn, gigid, "S Oldout", email, "A");
+            }
+            checkValues(String.valueOf(countTickets(conn, email)), "77");
+            checkValues(String.valueOf(SoldOutRegistry.isSoldOut(gigid)), "false");
+            
+            // The 81st ticket fails on capacity, which marks the gig
+            GigSystem.task3(conn, gigid, "S Oldout", email, "A");
+            checkValues(String.valueOf(countTickets(conn, email)), "77");
+            checkValues(String.valueOf(SoldOutRegistry.isSoldOut(gigid)), "true");
+            
+            long fastRejections = SoldOutRegistry.fastRejections();
+            GigSystem.task3(conn, gigid, "S Oldout", email, "A");
+            checkValues(String.valueOf(SoldOutRegistry.fastRejections()), String.valueOf(fastRejections + 1));
+            
+            // Free a seat outside GigSystem, then reopen the gig so task3 tries the database again
+            try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM TICKET WHERE ticketid = (SELECT MAX(ticketid) FROM TICKET WHERE customeremail = ?)")) {
+                stmt.setString(1, email);
+                stmt.executeUpdate();
+            }
+            SoldOutRegistry.reopen(gigid);
+            GigSystem.task3(conn, gigid, "S Oldout", email, "A");
+            checkValues(String.valueOf(countTickets(conn, email)), "77");
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            // Clean up: remove the test tickets
+            try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM TICKET WHERE customeremail = ?")) {
+                stmt.setString(1, email);
+                stmt.executeUpdate();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            SoldOutRegistry.reopen(gigid);
+        }
+        
+        return true;
+    }
+
+    private static int countSeatedTickets(Connection conn, int gigid) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM SEAT WHERE gigid = ? AND ticketid IS NOT NULL")) {
+            stmt.setInt(1, gigid);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // Based on testsmall.sql. Reopening a journal replays the records after the checkpoint into TICKET, and
+    // only those. Gig 3 is given seats first, so every flushed ticket must also claim one
+    public static boolean testSalesJournal(){
+        Connection conn = GigSystem.getConnection();
+        Connection flushConn = GigSystem.getConnection();
+        if (conn == null || flushConn == null) {
+            System.err.println("Failed to get database connection");
+            return false;
+        }
+        
+        int gigid = 3;
+        String journalName = "gigtester";
+        String[] emails = {"flushed@testemail", "replayed@testemail"};
+        Path file = null;
+        
+        try {
+            // Gig 3's two tickets take seats 1 and 2
+            checkValues(String.valueOf(SeatInventory.createSeats(conn, gigid)), "2000");
+            checkValues(String.valueOf(countSeatedTickets(conn, gigid)), "2");
+            
+            // Flush interval of an hour, so nothing reaches TICKET unless the test flushes it
+            file = Files.createTempFile("gigtester", ".journal");
+            SalesJournal first = SalesJournal.open(journalName, file, 1 << 20, flushConn, 3600000);
+            checkValues(String.valueOf(first.purchase(conn, gigid, "F Lushed", emails[0], "A")), "true");
+            first.flushNow();
+            checkValues(String.valueOf(first.purchase(conn, gigid, "R Eplayed", emails[1], "A")), "true");
+            checkValues(String.valueOf(countTickets(conn, emails[0])), "1");
+            checkValues(String.valueOf(countTickets(conn, emails[1])), "0");
+            checkValues(String.valueOf(countSeatedTickets(conn, gigid)), "3");
+            
+            // The first journal is abandoned unclosed, as if the process had died, and the file is opened again
+            SalesJournal second = SalesJournal.open(journalName, file, 1 << 20, flushConn, 3600000);
+            second.close();
+            checkValues(String.valueOf(countTickets(conn, emails[0])), "1");
+            checkValues(String.valueOf(countTickets(conn, emails[1])), "1");
+            checkValues(String.valueOf(countSeatedTickets(conn, gigid)), "4");
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            // Clean up: remove the journal's rows, its tickets and gig 3's seats
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM SALES_JOURNAL_CHECKPOINT WHERE journalname = ?")) {
+                    stmt.setString(1, journalName);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM SALES_JOURNAL_REJECT WHERE journalname = ?")) {
+                    stmt.setString(1, journalName);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM TICKET WHERE customeremail IN (?, ?)")) {
+                    stmt.setString(1, emails[0]);
+                    stmt.setString(2, emails[1]);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM SEAT WHERE gigid = ?")) {
+                    stmt.setInt(1, gigid);
+                    stmt.executeUpdate();
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            try {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+                flushConn.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        
+        return true;
+    }
+
+    // Based on testsmall.sql. Join Division headlines gigs 1 and 2, so cancelActEverywhere cancels both, and
+    // lists each of their customers once
+    public static boolean testTourCancellation(){
+        Connection conn = GigSystem.getConnection();
+        if (conn == null) {
+            System.err.println("Failed to get database connection");
+            return false;
+        }
+        
+        int[] gigids = {1, 2};
+        String[] names = {"G Jones", "N McConnell"};
+        String[] emails = {"gjones@example.com", "nmcconnell@example.com"};
+        
+        try {
+            TourCancellation out = GigSystem.cancelActEverywhere(conn, "Join Division", LocalDateTime.of(2018,1,1,0,0));
+            if (out == null) {
+                throw new TestFailedException("null", "TourCancellation");
+            }
+            checkValues(String.valueOf(out.outcomes().size()), String.valueOf(gigids.length));
+            for (int i = 0; i < gigids.length; i++) {
+                checkValues(String.valueOf(out.outcomes().get(i).gigId()), String.valueOf(gigids[i]));
+                checkValues(String.valueOf(out.outcomes().get(i).gigCancelled()), "true");
+            }
+            checkValues(String.valueOf(out.cancelledGigs()), "2");
+            
+            String[][] customers = out.affectedCustomers();
+            if (customers.length != names.length) {
+                throw new TestFailedException("Length " + customers.length, "Length " + names.length);
+            }
+            for (int i = 0; i < names.length; i++) {
+                checkValues(customers[i][0], names[i]);
+                checkValues(customers[i][1], emails[i]);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            // Clean up: restore gigs 1 and 2 and their ticket costs (all 40 in testsmall.sql)
+            for (int gigid : gigids) {
+                try {
+                    try (PreparedStatement stmt = conn.prepareStatement("UPDATE GIG SET gigstatus = 'G' WHERE gigid = ?")) {
+                        stmt.setInt(1, gigid);
+                        stmt.executeUpdate();
+                    }
+                    try (PreparedStatement stmt = conn.prepareStatement("UPDATE TICKET SET cost = 40 WHERE gigid = ?")) {
+                        stmt.setInt(1, gigid);
+                        stmt.executeUpdate();
+                    }
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+                GigMetadataCache.invalidate(gigid);
+                SoldOutRegistry.reopen(gigid);
+            }
+        }
+        
+        return true;
+    }
+
+    private static int sumCost(Connection conn, String table, int gigid) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COALESCE(SUM(cost), 0) FROM " + table + " WHERE gigid = ?")) {
+            stmt.setInt(1, gigid);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static String[][] sortedRows(String[][] rows) {
+        String[][] sorted = rows.clone();
+        Arrays.sort(sorted, (a, b) -> Arrays.toString(a).compareTo(Arrays.toString(b)));
+        return sorted;
+    }
+
+    // Puts gig 4 back as testsmall.sql has it: active, not in GIG_REFUND, every ticket costing 40
+    private static void restoreGig4(Connection conn) throws SQLException {
+        String[] restoreSqls = {
+            "DELETE FROM GIG_REFUND WHERE gigid = 4",
+            "UPDATE GIG SET gigstatus = 'G' WHERE gigid = 4",
+            "UPDATE TICKET SET cost = 40 WHERE gigid = 4"
+        };
+        for (String restoreSql : restoreSqls) {
+            try (PreparedStatement stmt = conn.prepareStatement(restoreSql)) {
+                stmt.executeUpdate();
+            }
+        }
+        GigMetadataCache.invalidate(4);
+        SoldOutRegistry.reopen(4);
+    }
+
+    // Based on testsmall.sql. Cancelling gig 4 with the refund ledger leaves TICKET.cost alone, but task5 and
+    // task8 must give the same results as a cancellation that sets cost = 0
+    public static boolean testRefundLedger(){
+        Connection conn = GigSystem.getConnection();
+        if (conn == null) {
+            System.err.println("Failed to get database connection");
+            return false;
+        }
+        
+        int gigid = 4;
+        String[] task5Gigs = {"1","2","3","4","5"};
+        String[] task5Tickets = {"1249","1648","1048","800","0"};
+        
+        try {
+            RefundLedger.enable();
+            GigSystem.task4(conn, gigid, "Scalar Swift");
+            checkValues(String.valueOf(sumCost(conn, "TICKET", gigid)), "120");
+            checkValues(String.valueOf(sumCost(conn, "TICKET_EFFECTIVE", gigid)), "0");
+            String[][] ledgerTask5 = GigSystem.task5(conn);
+            String[][] ledgerTask8 = GigSystem.task8(conn);
+            if (ledgerTask5.length != task5Gigs.length) {
+                throw new TestFailedException("Length " + ledgerTask5.length, "Length " + task5Gigs.length);
+            }
+            for (int i = 0; i < task5Gigs.length; i++) {
+                checkValues(ledgerTask5[i][0], task5Gigs[i]);
+                checkValues(ledgerTask5[i][1], task5Tickets[i]);
+            }
+            
+            // The same cancellation again, refunded with cost = 0
+            restoreGig4(conn);
+            RefundLedger.disable();
+            GigSystem.task4(conn, gigid, "Scalar Swift");
+            checkValues(String.valueOf(sumCost(conn, "TICKET", gigid)), "0");
+            if (!Arrays.deepEquals(ledgerTask5, GigSystem.task5(conn))) {
+                throw new TestFailedException("task5 " + Arrays.deepToString(GigSystem.task5(conn)), "task5 " + Arrays.deepToString(ledgerTask5));
+            }
+            if (!Arrays.deepEquals(sortedRows(ledgerTask8), sortedRows(GigSystem.task8(conn)))) {
+                throw new TestFailedException("task8 " + Arrays.deepToString(GigSystem.task8(conn)), "task8 " + Arrays.deepToString(ledgerTask8));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            RefundLedger.disable();
+            try {
+                restoreGig4(conn);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        return true;
+    }
+
+    // Based on testsmall.sql. Archiving the seasons before 2018 moves gig 3 (2017, two tickets) out of the
+    // database, and task6 and task7 must give the same results from the archive plus the live tickets.
+    // J Smith is a Scalar Swift regular with one archived and one live ticket
+    public static boolean testSeasonArchive(){
+        Connection conn = GigSystem.getConnection();
+        if (conn == null) {
+            System.err.println("Failed to get database connection");
+            return false;
+        }
+        
+        String[][] task6 = {
+            {"Join Division","2018","1"},
+            {"Join Division","2019","2"},
+            {"Join Division","Total","3"},
+            {"Scalar Swift","2017","2"},
+            {"Scalar Swift","2020","3"},
+            {"Scalar Swift","Total","5"}
+        };
+        String[] task7Acts = {"Join Division","QLS","Scalar Swift","Scalar Swift"};
+        String[] task7Customers = {"G Jones","[None]","G Jones","J Smith"};
+        Path file = null;
+        
+        try {
+            checkTask6(GigSystem.task6(conn), task6);
+            checkTask7(GigSystem.task7(conn), task7Acts, task7Customers);
+            
+            file = Files.createTempFile("gigtester", ".archive");
+            SeasonArchive.enable(conn, file);
+            checkValues(String.valueOf(SeasonArchive.archive(conn, LocalDateTime.of(2018,1,1,0,0))), "1");
+            checkValues(String.valueOf(SeasonArchive.archivedTickets()), "2");
+            checkValues(String.valueOf(countTickets(conn, "jsmith@example.com")), "1");
+            
+            checkTask6(GigSystem.task6(conn), task6);
+            checkTask7(GigSystem.task7(conn), task7Acts, task7Customers);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            SeasonArchive.disable();
+            try {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            // Clean up: put gig 3 back as testsmall.sql has it (a no-op if it was never archived)
+            String[] restoreSqls = {
+                "INSERT INTO GIG (gigid, venueid, gigtitle, gigdatetime, gigstatus) VALUES (3, 7, 'Test title', '2017-09-07 19:00:00', 'G') ON CONFLICT DO NOTHING",
+                "INSERT INTO ACT_GIG (actid, gigid, actgigfee, ontime, duration) SELECT 5, 3, 22000, '2017-09-07 19:00:00', 25 WHERE NOT EXISTS (SELECT 1 FROM ACT_GIG WHERE gigid = 3)",
+                "INSERT INTO ACT_GIG (actid, gigid, actgigfee, ontime, duration) SELECT 5, 3, 22000, '2017-09-07 19:35:00', 40 WHERE (SELECT COUNT(*) FROM ACT_GIG WHERE gigid = 3) = 1",
+                "INSERT INTO GIG_TICKET (gigid, pricetype, price) VALUES (3, 'A', 40) ON CONFLICT DO NOTHING",
+                "INSERT INTO TICKET (ticketid, gigid, customername, customeremail, pricetype, cost, customerid) " +
+                "SELECT 2, 3, 'J Smith', 'jsmith@example.com', 'A', 40, (SELECT customerid FROM CUSTOMER WHERE customeremail = 'jsmith@example.com') " +
+                "WHERE NOT EXISTS (SELECT 1 FROM TICKET WHERE ticketid = 2)",
+                "INSERT INTO TICKET (ticketid, gigid, customername, customeremail, pricetype, cost, customerid) " +
+                "SELECT 3, 3, 'G Jones', 'gjones@example.com', 'A', 40, (SELECT customerid FROM CUSTOMER WHERE customeremail = 'gjones@example.com') " +
+                "WHERE NOT EXISTS (SELECT 1 FROM TICKET WHERE ticketid = 3)"
+            };
+            for (String restoreSql : restoreSqls) {
+                try (PreparedStatement stmt = conn.prepareStatement(restoreSql)) {
+                    stmt.executeUpdate();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            GigMetadataCache.invalidate(3);
+        }
+        
+        return true;
+    }
+
+    private static void checkTask6(String[][] out, String[][] expected) throws TestFailedException{
+        if(out.length != expected.length){
+            throw new TestFailedException("Length " + out.length,"Length " + expected.length);
+        }
+        for(int i = 0; i < expected.length; i++){
+            for(int j = 0; j < expected[i].length; j++){
+                checkValues(out[i][j],expected[i][j]);
+            }
+        }
+    }
+
+    // Based on testsmall.sql. With a threshold of 0 every execute is logged, with the calling task, its bind
+    // values and the rows read: task1 for gig 1 reads its 3 performances
+    public static boolean testSlowStatementLog(){
+        Connection conn = GigSystem.getConnection();
+        if (conn == null) {
+            System.err.println("Failed to get database connection");
+            return false;
+        }
+        
+        String[] gigacts = {"Scalar Swift", "The Where", "Join Division"};
+        String[] ontime = {"19:00", "20:15", "20:45"};
+        String[] offtime = {"20:00", "20:35", "22:05"};
+        List<SlowStatementLog.Entry> entries = Collections.synchronizedList(new ArrayList<>());
+        
+        try {
+            SlowStatementLog.enable(0, entries::add);
+            String[][] out = GigSystem.task1(conn, 1);
+            if (out.length != gigacts.length) {
+                throw new TestFailedException("Length " + out.length, "Length " + gigacts.length);
+            }
+            for (int i = 0; i < gigacts.length; i++) {
+                checkValues(out[i][0], gigacts[i]);
+                checkValues(out[i][1], ontime[i]);
+                checkValues(out[i][2], offtime[i]);
+            }
+            
+            // Entries reach the sink on the log's own thread; disable() hands over the ones still queued
+            SlowStatementLog.disable();
+            SlowStatementLog.Entry found = null;
+            for (int i = 0; i < 50 && found == null; i++) {
+                synchronized (entries) {
+                    for (SlowStatementLog.Entry entry : entries) {
+                        if (entry.task().equals("task1") && entry.sql().contains("ACT_GIG")) {
+                            found = entry;
+                        }
+                    }
+                }
+                if (found == null) {
+                    Thread.sleep(100);
+                }
+            }
+            if (found == null) {
+                throw new TestFailedException("No task1 entry in " + entries, "A task1 entry reading ACT_GIG");
+            }
+            checkValues(found.params(), "[1]");
+            checkValues(String.valueOf(found.rows()), "3");
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            SlowStatementLog.disable();
+        }
+        
+        return true;
+    }
+
+    // Based on testsmall.sql. A cached task7 result must be dropped once task3 sells a ticket and once task4
+    // cancels a gig
+    public static boolean testTaskResultCache(){
+        Connection conn = GigSystem.getConnection();
+        if (conn == null) {
+            System.err.println("Failed to get database connection");
+            return false;
+        }
+        
+        int gigid = 1;
+        String[][] acts = {
+            {"Join Division","QLS","Scalar Swift","Scalar Swift"},
+            {"Join Division","Join Division","QLS","Scalar Swift","Scalar Swift"},
+            {"Join Division","QLS","Scalar Swift","Scalar Swift"}
+        };
+        String[][] customers = {
+            {"G Jones","[None]","G Jones","J Smith"},
+            {"T Cache","G Jones","[None]","G Jones","J Smith"},
+            {"[None]","[None]","G Jones","J Smith"}
+        };
+        
+        try {
+            TaskResultCache.enable(16);
+            
+            checkTask7(GigSystem.task7(conn), acts[0], customers[0]);
+            long hits = TaskResultCache.hits();
+            checkTask7(GigSystem.task7(conn), acts[0], customers[0]);
+            checkValues(String.valueOf(TaskResultCache.hits()), String.valueOf(hits + 1));
+            
+            // Three tickets to gig 1 (headlined by Join Division) make T Cache its most regular customer
+            for (int i = 0; i < 3; i++) {
+                GigSystem.task3(conn, gigid, "T Cache", "tcache@testemail", "A");
+            }
+            checkTask7(GigSystem.task7(conn), acts[1], customers[1]);
+            
+            // Cancelling gig 1 leaves Join Division with only gig 2, where nobody has two tickets
+            GigSystem.task4(conn, gigid, "Join Division");
+            checkTask7(GigSystem.task7(conn), acts[2], customers[2]);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            // Clean up: remove the test tickets, then restore gig 1 and its ticket costs (all 40 in testsmall.sql)
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM TICKET WHERE customeremail = 'tcache@testemail'")) {
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("UPDATE GIG SET gigstatus = 'G' WHERE gigid = ?")) {
+                    stmt.setInt(1, gigid);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("UPDATE TICKET SET cost = 40 WHERE gigid = ?")) {
+                    stmt.setInt(1, gigid);
+                    stmt.executeUpdate();
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            GigMetadataCache.invalidate(gigid);
+            SoldOutRegistry.reopen(gigid);
+            TaskResultCache.disable();
+        }
+        
+        return true;
+    }
+
+    private static void checkTask7(String[][] out, String[] acts, String[] customers) throws TestFailedException{
+        if(out.length != acts.length){
+            throw new TestFailedException("Length " + out.length,"Length " + acts.length);
+        }
+        for(int i = 0; i < acts.length; i++){
+            checkValues(out[i][0],acts[i]);
+            checkValues(out[i][1],customers[i]);
+        }
+    }
+
+    // Based on testsmall.sql. One group of three purchases where the middle one breaks the price rule:
+    // only that purchase is rolled back (to its savepoint), and the other two commit with the group
+    public static boolean testPurchaseCoordinator(){
+        Connection conn = GigSystem.getConnection();
+        Connection coordinatorConn = GigSystem.getConnection();
+        if (conn == null || coordinatorConn == null) {
+            System.err.println("Failed to get database connection");
+            return false;
+        }
+        
+        int[] gigids = {1, 3, 4};
+        String[] names = {"P One", "P Three", "P Four"};
+        String[] emails = {"pone@testemail", "pthree@testemail", "pfour@testemail"};
+        String[] sold = {"true", "false", "true"};
+        String[] tickets = {"1", "0", "1"};
+        
+        try {
+            // Cache gig 3 at price 40, then change the price behind the cache's back, so the price
+            // trigger rejects gig 3's purchase inside the group
+            GigMetadataCache.get(conn, 3);
+            try (PreparedStatement stmt = conn.prepareStatement("UPDATE GIG_TICKET SET price = 45 WHERE gigid = 3 AND pricetype = 'A'")) {
+                stmt.executeUpdate();
+            }
+            
+            PurchaseCoordinator coordinator = new PurchaseCoordinator(coordinatorConn, gigids.length, 1000);
+            List<java.util.concurrent.CompletableFuture<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < gigids.length; i++) {
+                results.add(coordinator.purchase(gigids[i], names[i], emails[i], "A"));
+            }
+            coordinator.close();
+            
+            checkValues(String.valueOf(coordinator.batches()), "1");
+            for (int i = 0; i < gigids.length; i++) {
+                checkValues(String.valueOf(results.get(i).get(10, java.util.concurrent.TimeUnit.SECONDS)), sold[i]);
+                checkValues(String.valueOf(countTickets(conn, emails[i])), tickets[i]);
+            }
+            
+            // The rejection dropped gig 3's stale entry, so the next read sees the new price
+            checkValues(String.valueOf(GigMetadataCache.get(conn, 3).price('A')), "45");
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            // Clean up: remove the test tickets and restore gig 3's price
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM TICKET WHERE customeremail IN (?, ?, ?)")) {
+                    for (int i = 0; i < emails.length; i++) {
+                        stmt.setString(i + 1, emails[i]);
+                    }
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("UPDATE GIG_TICKET SET price = 40 WHERE gigid = 3 AND pricetype = 'A'")) {
+                    stmt.executeUpdate();
+                }
+                coordinatorConn.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            GigMetadataCache.invalidate(3);
+        }
+        
+        return true;
+    }
+
     public static boolean testTask3(){
         Connection conn = GigSystem.getConnection();
         if (conn == null) {
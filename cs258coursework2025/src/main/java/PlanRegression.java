@@ -0,0 +1,443 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query plan regression checks for the SQL the tasks and triggers run.
+ * Usage: ./run.sh plans <record|check> [ticket counts, default 10000,100000,1000000]
+ *
+ * Start from a freshly loaded database (./run.sh reset -f tests/testbig.sql). For each scale, in increasing
+ * order, TICKET is filled up to that many rows (spread over the active gigs, customers interned) and
+ * analysed. Each probe is then run with EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON).
+ * - record writes the plans to tests/plans/<scale>/<probe>.json as the baseline.
+ * - check compares each plan with its baseline and exits with status 1 if any probe regressed:
+ *   - the plan's nodes (type, index, relation) changed,
+ *   - its worst row estimate (estimated vs actual rows, as a factor, over all nodes) got more than
+ *     plans.estimateRatio (default 4) times worse, and is off by more than 10x,
+ *   - it read more than plans.bufferRatio (default 1.5) times the baseline's shared buffers, plus
+ *     plans.bufferSlack (default 100) blocks.
+ * Thresholds are system properties (-Dplans.bufferRatio=2). Times are printed but never fail a check.
+ *
+ * Trigger functions cannot be explained directly, so their statements are probed as standalone queries
+ * with the same predicates. Keep those probes in step with schema.sql.
+ */
+public class PlanRegression {
+
+    static final Path BASELINES = Paths.get("tests", "plans");
+
+    private static final double ESTIMATE_RATIO = Double.parseDouble(System.getProperty("plans.estimateRatio", "4"));
+    private static final double ESTIMATE_FLOOR = 10;
+    private static final double BUFFER_RATIO = Double.parseDouble(System.getProperty("plans.bufferRatio", "1.5"));
+    private static final long BUFFER_SLACK = Long.parseLong(System.getProperty("plans.bufferSlack", "100"));
+
+    /**
+     * One statement to explain, with its sample arguments
+     */
+    static final class Probe {
+        final String name;
+        final String sql;
+        final Object[] params;
+
+        Probe(String name, String sql, Object... params) {
+            this.name = name;
+            this.sql = sql;
+            this.params = params;
+        }
+    }
+
+    /**
+     * What a check compares between two plans of a probe
+     */
+    static final class PlanSummary {
+        final List<String> nodes = new ArrayList<>();
+        double worstEstimate = 1;
+        long buffers;
+        double millis;
+
+        static PlanSummary of(String json) {
+            Map<?, ?> root = (Map<?, ?>) ((List<?>) Json.parse(json)).get(0);
+            PlanSummary summary = new PlanSummary();
+            Map<?, ?> plan = (Map<?, ?>) root.get("Plan");
+            summary.buffers = number(plan, "Shared Hit Blocks") + number(plan, "Shared Read Blocks");
+            Object execution = root.get("Execution Time");
+            summary.millis = execution == null ? 0 : (Double) execution;
+            summary.visit(plan);
+            return summary;
+        }
+
+        // Pre-order walk, so a changed join order or access path shows up as a different node list
+        private void visit(Map<?, ?> plan) {
+            StringBuilder node = new StringBuilder((String) plan.get("Node Type"));
+            if (plan.get("Index Name") != null) {
+                node.append(" using ").append(plan.get("Index Name"));
+            }
+            if (plan.get("Relation Name") != null) {
+                node.append(" on ").append(plan.get("Relation Name"));
+            }
+            nodes.add(node.toString());
+
+            // Per loop on both sides; nodes that never ran say nothing about the estimate
+            if (number(plan, "Actual Loops") > 0) {
+                double estimated = Math.max(1, ((Double) plan.get("Plan Rows")));
+                double actual = Math.max(1, ((Double) plan.get("Actual Rows")));
+                worstEstimate = Math.max(worstEstimate, Math.max(estimated / actual, actual / estimated));
+            }
+            Object children = plan.get("Plans");
+            if (children != null) {
+                for (Object child : (List<?>) children) {
+                    visit((Map<?, ?>) child);
+                }
+            }
+        }
+
+        private static long number(Map<?, ?> plan, String key) {
+            Object value = plan.get(key);
+            return value == null ? 0 : ((Double) value).longValue();
+        }
+    }
+
+    public static void main(String[] args) throws SQLException, IOException {
+        if (args.length == 0 || !(args[0].equals("record") || args[0].equals("check"))) {
+            System.out.println("Usage: PlanRegression <record|check> [ticket counts, default 10000,100000,1000000]");
+            return;
+        }
+        boolean record = args[0].equals("record");
+        String[] scales = (args.length > 1 ? args[1] : "10000,100000,1000000").split(",");
+
+        Connection conn = GigSystem.getConnection();
+        if (conn == null) {
+            System.err.println("Failed to get database connection");
+            System.exit(2);
+        }
+        int failures = 0;
+        for (String scale : scales) {
+            int tickets = Integer.parseInt(scale.trim());
+            fill(conn, tickets);
+            Path directory = BASELINES.resolve(String.valueOf(tickets));
+            System.out.println("-- " + tickets + " tickets --");
+            for (Probe probe : probes(conn)) {
+                String json = explainJson(conn, probe);
+                Path baseline = directory.resolve(probe.name + ".json");
+                PlanSummary current = PlanSummary.of(json);
+                if (record) {
+                    Files.createDirectories(directory);
+                    Files.write(baseline, json.getBytes(StandardCharsets.UTF_8));
+                    System.out.format("recorded %-28s %6d buffers  %8.2f ms%n", probe.name, current.buffers, current.millis);
+                } else if (!Files.exists(baseline)) {
+                    System.out.format("MISSING  %-28s no baseline at %s%n", probe.name, baseline);
+                    failures++;
+                } else {
+                    PlanSummary expected = PlanSummary.of(new String(Files.readAllBytes(baseline), StandardCharsets.UTF_8));
+                    List<String> problems = compare(expected, current);
+                    System.out.format("%-8s %-28s %6d buffers (baseline %d)  %8.2f ms (baseline %.2f)%n",
+                        problems.isEmpty() ? "ok" : "FAIL", probe.name, current.buffers, expected.buffers, current.millis, expected.millis);
+                    for (String problem : problems) {
+                        System.out.println("         " + problem);
+                    }
+                    if (!problems.isEmpty()) {
+                        failures++;
+                    }
+                }
+            }
+        }
+        if (!record) {
+            System.out.println(failures == 0 ? "No plan regressions" : failures + " plan regressions");
+            System.exit(failures == 0 ? 0 : 1);
+        }
+    }
+
+    static List<String> compare(PlanSummary expected, PlanSummary current) {
+        List<String> problems = new ArrayList<>();
+        if (!expected.nodes.equals(current.nodes)) {
+            int i = 0;
+            while (i < expected.nodes.size() && i < current.nodes.size() && expected.nodes.get(i).equals(current.nodes.get(i))) {
+                i++;
+            }
+            problems.add("plan changed at node " + (i + 1) + ": " +
+                (i < expected.nodes.size() ? expected.nodes.get(i) : "(none)") + " -> " +
+                (i < current.nodes.size() ? current.nodes.get(i) : "(none)"));
+        }
+        if (current.worstEstimate > ESTIMATE_FLOOR && current.worstEstimate > expected.worstEstimate * ESTIMATE_RATIO) {
+            problems.add(String.format("row estimates off by %.0fx (baseline %.0fx)", current.worstEstimate, expected.worstEstimate));
+        }
+        if (current.buffers > expected.buffers * BUFFER_RATIO + BUFFER_SLACK) {
+            problems.add("buffers " + expected.buffers + " -> " + current.buffers);
+        }
+        return problems;
+    }
+
+    // Tops TICKET up to the given number of rows and refreshes the statistics the planner uses
+    private static void fill(Connection conn, int tickets) throws SQLException {
+        int existing;
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT COUNT(*) FROM TICKET");
+             ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            existing = rs.getInt(1);
+        }
+        if (existing < tickets) {
+            GigBenchmark.loadSpreadTickets(conn, tickets - existing, Math.max(1, tickets / 20));
+            GigSystem.internCustomers(conn);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("ANALYZE")) {
+            stmt.execute();
+        }
+    }
+
+    private static String explainJson(Connection conn, Probe probe) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS, FORMAT JSON) " + probe.sql)) {
+            for (int i = 0; i < probe.params.length; i++) {
+                stmt.setObject(i + 1, probe.params[i]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    /**
+     * The task and trigger statements, with arguments taken from the loaded data: the active gig with the
+     * longest lineup, its last act, and its venue
+     * @return no probes if there is no active gig with performances
+     */
+    static List<Probe> probes(Connection conn) throws SQLException {
+        String sql = "SELECT g.gigid, g.gigdatetime, v.venuename, a.actid, a.actname, ag.ontime FROM GIG g " +
+                     "JOIN VENUE v ON v.venueid = g.venueid " +
+                     "JOIN ACT_GIG ag ON ag.gigid = g.gigid " +
+                     "JOIN ACT a ON a.actid = ag.actid " +
+                     "WHERE g.gigstatus = 'G' " +
+                     "ORDER BY (SELECT COUNT(*) FROM ACT_GIG ag2 WHERE ag2.gigid = g.gigid) DESC, g.gigid, ag.ontime DESC LIMIT 1";
+        List<Probe> probes = new ArrayList<>();
+        int gigId;
+        int actId;
+        Timestamp gigStart;
+        Timestamp onTime;
+        String venueName;
+        String actName;
+        try (PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) {
+                return probes;
+            }
+            gigId = rs.getInt("gigid");
+            gigStart = rs.getTimestamp("gigdatetime");
+            venueName = rs.getString("venuename");
+            actId = rs.getInt("actid");
+            actName = rs.getString("actname");
+            onTime = rs.getTimestamp("ontime");
+        }
+        Timestamp dayStart = Timestamp.valueOf(gigStart.toLocalDateTime().toLocalDate().atStartOfDay());
+        Timestamp dayEnd = Timestamp.valueOf(gigStart.toLocalDateTime().toLocalDate().plusDays(1).atStartOfDay());
+
+        probes.add(new Probe("task1", "SELECT a.actname, ag.ontime, ag.duration FROM ACT_GIG ag JOIN ACT a ON ag.actid = a.actid " +
+                                      "WHERE ag.gigid = ? ORDER BY ag.ontime", gigId));
+        probes.add(new Probe("task2-venue", "SELECT venueid FROM VENUE WHERE venuename = ?", venueName));
+        probes.add(new Probe("task3-gig-active", "SELECT 1 FROM GIG WHERE gigid = ? AND gigstatus = 'G'", gigId));
+        probes.add(new Probe("task4-act", "SELECT actid FROM ACT WHERE actname = ?", actName));
+        probes.add(new Probe("task4-customers", "SELECT DISTINCT c.customername, c.customeremail FROM TICKET t " +
+                                                  "LEFT JOIN CUSTOMER c ON c.customerid = t.customerid WHERE t.gigid = ?", gigId));
+        probes.add(new Probe("tour-gigs", "SELECT DISTINCT g.gigid FROM GIG g JOIN ACT_GIG ag ON ag.gigid = g.gigid " +
+                                          "WHERE ag.actid = ? AND g.gigstatus = 'G' AND g.gigdatetime >= ? ORDER BY g.gigid",
+            actId, dayStart));
+        probes.add(new Probe("trigger-travel-gap", "SELECT MAX(ag.ontime + (ag.duration || ' minutes')::INTERVAL) FROM ACT_GIG ag " +
+                                                   "JOIN GIG g ON ag.gigid = g.gigid " +
+                                                   "WHERE ag.actid = ? AND g.gigstatus = 'G' AND g.gigid != ? " +
+                                                   "AND ag.ontime >= ? AND ag.ontime < ?",
+            actId, gigId, dayStart, dayEnd));
+        probes.add(new Probe("trigger-simultaneous-gig", "SELECT COUNT(*) FROM ACT_GIG ag JOIN GIG g ON ag.gigid = g.gigid " +
+                                                         "WHERE ag.actid = ? AND g.gigstatus = 'G' AND g.gigid != ? " +
+                                                         "AND ag.ontime >= ?::TIMESTAMP - INTERVAL '90 minutes' AND ag.ontime <= ?",
+            actId, gigId, onTime, onTime));
+        probes.add(new Probe("trigger-venue-gap", "SELECT MIN(gigdatetime) FROM GIG WHERE venueid = (SELECT venueid FROM GIG WHERE gigid = ?) " +
+                                                  "AND gigstatus = 'G' AND gigid != ? AND gigdatetime >= ? AND gigdatetime < ?",
+            gigId, gigId, dayStart, dayEnd));
+        probes.add(new Probe("trigger-ticket-capacity", "SELECT COUNT(*) FROM TICKET WHERE gigid = ?", gigId));
+        probes.add(new Probe("task5", GigSystem.TASK5_SQL));
+        probes.add(new Probe("task6", GigSystem.TASK6_SQL));
+        probes.add(new Probe("task7", GigSystem.TASK7_SQL));
+        probes.add(new Probe("task8", GigSystem.TASK8_SQL));
+        return probes;
+    }
+
+    /**
+     * Just enough JSON for EXPLAIN output: objects (LinkedHashMap), arrays (ArrayList), strings, numbers
+     * (Double), booleans and null
+     */
+    static final class Json {
+        private final String text;
+        private int pos;
+
+        private Json(String text) {
+            this.text = text;
+        }
+
+        static Object parse(String text) {
+            Json parser = new Json(text);
+            Object value = parser.value();
+            parser.skipWhitespace();
+            if (parser.pos != text.length()) {
+                throw parser.error("trailing characters");
+            }
+            return value;
+        }
+
+        private Object value() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("unexpected end");
+            }
+            char c = text.charAt(pos);
+            switch (c) {
+                case '{':
+                    return object();
+                case '[':
+                    return array();
+                case '"':
+                    return string();
+                case 't':
+                    return literal("true", Boolean.TRUE);
+                case 'f':
+                    return literal("false", Boolean.FALSE);
+                case 'n':
+                    return literal("null", null);
+                default:
+                    return number();
+            }
+        }
+
+        private Map<String, Object> object() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return map;
+            }
+            while (true) {
+                skipWhitespace();
+                String key = string();
+                skipWhitespace();
+                expect(':');
+                map.put(key, value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect('}');
+                    return map;
+                }
+            }
+        }
+
+        private List<Object> array() {
+            List<Object> list = new ArrayList<>();
+            pos++;
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            while (true) {
+                list.add(value());
+                skipWhitespace();
+                if (peek() == ',') {
+                    pos++;
+                } else {
+                    expect(']');
+                    return list;
+                }
+            }
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder out = new StringBuilder();
+            while (true) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return out.toString();
+                }
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                char escaped = text.charAt(pos++);
+                switch (escaped) {
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 'b':
+                        out.append('\b');
+                        break;
+                    case 'f':
+                        out.append('\f');
+                        break;
+                    case 'u':
+                        out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        out.append(escaped); // \" \\ \/
+                }
+            }
+        }
+
+        private Double number() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error("unexpected character");
+            }
+            return Double.valueOf(text.substring(start, pos));
+        }
+
+        private Object literal(String word, Object value) {
+            if (!text.startsWith(word, pos)) {
+                throw error("expected " + word);
+            }
+            pos += word.length();
+            return value;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private char peek() {
+            return pos < text.length() ? text.charAt(pos) : '\0';
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Bad JSON at " + pos + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group commit for task3. Concurrent purchases are queued, and up to maxBatch of them (or whatever
+ * arrives within maxWaitMillis of the first) are sold in one transaction, so a whole group costs one
+ * commit (one WAL flush) instead of one each.
+ *
+ * Each purchase runs under its own savepoint, so one that breaks a rule (capacity exceeded, wrong price,
+ * cancelled gig) is rolled back on its own and the rest of the group still commits. Each caller's future
+ * completes with true if its ticket was sold, false if it was rejected, or exceptionally if the group's
+ * commit failed (then none of the group was sold).
+ */
+public class PurchaseCoordinator implements AutoCloseable {
+
+    private static class Request {
+        final int gigid;
+        final String name;
+        final String email;
+        final char ticketType;
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        int customerId = -1;
+
+        Request(int gigid, String name, String email, char ticketType) {
+            this.gigid = gigid;
+            this.name = name;
+            this.email = email;
+            this.ticketType = ticketType;
+        }
+    }
+
+    private final Connection conn;
+    private final int maxBatch;
+    private final long maxWaitMillis;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong sold = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param conn Connection used only by this coordinator
+     * @param maxBatch Most purchases per transaction
+     * @param maxWaitMillis How long the first purchase of a group waits for others to join it
+     */
+    public PurchaseCoordinator(Connection conn, int maxBatch, long maxWaitMillis) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("maxBatch must be positive");
+        }
+        this.conn = conn;
+        this.maxBatch = maxBatch;
+        this.maxWaitMillis = maxWaitMillis;
+        this.worker = new Thread(this::run, "purchase-coordinator");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Queues a task3 purchase
+     * @return future completing with true if the ticket was sold, false if it was rejected
+     */
+    public CompletableFuture<Boolean> purchase(int gigid, String name, String email, String ticketType) {
+        if (!GigSystem.isValidPurchase(name, email, ticketType) || SoldOutRegistry.rejects(gigid)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        Request request = new Request(gigid, name, email, ticketType.charAt(0));
+        if (!running) {
+            request.result.completeExceptionally(new IllegalStateException("PurchaseCoordinator is closed"));
+            return request.result;
+        }
+        queue.add(request);
+        if (!running && queue.remove(request)) {
+            // Closed while queueing, and the worker may already have stopped
+            request.result.completeExceptionally(new IllegalStateException("PurchaseCoordinator is closed"));
+        }
+        return request.result;
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                sellBatch(batch);
+            } catch (InterruptedException e) {
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void sellBatch(List<Request> batch) {
+        // Each sale takes its gig's shared lock, so sell in gigid order (as GigLocks requires of multi-gig writers);
+        // the sort is stable, so purchases for one gig keep their arrival order
+        batch.sort(Comparator.comparingInt(request -> request.gigid));
+        try {
+            // Through TransactionRunner, so the afterCommit actions (ticketRejected() for a refused purchase)
+            // only run once the group has committed
+            TransactionRunner.run(conn, "task3", () -> {
+                for (Request request : batch) {
+                    // Savepoints are not released one by one; the commit releases them all
+                    Savepoint savepoint = conn.setSavepoint();
+                    try {
+                        request.customerId = GigSystem.sellTicket(conn, request.gigid, request.name, request.email, request.ticketType);
+                        if (request.customerId == -1) {
+                            conn.rollback(savepoint);
+                        }
+                    } catch (SQLException e) {
+                        // Only this purchase is undone
+                        conn.rollback(savepoint);
+                        TransactionRunner.afterCommit(() -> GigSystem.ticketRejected(e, request.gigid, request.email));
+                        request.customerId = -1;
+                    }
+                }
+                return null;
+            });
+
+            batches.incrementAndGet();
+            for (Request request : batch) {
+                if (request.customerId != -1) {
+                    GigSystem.ticketSold(request.email, request.customerId);
+                    sold.incrementAndGet();
+                    request.result.complete(true);
+                } else {
+                    rejected.incrementAndGet();
+                    request.result.complete(false);
+                }
+            }
+        } catch (SQLException e) {
+            // The transaction itself failed (e.g. lost connection), so nothing in the group was sold
+            // (TransactionRunner has rolled back)
+            e.printStackTrace();
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    public long batches() {
+        return batches.get();
+    }
+
+    public long sold() {
+        return sold.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Stops accepting purchases and waits for the queued ones to be sold. Does not close the connection.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
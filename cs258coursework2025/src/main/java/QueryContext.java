@@ -0,0 +1,75 @@
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Per-call settings for the statements GigSystem prepares on the current thread: a query timeout
+ * (Statement.setQueryTimeout) and a cancellation flag. Used by GigSystemAsync; synchronous callers
+ * that never install a context see no difference.
+ */
+public class QueryContext {
+
+    private static final ThreadLocal<QueryContext> current = new ThreadLocal<>();
+
+    private final int timeoutSeconds;
+    private volatile boolean cancelled = false;
+    private volatile Statement active;
+
+    /**
+     * @param timeoutSeconds Timeout applied to every statement, or 0 for none
+     */
+    public QueryContext(int timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    public static QueryContext current() {
+        return current.get();
+    }
+
+    /**
+     * Installs this context on the calling thread until close() is called
+     */
+    public QueryContext open() {
+        current.set(this);
+        return this;
+    }
+
+    public void close() {
+        active = null;
+        current.remove();
+    }
+
+    /**
+     * Applies the timeout to a freshly prepared statement and makes it the one cancel() interrupts
+     * @throws SQLException if the call has already been cancelled
+     */
+    void attach(Statement stmt) throws SQLException {
+        if (cancelled) {
+            stmt.close();
+            throw new SQLException("Call was cancelled", "57014");
+        }
+        if (timeoutSeconds > 0) {
+            stmt.setQueryTimeout(timeoutSeconds);
+        }
+        active = stmt;
+    }
+
+    /**
+     * Cancels the statement currently running (if any) and fails any statement prepared afterwards.
+     * Safe to call from another thread.
+     */
+    public void cancel() {
+        cancelled = true;
+        Statement stmt = active;
+        if (stmt != null) {
+            try {
+                stmt.cancel();
+            } catch (SQLException e) {
+                // The statement may already have finished or been closed
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,59 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import java.util.List;
+
+/**
+ * Optional refund ledger for gig cancellations.
+ *
+ * By default, cancelling a gig sets cost = 0 on every one of its TICKET rows, which rewrites each row
+ * (a dead tuple per ticket) and fires the TICKET update triggers once per row. With the ledger enabled,
+ * the cancellation inserts one GIG_REFUND row instead and leaves TICKET untouched. The cost actually
+ * paid is then derived by the TICKET_EFFECTIVE view (0 for a refunded gig), which task5 and task8 read.
+ *
+ * While it is enabled, anything that reads TICKET.cost directly sees the original price of a refunded
+ * ticket, so it should read TICKET_EFFECTIVE. Reinstating a refunded gig means deleting its GIG_REFUND row.
+ */
+public class RefundLedger {
+
+    private static volatile boolean enabled = false;
+
+    private RefundLedger() {
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records that all of a gig's tickets are refunded (in the caller's transaction). Recording a gig twice
+     * keeps the first row.
+     */
+    public static void record(Connection conn, int gigId) throws SQLException {
+        String sql = "INSERT INTO GIG_REFUND (gigid) VALUES (?) ON CONFLICT (gigid) DO NOTHING";
+        try (PreparedStatement stmt = GigSystem.prepare(conn, sql)) {
+            stmt.setInt(1, gigId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * record() for several gigs in one statement
+     */
+    public static void recordAll(Connection conn, List<Integer> gigIds) throws SQLException {
+        String sql = "INSERT INTO GIG_REFUND (gigid) SELECT unnest(?::INTEGER[]) ON CONFLICT (gigid) DO NOTHING";
+        try (PreparedStatement stmt = GigSystem.prepare(conn, sql)) {
+            stmt.setArray(1, conn.createArrayOf("integer", gigIds.toArray()));
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,545 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.postgresql.PGConnection;
+
+/**
+ * Optional write-behind durability mode for task3, for on-sales that outrun even group commit.
+ *
+ * - purchase() checks the gig and price (GigMetadataCache), takes a seat from an in-memory per-gig
+ *   counter (seeded from the database), appends the sale to a memory-mapped journal file and returns
+ *   once the journal has been forced to disk.
+ * - A background flusher copies forced records into a staging table with COPY and moves them into
+ *   TICKET. The last flushed sequence number is stored in SALES_JOURNAL_CHECKPOINT in the same
+ *   transaction, so a record is never inserted twice.
+ * - A record the database rejects (the gig was cancelled, or a trigger refused it) is written to
+ *   SALES_JOURNAL_REJECT for reconciliation, and its seat is given back to the counter.
+ * - open() replays every record after the checkpoint before accepting new purchases.
+ *
+ * The counters assume this journal is the only seller for the gigs it sells. The TICKET triggers still
+ * run on every flushed row (the capacity check, or a seat claim for a gig with seat inventory), so another
+ * seller cannot make a gig oversold, but the journal would then accept purchases that end up in
+ * SALES_JOURNAL_REJECT.
+ *
+ * Record layout: int payload length, int CRC32 of the payload, payload (long seq, int gigid,
+ * char pricetype, int cost, short name length, name bytes, short email length, email bytes).
+ * A zero length, a bad CRC or a sequence number that does not increase marks the end of the journal.
+ */
+public class SalesJournal implements AutoCloseable {
+
+    private static final int RECORD_HEADER = 8;
+
+    private static class Sale {
+        final long seq;
+        final int gigid;
+        final char priceType;
+        final int cost;
+        final String name;
+        final String email;
+
+        Sale(long seq, int gigid, char priceType, int cost, String name, String email) {
+            this.seq = seq;
+            this.gigid = gigid;
+            this.priceType = priceType;
+            this.cost = cost;
+            this.name = name;
+            this.email = email;
+        }
+    }
+
+    private final String journalName;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Connection flushConn;
+    private final ScheduledExecutorService flusher;
+
+    // Guarded by this
+    private int writePosition = 0;
+    private long nextSeq = 1;
+
+    // Everything before forcedPosition is on disk; only the flusher moves flushedPosition
+    private volatile int forcedPosition = 0;
+    private volatile int flushedPosition = 0;
+    private long checkpointSeq;
+    private final Object forceLock = new Object();
+    private final Object flushLock = new Object();
+
+    // Seats left per gig, and journalled sales not yet in TICKET per gig
+    private final Map<Integer, AtomicInteger> remaining = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicInteger> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Opens (or creates) a journal file, replays any records that were not flushed yet, and starts the flusher
+     * @param journalName Name the checkpoint and rejects are stored under (one per journal file)
+     * @param sizeBytes Size of the mapped file. Purchases fail while it is full of unflushed records.
+     * @param flushConn Connection used only by the flusher
+     * @param flushMillis Interval between flushes
+     */
+    public static SalesJournal open(String journalName, Path file, int sizeBytes, Connection flushConn, long flushMillis) throws IOException, SQLException {
+        SalesJournal journal = new SalesJournal(journalName, file, sizeBytes, flushConn);
+        journal.recover();
+        journal.flusher.scheduleWithFixedDelay(journal::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        return journal;
+    }
+
+    private SalesJournal(String journalName, Path file, int sizeBytes, Connection flushConn) throws IOException {
+        this.journalName = journalName;
+        this.flushConn = flushConn;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeBytes);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sales-journal-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Accepts a task3 purchase into the journal
+     * @param conn Used to load the gig's metadata and seed its seat counter on first use
+     * @return true once the sale is durable in the journal, false if it was rejected (invalid, gig not active,
+     *         ticket type not sold, sold out, or journal full)
+     */
+    public boolean purchase(Connection conn, int gigid, String name, String email, String ticketType) throws SQLException {
+        if (!GigSystem.isValidPurchase(name, email, ticketType)) {
+            return false;
+        }
+        GigMetadataCache.GigMetadata gig = GigMetadataCache.get(conn, gigid);
+        if (gig == null || !gig.isActive()) {
+            return false;
+        }
+        Integer price = gig.price(ticketType.charAt(0));
+        if (price == null) {
+            return false;
+        }
+
+        AtomicInteger seats = seatsLeft(conn, gig);
+        if (seats.getAndUpdate(n -> n > 0 ? n - 1 : n) <= 0) {
+            return false; // Sold out
+        }
+
+        int end = append(gigid, ticketType.charAt(0), price, name, email);
+        if (end < 0) {
+            seats.incrementAndGet();
+            return false; // Journal full until the flusher catches up
+        }
+        force(end);
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    private AtomicInteger seatsLeft(Connection conn, GigMetadataCache.GigMetadata gig) throws SQLException {
+        AtomicInteger seats = remaining.get(gig.gigId());
+        if (seats != null) {
+            return seats;
+        }
+        synchronized (remaining) {
+            seats = remaining.get(gig.gigId());
+            if (seats == null) {
+                int sold;
+                try (PreparedStatement stmt = GigSystem.prepare(conn, "SELECT COUNT(*) FROM TICKET WHERE gigid = ?")) {
+                    stmt.setInt(1, gig.gigId());
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        rs.next();
+                        sold = rs.getInt(1);
+                    }
+                }
+                // A flush that commits between the count and here is counted twice, which only under-sells
+                int unflushed = pending.computeIfAbsent(gig.gigId(), id -> new AtomicInteger()).get();
+                seats = new AtomicInteger(Math.max(0, gig.capacity() - sold - unflushed));
+                remaining.put(gig.gigId(), seats);
+            }
+            return seats;
+        }
+    }
+
+    // Appends a record and returns the position after it, or -1 if it does not fit
+    private synchronized int append(int gigid, char priceType, int cost, String name, String email) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[] emailBytes = email.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = 8 + 4 + 2 + 4 + 2 + nameBytes.length + 2 + emailBytes.length;
+        if (writePosition + RECORD_HEADER + payloadLength + 4 > buffer.capacity()) {
+            return -1; // Always leave room for a zero length after the last record
+        }
+        ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+        payload.putLong(nextSeq).putInt(gigid).putChar(priceType).putInt(cost)
+            .putShort((short) nameBytes.length).put(nameBytes)
+            .putShort((short) emailBytes.length).put(emailBytes);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+
+        buffer.putInt(writePosition + 4, (int) crc.getValue());
+        buffer.position(writePosition + RECORD_HEADER);
+        buffer.put(payload.array());
+        buffer.putInt(writePosition, payloadLength); // Length last, so a torn record reads as the end
+        writePosition += RECORD_HEADER + payloadLength;
+        nextSeq++;
+        pending.computeIfAbsent(gigid, id -> new AtomicInteger()).incrementAndGet();
+        return writePosition;
+    }
+
+    // Forces the journal to disk. Concurrent callers share one force (group fsync).
+    private void force(int end) {
+        synchronized (forceLock) {
+            if (forcedPosition >= end) {
+                return; // Another caller's force already covered this record
+            }
+            int upTo;
+            synchronized (this) {
+                upTo = writePosition;
+            }
+            buffer.force();
+            forcedPosition = upTo;
+        }
+    }
+
+    // Reads the records between two positions (both at record boundaries)
+    private List<Sale> read(int from, int to) {
+        List<Sale> sales = new ArrayList<>();
+        ByteBuffer view = buffer.duplicate();
+        int position = from;
+        while (position < to) {
+            int length = view.getInt(position);
+            view.position(position + RECORD_HEADER);
+            sales.add(decode(view));
+            position += RECORD_HEADER + length;
+        }
+        return sales;
+    }
+
+    private static Sale decode(ByteBuffer view) {
+        long seq = view.getLong();
+        int gigid = view.getInt();
+        char priceType = view.getChar();
+        int cost = view.getInt();
+        byte[] name = new byte[view.getShort()];
+        view.get(name);
+        byte[] email = new byte[view.getShort()];
+        view.get(email);
+        return new Sale(seq, gigid, priceType, cost, new String(name, StandardCharsets.UTF_8), new String(email, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Finds the end of the journal and flushes every record after the database checkpoint
+     */
+    private void recover() throws SQLException {
+        checkpointSeq = loadCheckpoint();
+        ByteBuffer view = buffer.duplicate();
+        int position = 0;
+        long lastSeq = 0;
+        int firstUnflushed = -1;
+        while (position + RECORD_HEADER <= buffer.capacity()) {
+            int length = view.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER + length > buffer.capacity()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            view.position(position + RECORD_HEADER);
+            view.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            long seq = ByteBuffer.wrap(payload).getLong();
+            if ((int) crc.getValue() != view.getInt(position + 4) || seq <= lastSeq) {
+                break; // Torn write, or an old record left behind by a reset
+            }
+            if (seq > checkpointSeq && firstUnflushed == -1) {
+                firstUnflushed = position;
+            }
+            lastSeq = seq;
+            position += RECORD_HEADER + length;
+        }
+
+        synchronized (this) {
+            writePosition = position;
+            nextSeq = Math.max(lastSeq, checkpointSeq) + 1;
+        }
+        forcedPosition = position;
+        flushedPosition = firstUnflushed == -1 ? position : firstUnflushed;
+        if (firstUnflushed != -1) {
+            for (Sale sale : read(firstUnflushed, position)) {
+                pending.computeIfAbsent(sale.gigid, id -> new AtomicInteger()).incrementAndGet();
+            }
+        }
+        flush();
+    }
+
+    private long loadCheckpoint() throws SQLException {
+        String sql = "SELECT flushedseq FROM SALES_JOURNAL_CHECKPOINT WHERE journalname = ?";
+        try (PreparedStatement stmt = GigSystem.prepare(flushConn, sql)) {
+            stmt.setString(1, journalName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            // Left in the journal, so the next flush (or a restart) tries again
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Moves every forced record into TICKET now instead of waiting for the flusher
+     */
+    public void flushNow() throws SQLException {
+        flush();
+    }
+
+    private void flush() throws SQLException {
+        synchronized (flushLock) {
+            flushForced();
+        }
+    }
+
+    private void flushForced() throws SQLException {
+        int from = flushedPosition;
+        int to = forcedPosition;
+        if (from < to) {
+            List<Sale> sales = read(from, to);
+            List<Sale> refused = store(sales);
+            flushedPosition = to;
+            for (Sale sale : sales) {
+                pending.get(sale.gigid).decrementAndGet();
+            }
+            for (Sale sale : refused) {
+                AtomicInteger seats = remaining.get(sale.gigid);
+                if (seats != null) {
+                    seats.incrementAndGet(); // The seat was never taken
+                }
+            }
+            flushed.addAndGet(sales.size() - refused.size());
+            rejected.addAndGet(refused.size());
+            TaskResultCache.ticketsChanged();
+        }
+        resetIfDrained();
+    }
+
+    /**
+     * Inserts the sales in one transaction together with the new checkpoint
+     * @return the sales the database refused (recorded in SALES_JOURNAL_REJECT)
+     */
+    private List<Sale> store(List<Sale> sales) throws SQLException {
+        List<Sale> refused = new ArrayList<>();
+        boolean originalAutoCommit = flushConn.getAutoCommit();
+        try {
+            flushConn.setAutoCommit(false);
+            String stageSql = "CREATE TEMP TABLE IF NOT EXISTS journal_stage (" +
+                              "seq BIGINT, gigid INTEGER, customername VARCHAR(100), customeremail VARCHAR(100), " +
+                              "pricetype CHAR(1), cost INTEGER) ON COMMIT DELETE ROWS";
+            try (PreparedStatement stmt = GigSystem.prepare(flushConn, stageSql)) {
+                stmt.execute();
+            }
+            copyToStage(sales);
+
+            // Same shared gig locks as task3, in gigid order, so a task4 cancellation is either fully before
+            // or fully after this flush
+            String lockSql = "SELECT pg_advisory_xact_lock_shared(" + GigLocks.NS_GIG + ", gigid) " +
+                             "FROM (SELECT DISTINCT gigid FROM journal_stage ORDER BY gigid) g";
+            try (PreparedStatement stmt = GigSystem.prepare(flushConn, lockSql)) {
+                stmt.execute();
+            }
+
+            // Sales for gigs that are no longer active are refused up front
+            String inactiveSql = "SELECT s.seq FROM journal_stage s " +
+                                 "WHERE NOT EXISTS (SELECT 1 FROM GIG g WHERE g.gigid = s.gigid AND g.gigstatus = 'G')";
+            Set<Long> inactive = new HashSet<>();
+            try (PreparedStatement stmt = GigSystem.prepare(flushConn, inactiveSql);
+                 ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    inactive.add(rs.getLong(1));
+                }
+            }
+            List<Sale> active = new ArrayList<>();
+            for (Sale sale : sales) {
+                if (inactive.contains(sale.seq)) {
+                    reject(sale, "Gig " + sale.gigid + " is not active");
+                    refused.add(sale);
+                } else {
+                    active.add(sale);
+                }
+            }
+
+            // Intern the customers, then insert every active sale in one statement. A gig with seat inventory
+            // gives each row a seat through the claim_ticket_seat trigger, and refuses the statement when it runs
+            // out; the rows are then retried one at a time below
+            String customersSql = "INSERT INTO CUSTOMER (customername, customeremail) " +
+                                  "SELECT DISTINCT ON (customeremail) customername, customeremail FROM journal_stage " +
+                                  "ORDER BY customeremail, seq " +
+                                  "ON CONFLICT (customeremail) DO NOTHING";
+            try (PreparedStatement stmt = GigSystem.prepare(flushConn, customersSql)) {
+                stmt.executeUpdate();
+            }
+            String insertSql = "INSERT INTO TICKET (gigid, customername, customeremail, pricetype, cost, customerid) " +
+                               "SELECT s.gigid, s.customername, s.customeremail, s.pricetype, s.cost, c.customerid " +
+                               "FROM journal_stage s JOIN CUSTOMER c ON c.customeremail = s.customeremail " +
+                               "WHERE EXISTS (SELECT 1 FROM GIG g WHERE g.gigid = s.gigid AND g.gigstatus = 'G') " +
+                               "ORDER BY s.seq";
+            Savepoint bulk = flushConn.setSavepoint();
+            try (PreparedStatement stmt = GigSystem.prepare(flushConn, insertSql)) {
+                stmt.executeUpdate();
+            } catch (SQLException e) {
+                // A trigger refused at least one row: insert one at a time so only those rows are refused
+                flushConn.rollback(bulk);
+                for (Sale sale : active) {
+                    Savepoint one = flushConn.setSavepoint();
+                    try {
+                        insertOne(sale);
+                    } catch (SQLException rowError) {
+                        flushConn.rollback(one);
+                        reject(sale, rowError.getMessage());
+                        refused.add(sale);
+                    }
+                }
+            }
+
+            long lastSeq = sales.get(sales.size() - 1).seq;
+            String checkpointSql = "INSERT INTO SALES_JOURNAL_CHECKPOINT (journalname, flushedseq) VALUES (?, ?) " +
+                                   "ON CONFLICT (journalname) DO UPDATE SET flushedseq = EXCLUDED.flushedseq";
+            try (PreparedStatement stmt = GigSystem.prepare(flushConn, checkpointSql)) {
+                stmt.setString(1, journalName);
+                stmt.setLong(2, lastSeq);
+                stmt.executeUpdate();
+            }
+            flushConn.commit();
+            checkpointSeq = lastSeq;
+            return refused;
+        } catch (SQLException e) {
+            flushConn.rollback();
+            throw e;
+        } finally {
+            flushConn.setAutoCommit(originalAutoCommit);
+        }
+    }
+
+    private void copyToStage(List<Sale> sales) throws SQLException {
+        StringBuilder csv = new StringBuilder();
+        for (Sale sale : sales) {
+            csv.append(sale.seq).append(',').append(sale.gigid).append(',')
+               .append(csvField(sale.name)).append(',').append(csvField(sale.email)).append(',')
+               .append(sale.priceType).append(',').append(sale.cost).append('\n');
+        }
+        try {
+            flushConn.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                "COPY journal_stage (seq, gigid, customername, customeremail, pricetype, cost) FROM STDIN WITH (FORMAT csv)",
+                new StringReader(csv.toString()));
+        } catch (IOException e) {
+            throw new SQLException("COPY into journal_stage failed", e);
+        }
+    }
+
+    private static String csvField(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private void insertOne(Sale sale) throws SQLException {
+        String sql = "INSERT INTO TICKET (gigid, customername, customeremail, pricetype, cost, customerid) " +
+                     "SELECT ?, ?, ?, ?, ?, (SELECT customerid FROM CUSTOMER WHERE customeremail = ?)";
+        try (PreparedStatement stmt = GigSystem.prepare(flushConn, sql)) {
+            stmt.setInt(1, sale.gigid);
+            stmt.setString(2, sale.name);
+            stmt.setString(3, sale.email);
+            stmt.setString(4, String.valueOf(sale.priceType));
+            stmt.setInt(5, sale.cost);
+            stmt.setString(6, sale.email);
+            stmt.executeUpdate();
+        }
+    }
+
+    private void reject(Sale sale, String reason) throws SQLException {
+        String sql = "INSERT INTO SALES_JOURNAL_REJECT (journalname, seq, gigid, customername, customeremail, pricetype, cost, reason) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = GigSystem.prepare(flushConn, sql)) {
+            stmt.setString(1, journalName);
+            stmt.setLong(2, sale.seq);
+            stmt.setInt(3, sale.gigid);
+            stmt.setString(4, sale.name);
+            stmt.setString(5, sale.email);
+            stmt.setString(6, String.valueOf(sale.priceType));
+            stmt.setInt(7, sale.cost);
+            stmt.setString(8, reason);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Once every record is in the database, zero the used part of the file and start again at the front.
+    // Sequence numbers keep increasing, so the checkpoint stays valid.
+    private void resetIfDrained() {
+        synchronized (forceLock) {
+            synchronized (this) {
+                if (writePosition == 0 || flushedPosition != writePosition || writePosition < buffer.capacity() / 2) {
+                    return;
+                }
+                byte[] zeros = new byte[Math.min(writePosition, 64 * 1024)];
+                for (int position = 0; position < writePosition; position += zeros.length) {
+                    buffer.position(position);
+                    buffer.put(zeros, 0, Math.min(zeros.length, writePosition - position));
+                }
+                buffer.force();
+                writePosition = 0;
+                forcedPosition = 0;
+                flushedPosition = 0;
+            }
+        }
+    }
+
+    public long accepted() {
+        return accepted.get();
+    }
+
+    public long flushed() {
+        return flushed.get();
+    }
+
+    public long rejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Stops the flusher after a final flush. Does not close the flush connection.
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(30, TimeUnit.SECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        channel.close();
+    }
+}
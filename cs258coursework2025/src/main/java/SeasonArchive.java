@@ -0,0 +1,590 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Optional cold storage for completed seasons.
+ *
+ * archive() moves every gig that started before a cutoff, with its performances and tickets, out of the
+ * database and into a local columnar file, so old seasons stop growing the tables and indexes the live tasks use.
+ * While the archive is enabled, task6 and task7 add the archived headline tickets to their live results.
+ * Other tasks only see live gigs.
+ *
+ * The file is a sequence of segments, one per archive() call. Each is an int magic number, an int payload
+ * length, an int CRC32 of the payload, then the payload. A short segment or one with a bad CRC marks the end
+ * of the file, and is overwritten by the next archive().
+ * Payload layout (all ints are varints; "signed" ones are zigzag-encoded):
+ * - a string dictionary: count, then UTF-8 length and bytes for each string,
+ * - gig count, then the gig columns, each prefixed by its byte length: gigid (delta from the previous gig,
+ *   gigs in gigid order), venueid, start in minutes since 1970 (signed delta from the previous gig),
+ *   title (string), headline acts (count, then a string for each act tied for the last finish, as in
+ *   task6 and task7), flags (1 = going ahead, 2 = refunded),
+ *   performance count, ticket count,
+ * - performance count, then the performance columns (in gig order, then on time): act name (string),
+ *   on time (signed minutes from the gig's start), duration, fee,
+ * - ticket count, then the ticket columns (in gig order, then ticketid): ticketid (signed delta),
+ *   customer name (string), customer email (string), price type (one byte), cost as stored in TICKET.
+ *
+ * The segment is forced to disk before the gigs are deleted, in the same transaction that takes their gig
+ * locks, and the tasks only see it once that transaction has committed. If the transaction fails, the segment
+ * is cut off the file again. If the process dies between the two, the segment survives and the next enable()
+ * deletes its gigs from the database.
+ */
+public class SeasonArchive {
+
+    private static final int MAGIC = 0x47415243; // "GARC"
+    private static final int SEGMENT_HEADER = 12;
+
+    private static final int FLAG_ACTIVE = 1;
+    private static final int FLAG_REFUNDED = 2;
+
+    /**
+     * Archived headline tickets, summed over every segment, in the shapes task6 and task7 merge
+     */
+    static final class Aggregates {
+        // Headline act -> year -> tickets, for gigs going ahead with at least one ticket
+        final Map<String, Map<Integer, Integer>> ticketsByYear = new HashMap<>();
+        // Headline act -> customer email -> tickets; every headline act has an entry, even with no tickets
+        final Map<String, Map<String, Integer>> ticketsByEmail = new HashMap<>();
+        // Customer email -> the name on its first archived ticket, as CUSTOMER keeps
+        final Map<String, String> namesByEmail = new HashMap<>();
+    }
+
+    private static final class State {
+        final Path file;
+        final List<ByteBuffer> segments;
+        final Set<Integer> gigIds;
+        final long validLength;
+        final long tickets;
+        private volatile Aggregates aggregates;
+
+        State(Path file, List<ByteBuffer> segments, Set<Integer> gigIds, long validLength, long tickets) {
+            this.file = file;
+            this.segments = segments;
+            this.gigIds = gigIds;
+            this.validLength = validLength;
+            this.tickets = tickets;
+        }
+    }
+
+    private static volatile State state = null;
+
+    private SeasonArchive() {
+    }
+
+    /**
+     * Maps an archive file (creating it on the first archive() if it does not exist) and deletes any archived
+     * gig that is still in the database after an archive() that did not commit. A file belongs to one database:
+     * after a reset reloads the same gig ids, start a new file.
+     */
+    public static synchronized void enable(Connection conn, Path file) throws IOException, SQLException {
+        State loaded = load(file);
+        TransactionRunner.run(conn, "archive", () -> {
+            deleteGigs(conn, loaded.gigIds.stream().mapToInt(Integer::intValue).toArray());
+            // Only once the archived gigs are gone from the database, so task6 and task7 never count them twice
+            TransactionRunner.afterCommit(() -> state = loaded);
+            return null;
+        });
+        TaskResultCache.ticketsChanged();
+        TaskResultCache.lineupsChanged();
+    }
+
+    public static synchronized void disable() {
+        state = null;
+        TaskResultCache.ticketsChanged();
+        TaskResultCache.lineupsChanged();
+    }
+
+    public static boolean isEnabled() {
+        return state != null;
+    }
+
+    public static int archivedGigs() {
+        State current = state;
+        return current == null ? 0 : current.gigIds.size();
+    }
+
+    public static long archivedTickets() {
+        State current = state;
+        return current == null ? 0 : current.tickets;
+    }
+
+    /**
+     * @return the archive's headline tickets (summed on first use after each change), or null if the archive is not enabled
+     */
+    static Aggregates aggregates() {
+        State current = state;
+        if (current == null) {
+            return null;
+        }
+        Aggregates result = current.aggregates;
+        if (result == null) {
+            result = new Aggregates();
+            for (ByteBuffer segment : current.segments) {
+                aggregate(segment.duplicate(), result);
+            }
+            current.aggregates = result;
+        }
+        return result;
+    }
+
+    /**
+     * Moves every gig that starts before the cutoff (going ahead or cancelled) into the archive, with its
+     * performances and tickets, and deletes it from the database
+     * @return the number of gigs archived, or -1 on error
+     * @throws IllegalStateException if the archive is not enabled
+     */
+    public static synchronized int archive(Connection conn, LocalDateTime cutoff) {
+        if (state == null) {
+            throw new IllegalStateException("SeasonArchive is not enabled");
+        }
+        State before = state;
+        try {
+            return TransactionRunner.run(conn, "archive", () -> {
+                int[] gigIds = gigsBefore(conn, cutoff);
+                if (gigIds.length == 0) {
+                    return 0;
+                }
+                GigLocks.lockGigsExclusive(conn, gigIds);
+
+                // Gigs archived by an earlier call that did not commit are only deleted
+                int[] fresh = Arrays.stream(gigIds).filter(id -> !before.gigIds.contains(id)).toArray();
+                State after = before;
+                if (fresh.length > 0) {
+                    try {
+                        // Appended after before's last segment, so a retried attempt overwrites this one
+                        after = append(before, encodeSegment(conn, fresh));
+                    } catch (IOException e) {
+                        throw new SQLException("Could not write the season archive", e);
+                    }
+                }
+                deleteGigs(conn, gigIds);
+                State published = after;
+                TransactionRunner.afterCommit(() -> {
+                    state = published;
+                    for (int gigId : gigIds) {
+                        GigMetadataCache.invalidate(gigId);
+                    }
+                    TaskResultCache.ticketsChanged();
+                    TaskResultCache.lineupsChanged();
+                });
+                return gigIds.length;
+            });
+        } catch (SQLException | RuntimeException e) {
+            // Nothing committed: cut off the segment this call appended, so enable() does not pick it up
+            truncate(before);
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    private static void truncate(State current) {
+        try (FileChannel channel = FileChannel.open(current.file, StandardOpenOption.WRITE)) {
+            channel.truncate(current.validLength);
+            channel.force(true);
+        } catch (NoSuchFileException e) {
+            // Nothing was appended
+        } catch (IOException e) {
+            // The segment stays; the next enable() deletes its gigs from the database instead
+            e.printStackTrace();
+        }
+    }
+
+    private static int[] gigsBefore(Connection conn, LocalDateTime cutoff) throws SQLException {
+        String sql = "SELECT gigid FROM GIG WHERE gigdatetime < ? ORDER BY gigid";
+        List<Integer> gigIds = new ArrayList<>();
+        try (PreparedStatement stmt = GigSystem.prepare(conn, sql)) {
+            stmt.setTimestamp(1, Timestamp.valueOf(cutoff));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    gigIds.add(rs.getInt("gigid"));
+                }
+            }
+        }
+        return gigIds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Cascades to ACT_GIG, GIG_TICKET, TICKET, SEAT and GIG_REFUND
+    private static void deleteGigs(Connection conn, int[] gigIds) throws SQLException {
+        if (gigIds.length == 0) {
+            return;
+        }
+        String sql = "DELETE FROM GIG WHERE gigid = ANY(?)";
+        try (PreparedStatement stmt = GigSystem.prepare(conn, sql)) {
+            stmt.setArray(1, conn.createArrayOf("integer", Arrays.stream(gigIds).boxed().toArray()));
+            stmt.executeUpdate();
+        }
+    }
+
+    // Reads the gigs, their performances and their tickets, and lays them out as one segment payload
+    private static byte[] encodeSegment(Connection conn, int[] gigIds) throws SQLException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        Array gigArray = conn.createArrayOf("integer", Arrays.stream(gigIds).boxed().toArray());
+
+        // Gigs, with their headline acts as task6 and task7 find them. Only gigs going ahead have headline
+        // acts, and those are the only gigs aggregate() counts
+        String gigSql = GigSystem.HEADLINE_ACTS_CTE +
+                        ", headlines AS (" +
+                        "    SELECT gigid, array_agg(actname ORDER BY actid) AS headlines " +
+                        "    FROM headline_acts WHERE gigid = ANY(?) GROUP BY gigid" +
+                        ") " +
+                        "SELECT g.gigid, g.venueid, g.gigtitle, g.gigstatus, " +
+                        String.format(GigSystem.EPOCH_MINUTE, "g.gigdatetime") + " AS startminute, " +
+                        "(r.gigid IS NOT NULL) AS refunded, h.headlines " +
+                        "FROM GIG g " +
+                        "LEFT JOIN GIG_REFUND r ON r.gigid = g.gigid " +
+                        "LEFT JOIN headlines h ON h.gigid = g.gigid " +
+                        "WHERE g.gigid = ANY(?) " +
+                        "ORDER BY g.gigid";
+        Map<Integer, Integer> gigIndex = new HashMap<>();
+        Columns gigs = new Columns(8);
+        try (PreparedStatement stmt = GigSystem.prepare(conn, gigSql)) {
+            stmt.setArray(1, gigArray);
+            stmt.setArray(2, gigArray);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int previousId = 0;
+                int previousStart = 0;
+                while (rs.next()) {
+                    int gigId = rs.getInt("gigid");
+                    int start = rs.getInt("startminute");
+                    Array headlineArray = rs.getArray("headlines");
+                    String[] headlines = headlineArray == null ? new String[0] : (String[]) headlineArray.getArray();
+                    boolean active = "G".equals(rs.getString("gigstatus"));
+                    gigIndex.put(gigId, gigIndex.size());
+                    gigs.column(0).writeVarint(gigId - previousId);
+                    gigs.column(1).writeVarint(rs.getInt("venueid"));
+                    gigs.column(2).writeSigned(start - previousStart);
+                    gigs.column(3).writeVarint(ref(dictionary, rs.getString("gigtitle")));
+                    gigs.column(4).writeVarint(headlines.length);
+                    for (String headline : headlines) {
+                        gigs.column(4).writeVarint(ref(dictionary, headline));
+                    }
+                    gigs.column(5).write((active ? FLAG_ACTIVE : 0) | (rs.getBoolean("refunded") ? FLAG_REFUNDED : 0));
+                    previousId = gigId;
+                    previousStart = start;
+                }
+            }
+        }
+        int[] gigStarts = new int[gigIndex.size()];
+        int[] perfCounts = new int[gigIndex.size()];
+        int[] ticketCounts = new int[gigIndex.size()];
+        Input startColumn = new Input(ByteBuffer.wrap(gigs.column(2).toByteArray()));
+        for (int i = 0, start = 0; i < gigStarts.length; i++) {
+            start += startColumn.readSigned();
+            gigStarts[i] = start;
+        }
+
+        String perfSql = "SELECT ag.gigid, a.actname, " + String.format(GigSystem.EPOCH_MINUTE, "ag.ontime") + " AS onminute, " +
+                         "ag.duration, ag.actgigfee " +
+                         "FROM ACT_GIG ag JOIN ACT a ON a.actid = ag.actid " +
+                         "WHERE ag.gigid = ANY(?) " +
+                         "ORDER BY ag.gigid, ag.ontime";
+        Columns perfs = new Columns(4);
+        int perfCount = 0;
+        try (PreparedStatement stmt = GigSystem.prepare(conn, perfSql)) {
+            stmt.setArray(1, gigArray);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int gig = gigIndex.get(rs.getInt("gigid"));
+                    perfCounts[gig]++;
+                    perfs.column(0).writeVarint(ref(dictionary, rs.getString("actname")));
+                    perfs.column(1).writeSigned(rs.getInt("onminute") - gigStarts[gig]);
+                    perfs.column(2).writeVarint(rs.getInt("duration"));
+                    perfs.column(3).writeVarint(rs.getInt("actgigfee"));
+                    perfCount++;
+                }
+            }
+        }
+
+        String ticketSql = "SELECT gigid, ticketid, customername, customeremail, pricetype, cost FROM TICKET " +
+                           "WHERE gigid = ANY(?) " +
+                           "ORDER BY gigid, ticketid";
+        Columns tickets = new Columns(5);
+        int ticketCount = 0;
+        try (PreparedStatement stmt = GigSystem.prepare(conn, ticketSql)) {
+            stmt.setArray(1, gigArray);
+            stmt.setFetchSize(10_000);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int previousId = 0;
+                while (rs.next()) {
+                    int ticketId = rs.getInt("ticketid");
+                    ticketCounts[gigIndex.get(rs.getInt("gigid"))]++;
+                    tickets.column(0).writeSigned(ticketId - previousId);
+                    tickets.column(1).writeVarint(ref(dictionary, rs.getString("customername")));
+                    tickets.column(2).writeVarint(ref(dictionary, rs.getString("customeremail")));
+                    tickets.column(3).write(rs.getString("pricetype").charAt(0));
+                    tickets.column(4).writeVarint(rs.getInt("cost"));
+                    previousId = ticketId;
+                    ticketCount++;
+                }
+            }
+        }
+        for (int i = 0; i < gigStarts.length; i++) {
+            gigs.column(6).writeVarint(perfCounts[i]);
+            gigs.column(7).writeVarint(ticketCounts[i]);
+        }
+
+        Output payload = new Output();
+        payload.writeVarint(dictionary.size());
+        for (String value : dictionary.keySet()) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            payload.writeVarint(bytes.length);
+            payload.write(bytes, 0, bytes.length);
+        }
+        gigs.writeTo(payload, gigStarts.length);
+        perfs.writeTo(payload, perfCount);
+        tickets.writeTo(payload, ticketCount);
+        return payload.toByteArray();
+    }
+
+    private static int ref(Map<String, Integer> dictionary, String value) {
+        return dictionary.computeIfAbsent(value, v -> dictionary.size());
+    }
+
+    // Writes a segment after the last complete one (overwriting a torn one), forces it to disk, and maps the file again
+    private static State append(State current, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer segment = ByteBuffer.allocate(SEGMENT_HEADER + payload.length);
+        segment.putInt(MAGIC).putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        try (FileChannel channel = FileChannel.open(current.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(current.validLength);
+            long position = current.validLength;
+            while (segment.hasRemaining()) {
+                position += channel.write(segment, position);
+            }
+            channel.force(true);
+        }
+        return load(current.file);
+    }
+
+    private static State load(Path file) throws IOException {
+        List<ByteBuffer> segments = new ArrayList<>();
+        Set<Integer> gigIds = new HashSet<>();
+        long position = 0;
+        long tickets = 0;
+        if (Files.exists(file)) {
+            MappedByteBuffer mapped;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            while (position + SEGMENT_HEADER <= mapped.limit()) {
+                int offset = (int) position;
+                int length = mapped.getInt(offset + 4);
+                if (mapped.getInt(offset) != MAGIC || length <= 0 || offset + SEGMENT_HEADER + length > mapped.limit()) {
+                    break;
+                }
+                ByteBuffer payload = mapped.duplicate();
+                payload.position(offset + SEGMENT_HEADER).limit(offset + SEGMENT_HEADER + length);
+                payload = payload.slice();
+                CRC32 crc = new CRC32();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != mapped.getInt(offset + 8)) {
+                    break;
+                }
+                tickets += readGigIds(payload.duplicate(), gigIds);
+                segments.add(payload);
+                position += SEGMENT_HEADER + length;
+            }
+        }
+        return new State(file, Collections.unmodifiableList(segments), gigIds, position, tickets);
+    }
+
+    // Adds a segment's gig ids to the set, and returns its ticket count
+    private static int readGigIds(ByteBuffer payload, Set<Integer> gigIds) {
+        Input in = new Input(payload);
+        in.skipDictionary();
+        int gigCount = in.readVarint();
+        Input ids = in.column();
+        for (int i = 0, gigId = 0; i < gigCount; i++) {
+            gigId += ids.readVarint();
+            gigIds.add(gigId);
+        }
+        for (int c = 1; c < 8; c++) {
+            in.column();
+        }
+        in.readVarint();
+        for (int c = 0; c < 4; c++) {
+            in.column();
+        }
+        return in.readVarint();
+    }
+
+    private static void aggregate(ByteBuffer payload, Aggregates out) {
+        Input in = new Input(payload);
+        String[] strings = in.readDictionary();
+
+        int gigCount = in.readVarint();
+        in.column(); // gigid
+        in.column(); // venueid
+        Input startColumn = in.column();
+        in.column(); // title
+        Input headlineColumn = in.column();
+        Input flagColumn = in.column();
+        in.column(); // performance count
+        Input ticketCountColumn = in.column();
+
+        in.readVarint();
+        for (int c = 0; c < 4; c++) {
+            in.column();
+        }
+
+        in.readVarint();
+        in.column(); // ticketid
+        Input nameColumn = in.column();
+        Input emailColumn = in.column();
+
+        for (int i = 0, start = 0; i < gigCount; i++) {
+            start += startColumn.readSigned();
+            String[] headlines = new String[headlineColumn.readVarint()];
+            for (int h = 0; h < headlines.length; h++) {
+                headlines[h] = strings[headlineColumn.readVarint()];
+            }
+            int flags = flagColumn.readByte();
+            int tickets = ticketCountColumn.readVarint();
+            int[] emails = new int[tickets];
+            for (int t = 0; t < tickets; t++) {
+                String name = strings[nameColumn.readVarint()];
+                emails[t] = emailColumn.readVarint();
+                out.namesByEmail.putIfAbsent(strings[emails[t]], name);
+            }
+            if ((flags & FLAG_ACTIVE) == 0) {
+                continue;
+            }
+            // Every act tied for the last finish is a headline act, and each counts all of the gig's tickets
+            for (String act : headlines) {
+                Map<String, Integer> byEmail = out.ticketsByEmail.computeIfAbsent(act, k -> new HashMap<>());
+                if (tickets > 0) {
+                    int year = LocalDateTime.ofEpochSecond(start * 60L, 0, ZoneOffset.UTC).getYear();
+                    out.ticketsByYear.computeIfAbsent(act, k -> new HashMap<>()).merge(year, tickets, Integer::sum);
+                }
+                for (int t = 0; t < tickets; t++) {
+                    byEmail.merge(strings[emails[t]], 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    // One growable buffer per column of a section
+    private static final class Columns {
+        private final Output[] columns;
+
+        Columns(int count) {
+            columns = new Output[count];
+            for (int i = 0; i < count; i++) {
+                columns[i] = new Output();
+            }
+        }
+
+        Output column(int i) {
+            return columns[i];
+        }
+
+        void writeTo(Output out, int rows) {
+            out.writeVarint(rows);
+            for (Output column : columns) {
+                out.writeVarint(column.size());
+                column.writeTo(out);
+            }
+        }
+    }
+
+    private static final class Output extends ByteArrayOutputStream {
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write(value);
+        }
+
+        void writeSigned(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        void writeTo(Output out) {
+            out.write(buf, 0, count);
+        }
+    }
+
+    private static final class Input {
+        private final ByteBuffer buffer;
+
+        Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int readVarint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        int readSigned() {
+            int value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int readByte() {
+            return buffer.get() & 0xFF;
+        }
+
+        // The next length-prefixed column as its own input, skipping past it in this one
+        Input column() {
+            int length = readVarint();
+            ByteBuffer column = buffer.slice();
+            column.limit(length);
+            buffer.position(buffer.position() + length);
+            return new Input(column);
+        }
+
+        String[] readDictionary() {
+            String[] strings = new String[readVarint()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[readVarint()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return strings;
+        }
+
+        void skipDictionary() {
+            int count = readVarint();
+            for (int i = 0; i < count; i++) {
+                int length = readVarint();
+                buffer.position(buffer.position() + length);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Optional seat-inventory allocation for task3.
+ *
+ * By default a sale is checked by the capacity trigger, which counts the gig's TICKET rows on every
+ * insert. With seat inventory enabled, task2 creates one SEAT row per seat of the venue and task3
+ * claims a free one with SELECT ... FOR UPDATE SKIP LOCKED, so concurrent buyers take different
+ * seats instead of waiting on each other, and capacity cannot be oversold.
+ *
+ * Once a gig has seats, the capacity trigger no longer counts its tickets. Instead the claim_ticket_seat
+ * trigger gives a seat to any ticket inserted without one (the SalesJournal flusher, direct inserts, task3
+ * with seat inventory disabled), and refuses the ticket when none is free. Gigs created before seat
+ * inventory was enabled need their seats created (createAllSeats(), or CWK_SEATS=1 ./run.sh reset); until
+ * then task3 sells them without a seat.
+ */
+public class SeatInventory {
+
+    public enum Outcome {
+        SOLD,
+        // Every seat has a committed ticket
+        SOLD_OUT,
+        // Free seats exist, but all of them are locked by buyers still in their transactions; try again
+        CONTENDED,
+        // The gig has no SEAT rows (created before seat inventory was enabled), so nothing was claimed
+        NO_SEATS,
+        // The gig was cancelled or does not exist
+        GIG_INACTIVE
+    }
+
+    private static volatile boolean enabled = false;
+
+    private SeatInventory() {
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Creates the SEAT rows for a gig. Tickets already sold take the first seats, so this also converts
+     * an existing gig to seat inventory.
+     * @return Number of seats created (0 if the gig already had them)
+     */
+    public static int createSeats(Connection conn, int gigId) throws SQLException {
+        try (PreparedStatement stmt = GigSystem.prepare(conn, "SELECT create_gig_seats(?)")) {
+            stmt.setInt(1, gigId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Creates the SEAT rows of every active gig that does not have them yet
+     * @return Number of seats created
+     */
+    public static int createAllSeats(Connection conn) throws SQLException {
+        String sql = "SELECT COALESCE(SUM(create_gig_seats(gigid)), 0) FROM GIG WHERE gigstatus = 'G'";
+        try (PreparedStatement stmt = GigSystem.prepare(conn, sql);
+             ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Claims a free seat, assigns it a new ticketid and inserts the ticket, in one statement.
+     * The seat is assigned before the ticket is inserted, so the claim_ticket_seat trigger finds the ticket
+     * already seated and does not claim a second seat.
+     * The seat stays locked until the surrounding transaction ends; a rollback frees it again.
+     * If no seat could be claimed, the gig's seats are counted without SKIP LOCKED to tell a sold-out gig
+     * from one whose free seats are only locked by other buyers, or one with no SEAT rows.
+     */
+    public static Outcome claimAndInsert(Connection conn, int gigId, String name, String email, char priceType, int cost, int customerId) throws SQLException {
+        String sql = "WITH seat AS (" +
+                     "    SELECT seatno FROM SEAT " +
+                     "    WHERE gigid = ? AND ticketid IS NULL " +
+                     "    ORDER BY seatno LIMIT 1 " +
+                     "    FOR UPDATE SKIP LOCKED" +
+                     "), assigned AS (" +
+                     "    UPDATE SEAT s SET ticketid = nextval('ticket_ticketid_seq') " +
+                     "    FROM seat " +
+                     "    WHERE s.gigid = ? AND s.seatno = seat.seatno " +
+                     "      AND EXISTS (SELECT 1 FROM GIG WHERE gigid = ? AND gigstatus = 'G') " +
+                     "    RETURNING s.ticketid" +
+                     "), ticket AS (" +
+                     "    INSERT INTO TICKET (ticketid, gigid, customername, customeremail, pricetype, cost, customerid) " +
+                     "    SELECT assigned.ticketid, ?, ?, ?, ?, ?, ? FROM assigned " +
+                     "    RETURNING ticketid" +
+                     ") " +
+                     "SELECT (SELECT COUNT(*) FROM seat) AS claimed, (SELECT COUNT(*) FROM ticket) AS sold";
+        try (PreparedStatement stmt = GigSystem.prepare(conn, sql)) {
+            stmt.setInt(1, gigId);
+            stmt.setInt(2, gigId);
+            stmt.setInt(3, gigId);
+            stmt.setInt(4, gigId);
+            stmt.setString(5, name);
+            stmt.setString(6, email);
+            stmt.setString(7, String.valueOf(priceType));
+            stmt.setInt(8, cost);
+            stmt.setInt(9, customerId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                if (rs.getInt("claimed") == 0) {
+                    return unclaimed(conn, gigId);
+                }
+                return rs.getInt("sold") == 1 ? Outcome.SOLD : Outcome.GIG_INACTIVE;
+            }
+        }
+    }
+
+    // Why claimAndInsert() found no seat: a plain read does not wait for row locks, and seats claimed by
+    // transactions that have not committed still have no ticketid
+    private static Outcome unclaimed(Connection conn, int gigId) throws SQLException {
+        String sql = "SELECT COUNT(*) AS seats, COUNT(*) FILTER (WHERE ticketid IS NULL) AS free FROM SEAT WHERE gigid = ?";
+        try (PreparedStatement stmt = GigSystem.prepare(conn, sql)) {
+            stmt.setInt(1, gigId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                if (rs.getInt("seats") == 0) {
+                    return Outcome.NO_SEATS;
+                }
+                return rs.getInt("free") == 0 ? Outcome.SOLD_OUT : Outcome.CONTENDED;
+            }
+        }
+    }
+}
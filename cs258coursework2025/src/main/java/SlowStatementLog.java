@@ -0,0 +1,383 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Optional slow-statement log for the statements GigSystem prepares.
+ *
+ * While enabled, GigSystem.prepare() wraps each PreparedStatement in a proxy that records its bind values
+ * and times every execute. An execute that takes at least the threshold is logged with its SQL, bind values,
+ * row count (rows read, for a query; rows changed, for an update) and the GigSystem method that was called
+ * (e.g. task3). The entry is handed to a background thread that passes it to the sink, so a slow sink never
+ * slows a task down. If the queue is full, entries are dropped and counted.
+ *
+ * Only executes over the threshold pay for more than the timing: their ResultSet is wrapped to count rows,
+ * and the calling task is found from the stack. While the log is disabled, prepare() returns the driver's
+ * statement unwrapped.
+ *
+ * The same proxy writes the GigEvents statement events, so it is also installed while a flight recording
+ * has them enabled.
+ */
+public class SlowStatementLog {
+
+    private static final int QUEUE_SIZE = 4096;
+    private static final int MAX_VALUE_LENGTH = 100;
+
+    /**
+     * One slow execute
+     */
+    public static final class Entry {
+        private final LocalDateTime at;
+        private final String task;
+        private final String sql;
+        private final String params;
+        private final long rows;
+        private final double millis;
+
+        Entry(LocalDateTime at, String task, String sql, String params, long rows, double millis) {
+            this.at = at;
+            this.task = task;
+            this.sql = sql;
+            this.params = params;
+            this.rows = rows;
+            this.millis = millis;
+        }
+
+        public LocalDateTime at() {
+            return at;
+        }
+
+        /**
+         * @return the outermost GigSystem method on the stack (e.g. task4), or "?" if the statement was not run from one
+         */
+        public String task() {
+            return task;
+        }
+
+        public String sql() {
+            return sql;
+        }
+
+        /**
+         * @return the bind values in parameter order, e.g. [42, 'Jan Smith']
+         */
+        public String params() {
+            return params;
+        }
+
+        public long rows() {
+            return rows;
+        }
+
+        public double millis() {
+            return millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s %.1f ms rows=%d params=%s sql=%s", at, task, millis, rows, params, sql);
+        }
+    }
+
+    private static volatile long thresholdNanos = -1;
+    private static volatile BlockingQueue<Entry> queue;
+    private static Thread writer;
+    private static final AtomicLong logged = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private SlowStatementLog() {
+    }
+
+    /**
+     * Starts logging executes that take at least thresholdMillis to the sink (called on a background thread)
+     */
+    public static synchronized void enable(long thresholdMillis, Consumer<Entry> sink) {
+        disable();
+        BlockingQueue<Entry> entries = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        writer = new Thread(() -> {
+            try {
+                while (true) {
+                    Entry entry = entries.take();
+                    try {
+                        sink.accept(entry);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // disable(): pass on what is left, then stop
+                Entry entry;
+                while ((entry = entries.poll()) != null) {
+                    sink.accept(entry);
+                }
+            }
+        }, "slow-statement-log");
+        writer.setDaemon(true);
+        writer.start();
+        queue = entries;
+        thresholdNanos = thresholdMillis * 1_000_000L;
+    }
+
+    /**
+     * Starts logging executes that take at least thresholdMillis to a file, one line per entry (appended)
+     */
+    public static void enable(long thresholdMillis, Path file) throws IOException {
+        BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        enable(thresholdMillis, entry -> {
+            try {
+                out.write(entry.toString());
+                out.newLine();
+                out.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Stops logging; entries already queued are still passed to the sink
+     */
+    public static synchronized void disable() {
+        thresholdNanos = -1;
+        queue = null;
+        if (writer != null) {
+            writer.interrupt();
+            writer = null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return thresholdNanos >= 0;
+    }
+
+    public static long logged() {
+        return logged.get();
+    }
+
+    public static long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return stmt, timed and logged if the log is enabled or a flight recording wants statement events
+     */
+    static PreparedStatement wrap(PreparedStatement stmt, String sql) {
+        if (!isEnabled() && !GigEvents.statementsRecorded()) {
+            return stmt;
+        }
+        return (PreparedStatement) Proxy.newProxyInstance(SlowStatementLog.class.getClassLoader(),
+            new Class<?>[] {PreparedStatement.class}, new StatementHandler(stmt, sql));
+    }
+
+    private static void submit(Entry entry) {
+        BlockingQueue<Entry> entries = queue;
+        if (entries == null) {
+            return;
+        }
+        if (entries.offer(entry)) {
+            logged.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    // The outermost GigSystem frame, i.e. the method that was called from outside GigSystem
+    private static String callingTask() {
+        return StackWalker.getInstance().walk(frames -> frames
+            .filter(f -> f.getClassName().equals("GigSystem"))
+            .reduce((first, second) -> second)
+            .map(StackWalker.StackFrame::getMethodName)
+            .orElse("?"));
+    }
+
+    static String render(Object[] params) {
+        if (params == null) {
+            return "[]";
+        }
+        StringBuilder out = new StringBuilder("[");
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) {
+                out.append(", ");
+            }
+            Object value = params[i];
+            String text = value != null && value.getClass().isArray()
+                ? Array.getLength(value) + " items"
+                : String.valueOf(value);
+            if (text.length() > MAX_VALUE_LENGTH) {
+                text = text.substring(0, MAX_VALUE_LENGTH) + "...";
+            }
+            if (value instanceof String) {
+                out.append('\'').append(text).append('\'');
+            } else {
+                out.append(text);
+            }
+        }
+        return out.append(']').toString();
+    }
+
+    private static final class StatementHandler implements InvocationHandler {
+        private final PreparedStatement target;
+        private final String sql;
+        private Object[] params;
+
+        // A slow or recorded query whose rows are still being read; finished once its ResultSet or the
+        // statement is closed
+        private PendingQuery pending;
+
+        StatementHandler(PreparedStatement target, String sql) {
+            this.target = target;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                return execute(method, args);
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                params = null;
+            } else if (name.equals("close")) {
+                finishPending();
+            }
+            return call(method, args);
+        }
+
+        private Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void bind(int index, Object value) {
+            if (params == null || params.length < index) {
+                params = params == null ? new Object[index] : Arrays.copyOf(params, index);
+            }
+            params[index - 1] = value;
+        }
+
+        private Object execute(Method method, Object[] args) throws Throwable {
+            finishPending();
+            GigEvents.StatementEvent event = new GigEvents.StatementEvent();
+            event.begin();
+            long start = System.nanoTime();
+            Object result;
+            try {
+                result = call(method, args);
+            } catch (SQLException e) {
+                // e.g. a trigger's RAISE EXCEPTION; recorded, but not slow-logged (the task reports it)
+                event.end();
+                if (event.shouldCommit()) {
+                    GigEvents.statementFailed(event, e);
+                    PendingQuery failed = new PendingQuery(null, render(params), 0, event);
+                    failed.rows = -1;
+                    finish(failed);
+                }
+                throw e;
+            }
+            long elapsed = System.nanoTime() - start;
+            event.end();
+            long threshold = thresholdNanos;
+            boolean slow = threshold >= 0 && elapsed >= threshold;
+            boolean recorded = event.shouldCommit();
+            if (!slow && !recorded) {
+                return result;
+            }
+            PendingQuery query = new PendingQuery(slow ? callingTask() : null, render(params), elapsed, recorded ? event : null);
+            if (result instanceof ResultSet) {
+                pending = query;
+                return Proxy.newProxyInstance(SlowStatementLog.class.getClassLoader(),
+                    new Class<?>[] {ResultSet.class}, new ResultSetHandler((ResultSet) result, query, this));
+            }
+            query.rows = result instanceof Number ? ((Number) result).longValue() : target.getUpdateCount();
+            finish(query);
+            return result;
+        }
+
+        void finishPending() {
+            PendingQuery query = pending;
+            if (query != null) {
+                pending = null;
+                finish(query);
+            }
+        }
+
+        private void finish(PendingQuery query) {
+            if (query.event != null) {
+                query.event.sql = sql;
+                query.event.parameters = query.params;
+                query.event.rows = query.rows;
+                query.event.commit();
+            }
+            if (query.task != null) {
+                submit(new Entry(LocalDateTime.now(), query.task, sql, query.params, query.rows, query.nanos / 1e6));
+            }
+        }
+    }
+
+    private static final class PendingQuery {
+        final String task; // null unless the execute was slow
+        final String params;
+        final long nanos;
+        final GigEvents.StatementEvent event; // null unless a recording wants it
+        long rows;
+
+        PendingQuery(String task, String params, long nanos, GigEvents.StatementEvent event) {
+            this.task = task;
+            this.params = params;
+            this.nanos = nanos;
+            this.event = event;
+        }
+    }
+
+    // Counts the rows read from a slow or recorded query's ResultSet
+    private static final class ResultSetHandler implements InvocationHandler {
+        private final ResultSet target;
+        private final PendingQuery query;
+        private final StatementHandler statement;
+
+        ResultSetHandler(ResultSet target, PendingQuery query, StatementHandler statement) {
+            this.target = target;
+            this.query = query;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            String name = method.getName();
+            if (name.equals("next") && Boolean.TRUE.equals(result)) {
+                query.rows++;
+            } else if (name.equals("close")) {
+                statement.finishPending();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process set of gigs that cannot sell another ticket, so task3 can reject a purchase for them
+ * before it opens a transaction.
+ *
+ * - A gig is marked sold out when a sale fails on capacity (the capacity trigger, or no free SEAT row).
+ * - A gig is marked closed when task4 cancels it.
+ * - reopen() removes a gig again, e.g. after tickets are refunded and deleted outside GigSystem.
+ *
+ * Only writes made through GigSystem in this JVM are seen. A gig that another process frees up stays
+ * marked until reopen() or clear() is called.
+ */
+public class SoldOutRegistry {
+
+    private static final Set<Integer> soldOut = ConcurrentHashMap.newKeySet();
+    private static final Set<Integer> closed = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicLong fastRejections = new AtomicLong();
+
+    private SoldOutRegistry() {
+    }
+
+    /**
+     * @return true if a purchase for the gig can be rejected without asking the database
+     */
+    public static boolean rejects(int gigid) {
+        if (soldOut.contains(gigid) || closed.contains(gigid)) {
+            fastRejections.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public static boolean isSoldOut(int gigid) {
+        return soldOut.contains(gigid);
+    }
+
+    public static void markSoldOut(int gigid) {
+        soldOut.add(gigid);
+    }
+
+    public static void markClosed(int gigid) {
+        closed.add(gigid);
+    }
+
+    public static void reopen(int gigid) {
+        soldOut.remove(gigid);
+        closed.remove(gigid);
+    }
+
+    public static void clear() {
+        soldOut.clear();
+        closed.clear();
+    }
+
+    public static long fastRejections() {
+        return fastRejections.get();
+    }
+}
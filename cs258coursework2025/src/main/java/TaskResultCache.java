@@ -0,0 +1,167 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caches the results of the analytic tasks (5-8), keyed by task and arguments. Results are
+ * ColumnarResult, which is immutable, so an entry is shared between callers without copying.
+ *
+ * Every entry records the data versions it was computed from. task2/task3/task4 bump the
+ * versions after they commit, so an entry is reused only while nothing it depends on has changed:
+ * - TICKETS: ticket sales and refunds (affects tasks 5, 6, 7, 8)
+ * - LINEUPS: gigs created or cancelled, acts removed or moved (affects tasks 5, 6, 7)
+ *
+ * The cache only sees writes made through GigSystem in this JVM, so it is off by default.
+ * Enable it with enable(maxEntries) when GigSystem is the only writer.
+ */
+public class TaskResultCache {
+
+    public static final int TICKETS = 1;
+    public static final int LINEUPS = 2;
+
+    private static final AtomicLong ticketVersion = new AtomicLong();
+    private static final AtomicLong lineupVersion = new AtomicLong();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong stale = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private static volatile int maxEntries = 0;
+
+    // Access-ordered, so removeEldestEntry evicts the least recently used result
+    private static final LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            if (size() > maxEntries) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static class CachedResult {
+        final ColumnarResult result;
+        final int dependencies;
+        final long ticketVersion;
+        final long lineupVersion;
+
+        CachedResult(ColumnarResult result, int dependencies, long ticketVersion, long lineupVersion) {
+            this.result = result;
+            this.dependencies = dependencies;
+            this.ticketVersion = ticketVersion;
+            this.lineupVersion = lineupVersion;
+        }
+
+        boolean isCurrent() {
+            if ((dependencies & TICKETS) != 0 && ticketVersion != TaskResultCache.ticketVersion.get()) {
+                return false;
+            }
+            if ((dependencies & LINEUPS) != 0 && lineupVersion != TaskResultCache.lineupVersion.get()) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private TaskResultCache() {
+    }
+
+    public static synchronized void enable(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        TaskResultCache.maxEntries = maxEntries;
+    }
+
+    public static synchronized void disable() {
+        maxEntries = 0;
+        entries.clear();
+    }
+
+    public static boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Returns the cached result for key if it is still current, otherwise runs loader and caches its result.
+     * A null result (the task failed) is returned but not cached.
+     * @param key Task name plus any arguments
+     * @param dependencies TICKETS and/or LINEUPS
+     */
+    public static ColumnarResult get(String key, int dependencies, Supplier<ColumnarResult> loader) {
+        return get(key, dependencies, true, loader);
+    }
+
+    /**
+     * As get(key, dependencies, loader), but a result loaded when store is false is returned without being
+     * cached. Used for reads from a replica: a replica that lags the primary would otherwise cache old data
+     * under the current versions.
+     */
+    public static ColumnarResult get(String key, int dependencies, boolean store, Supplier<ColumnarResult> loader) {
+        if (!isEnabled()) {
+            return loader.get();
+        }
+        synchronized (TaskResultCache.class) {
+            CachedResult entry = entries.get(key);
+            if (entry != null) {
+                if (entry.isCurrent()) {
+                    hits.incrementAndGet();
+                    GigEvents.cacheLookup("TaskResultCache", key, true);
+                    return entry.result;
+                }
+                stale.incrementAndGet();
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        GigEvents.cacheLookup("TaskResultCache", key, false);
+
+        // Read the versions before computing: a write that commits while we compute makes this entry stale
+        long tickets = ticketVersion.get();
+        long lineups = lineupVersion.get();
+        ColumnarResult result = loader.get();
+        if (result != null && store) {
+            synchronized (TaskResultCache.class) {
+                if (isEnabled()) {
+                    entries.put(key, new CachedResult(result, dependencies, tickets, lineups));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Called after a committed change to TICKET (sale or refund)
+     */
+    public static void ticketsChanged() {
+        ticketVersion.incrementAndGet();
+    }
+
+    /**
+     * Called after a committed change to GIG or ACT_GIG (new gig, cancelled gig, changed lineup)
+     */
+    public static void lineupsChanged() {
+        lineupVersion.incrementAndGet();
+    }
+
+    public static long hits() {
+        return hits.get();
+    }
+
+    public static long misses() {
+        return misses.get();
+    }
+
+    public static String stats() {
+        long h = hits.get();
+        long m = misses.get();
+        double hitRate = h + m == 0 ? 0 : 100.0 * h / (h + m);
+        synchronized (TaskResultCache.class) {
+            return String.format("entries=%d/%d hits=%d misses=%d (%.1f%% hit rate) stale=%d evictions=%d",
+                entries.size(), maxEntries, h, m, hitRate, stale.get(), evictions.get());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Result of GigSystem.cancelActEverywhere(): one outcome per gig the act was cancelled from (in gigid
+ * order), and every customer affected by a gig cancellation.
+ */
+public class TourCancellation {
+
+    /**
+     * What happened to one gig, with the same result task4 would have returned for it
+     */
+    public static final class GigOutcome {
+        private final int gigId;
+        private final boolean gigCancelled;
+        private final String[][] result;
+
+        GigOutcome(int gigId, boolean gigCancelled, String[][] result) {
+            this.gigId = gigId;
+            this.gigCancelled = gigCancelled;
+            this.result = result;
+        }
+
+        public int gigId() {
+            return gigId;
+        }
+
+        /**
+         * @return true for Situation B (the whole gig was cancelled), false for Situation A (only the act was removed)
+         */
+        public boolean gigCancelled() {
+            return gigCancelled;
+        }
+
+        /**
+         * @return the updated lineup (act name, on time, off time) in Situation A, or the gig's customers
+         *         (name, email, ordered by name) in Situation B
+         */
+        public String[][] result() {
+            return result;
+        }
+    }
+
+    private final List<GigOutcome> outcomes;
+    private final String[][] affectedCustomers;
+
+    TourCancellation(List<GigOutcome> outcomes) {
+        this.outcomes = Collections.unmodifiableList(outcomes);
+
+        // Distinct customers of all the cancelled gigs, ordered by name then email
+        List<String[]> customers = new ArrayList<>();
+        for (GigOutcome outcome : outcomes) {
+            if (outcome.gigCancelled) {
+                Collections.addAll(customers, outcome.result);
+            }
+        }
+        customers.sort(Comparator.<String[], String>comparing(c -> c[0]).thenComparing(c -> c[1]));
+        List<String[]> distinct = new ArrayList<>();
+        for (String[] customer : customers) {
+            String[] last = distinct.isEmpty() ? null : distinct.get(distinct.size() - 1);
+            if (last == null || !last[0].equals(customer[0]) || !last[1].equals(customer[1])) {
+                distinct.add(customer);
+            }
+        }
+        this.affectedCustomers = distinct.toArray(new String[0][]);
+    }
+
+    public List<GigOutcome> outcomes() {
+        return outcomes;
+    }
+
+    public int cancelledGigs() {
+        int count = 0;
+        for (GigOutcome outcome : outcomes) {
+            if (outcome.gigCancelled) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return name and email of every customer with a ticket for a cancelled gig, each once, ordered by name
+     */
+    public String[][] affectedCustomers() {
+        return affectedCustomers;
+    }
+}
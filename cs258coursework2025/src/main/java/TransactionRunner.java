@@ -0,0 +1,245 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the write tasks (task2-task4) as transactions:
+ * - sets the isolation level configured for the task (READ COMMITTED unless setIsolation() says otherwise),
+ * - commits, or rolls back if the work throws (an SQLException, or any RuntimeException or Error, which is
+ *   rethrown without a retry),
+ * - retries the whole work after a serialization failure (40001) or a deadlock (40P01), with jittered
+ *   exponential backoff, up to maxAttempts,
+ * - runs the work's afterCommit() actions only once a commit has succeeded, each on its own (one that throws
+ *   is reported and does not stop the rest),
+ * - restores the connection's auto-commit setting.
+ *
+ * The work may roll back itself with rollback(conn) and return early (the commit is then a no-op), which also
+ * drops the afterCommit() actions it registered. It must not call conn.rollback() itself, and must not commit.
+ * Retry counts are kept per task and reported by stats(), and each attempt is a GigEvents transaction event.
+ */
+public class TransactionRunner {
+
+    @FunctionalInterface
+    public interface Work<T> {
+        T run() throws SQLException;
+    }
+
+    private static class Metrics {
+        final AtomicLong transactions = new AtomicLong();
+        final AtomicLong retries = new AtomicLong();
+        final AtomicLong exhausted = new AtomicLong();
+    }
+
+    private static final Map<String, Integer> isolationByTask = new ConcurrentHashMap<>();
+    private static final Map<String, Metrics> metricsByTask = new ConcurrentHashMap<>();
+    private static final ThreadLocal<List<Runnable>> afterCommit = new ThreadLocal<>();
+    private static final ThreadLocal<Integer> currentLevel = new ThreadLocal<>();
+
+    private static volatile int maxAttempts = 5;
+    private static volatile long baseBackoffMillis = 5;
+    private static volatile long maxBackoffMillis = 200;
+
+    private TransactionRunner() {
+    }
+
+    /**
+     * @param level A Connection.TRANSACTION_* constant
+     */
+    public static void setIsolation(String task, int level) {
+        isolationByTask.put(task, level);
+    }
+
+    /**
+     * Runs task2, task3 and task4 at the given isolation level
+     */
+    public static void setWriteIsolation(int level) {
+        setIsolation("task2", level);
+        setIsolation("task3", level);
+        setIsolation("task4", level);
+    }
+
+    public static int isolation(String task) {
+        return isolationByTask.getOrDefault(task, Connection.TRANSACTION_READ_COMMITTED);
+    }
+
+    /**
+     * @param attempts Total tries per transaction, including the first
+     * @param baseMillis Backoff before the first retry; each further retry doubles it (up to maxMillis)
+     */
+    public static void setRetryPolicy(int attempts, long baseMillis, long maxMillis) {
+        if (attempts <= 0) {
+            throw new IllegalArgumentException("attempts must be positive");
+        }
+        maxAttempts = attempts;
+        baseBackoffMillis = baseMillis;
+        maxBackoffMillis = maxMillis;
+    }
+
+    /**
+     * Registers an action to run after the current transaction commits (e.g. invalidating a cache).
+     * Dropped if the transaction rolls back or is retried.
+     */
+    public static void afterCommit(Runnable action) {
+        List<Runnable> actions = afterCommit.get();
+        if (actions == null) {
+            throw new IllegalStateException("afterCommit() called outside TransactionRunner.run()");
+        }
+        actions.add(action);
+    }
+
+    /**
+     * Whether the calling thread is in run() at REPEATABLE READ or SERIALIZABLE, where the whole transaction
+     * reads from the snapshot taken by its first statement
+     */
+    static boolean usesTransactionSnapshot() {
+        Integer level = currentLevel.get();
+        return level != null && level >= Connection.TRANSACTION_REPEATABLE_READ;
+    }
+
+    /**
+     * Rolls back the current transaction from inside the work, which should then return.
+     * Drops the afterCommit() actions registered so far, since the changes they follow were undone.
+     */
+    public static void rollback(Connection conn) throws SQLException {
+        conn.rollback();
+        List<Runnable> actions = afterCommit.get();
+        if (actions != null) {
+            actions.clear();
+        }
+    }
+
+    /**
+     * Runs work in a transaction on conn
+     * @param task Task name, used for the isolation level and the metrics
+     * @return what work returned in the attempt that committed
+     * @throws SQLException the work's error after rolling back, or the last serialization failure once
+     *         every attempt has been used
+     */
+    public static <T> T run(Connection conn, String task, Work<T> work) throws SQLException {
+        Metrics metrics = metricsByTask.computeIfAbsent(task, t -> new Metrics());
+        metrics.transactions.incrementAndGet();
+        int level = isolation(task);
+        boolean originalAutoCommit = conn.getAutoCommit();
+        try {
+            conn.setAutoCommit(false);
+            currentLevel.set(level);
+            for (int attempt = 1; ; attempt++) {
+                List<Runnable> actions = new ArrayList<>();
+                afterCommit.set(actions);
+                GigEvents.TransactionEvent event = new GigEvents.TransactionEvent();
+                event.begin();
+                try {
+                    if (level != Connection.TRANSACTION_READ_COMMITTED) {
+                        // First statement of the transaction, so no extra round trip for the default level
+                        try (Statement stmt = conn.createStatement()) {
+                            stmt.execute("SET TRANSACTION ISOLATION LEVEL " + levelName(level));
+                        }
+                    }
+                    T result = work.run();
+                    conn.commit();
+                    GigEvents.transactionEnded(event, task, attempt, levelName(level), null);
+                    afterCommit.remove();
+                    runAfterCommit(actions);
+                    return result;
+                } catch (RuntimeException | Error e) {
+                    // Roll back before the finally restores auto-commit, which would otherwise commit the half-done work
+                    afterCommit.remove();
+                    rollbackQuietly(conn);
+                    GigEvents.transactionEnded(event, task, attempt, levelName(level), e);
+                    throw e;
+                } catch (SQLException e) {
+                    afterCommit.remove();
+                    rollbackQuietly(conn);
+                    GigEvents.transactionEnded(event, task, attempt, levelName(level), e);
+                    if (!isRetryable(e)) {
+                        throw e;
+                    }
+                    if (attempt >= maxAttempts) {
+                        metrics.exhausted.incrementAndGet();
+                        throw e;
+                    }
+                    metrics.retries.incrementAndGet();
+                    backoff(attempt);
+                }
+            }
+        } finally {
+            currentLevel.remove();
+            conn.setAutoCommit(originalAutoCommit);
+        }
+    }
+
+    private static void runAfterCommit(List<Runnable> actions) {
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                // The transaction has committed; report it and still run the remaining actions
+                e.printStackTrace();
+            }
+        }
+    }
+
+    static boolean isRetryable(SQLException e) {
+        String state = e.getSQLState();
+        return "40001".equals(state) || "40P01".equals(state);
+    }
+
+    // Full jitter: a random wait between 0 and base * 2^(attempt-1), capped at maxBackoffMillis
+    private static void backoff(int attempt) throws SQLException {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting to retry", "57014", e);
+        }
+    }
+
+    private static void rollbackQuietly(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException rollbackEx) {
+            rollbackEx.printStackTrace();
+        }
+    }
+
+    private static String levelName(int level) {
+        switch (level) {
+            case Connection.TRANSACTION_SERIALIZABLE:
+                return "SERIALIZABLE";
+            case Connection.TRANSACTION_REPEATABLE_READ:
+                return "REPEATABLE READ";
+            case Connection.TRANSACTION_READ_UNCOMMITTED:
+                return "READ UNCOMMITTED";
+            default:
+                return "READ COMMITTED";
+        }
+    }
+
+    public static long retries(String task) {
+        Metrics metrics = metricsByTask.get(task);
+        return metrics == null ? 0 : metrics.retries.get();
+    }
+
+    public static void resetMetrics() {
+        metricsByTask.clear();
+    }
+
+    public static String stats() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Metrics> e : new TreeMap<>(metricsByTask).entrySet()) {
+            Metrics m = e.getValue();
+            out.append(String.format("%s: transactions=%d retries=%d exhausted=%d%n",
+                e.getKey(), m.transactions.get(), m.retries.get(), m.exhausted.get()));
+        }
+        return out.toString();
+    }
+}
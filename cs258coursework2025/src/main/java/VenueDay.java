@@ -0,0 +1,92 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of GigSystem.venueDay(): everything happening at one venue on one date, for a box office.
+ */
+public class VenueDay {
+
+    /**
+     * One gig at the venue that day
+     */
+    public static final class Gig {
+        private final int gigId;
+        private final String title;
+        private final LocalDateTime start;
+        private final boolean active;
+        private final int ticketsSold;
+        private final String[][] lineup;
+
+        Gig(int gigId, String title, LocalDateTime start, boolean active, int ticketsSold, String[][] lineup) {
+            this.gigId = gigId;
+            this.title = title;
+            this.start = start;
+            this.active = active;
+            this.ticketsSold = ticketsSold;
+            this.lineup = lineup;
+        }
+
+        public int gigId() {
+            return gigId;
+        }
+
+        public String title() {
+            return title;
+        }
+
+        public LocalDateTime start() {
+            return start;
+        }
+
+        /**
+         * @return false if the gig was cancelled
+         */
+        public boolean isActive() {
+            return active;
+        }
+
+        public int ticketsSold() {
+            return ticketsSold;
+        }
+
+        /**
+         * @return act name, on time, off time per performance, as task1 returns them
+         */
+        public String[][] lineup() {
+            return lineup;
+        }
+    }
+
+    private final String venueName;
+    private final LocalDate date;
+    private final int capacity;
+    private final List<Gig> gigs;
+
+    VenueDay(String venueName, LocalDate date, int capacity, List<Gig> gigs) {
+        this.venueName = venueName;
+        this.date = date;
+        this.capacity = capacity;
+        this.gigs = Collections.unmodifiableList(gigs);
+    }
+
+    public String venueName() {
+        return venueName;
+    }
+
+    public LocalDate date() {
+        return date;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the venue's gigs that day, in start time order (empty if there are none)
+     */
+    public List<Gig> gigs() {
+        return gigs;
+    }
+}